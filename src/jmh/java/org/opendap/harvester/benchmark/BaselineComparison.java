@@ -0,0 +1,175 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare the JSON results of a JMH run with a baseline, benchmark by benchmark (and
+ * parameter set by parameter set), and exit with status 1 if any got worse by more
+ * than a threshold: a throughput that fell, or an allocation per operation
+ * (gc.alloc.rate.norm, from the gc profiler) that grew.
+ *
+ * Benchmarks found in only one of the two files are listed but do not fail the
+ * comparison, so adding a benchmark does not need a new baseline at once.
+ *
+ * Usage: BaselineComparison baseline.json results.json [threshold percent]
+ */
+public class BaselineComparison {
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    // Allocations this close (bytes per operation) are the same, however small they are
+    private static final double ALLOCATION_SLACK = 64;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison baseline.json results.json [threshold percent]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        File resultsFile = new File(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+        if (!resultsFile.exists()) {
+            System.err.println("No results in " + resultsFile + ": run the benchmarks first (gradlew jmh)");
+            System.exit(2);
+        }
+        if (!baselineFile.exists()) {
+            System.err.println("No baseline in " + baselineFile + ": make one with 'gradlew jmh jmhBaseline'");
+            System.exit(2);
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = read(objectMapper.readTree(baselineFile));
+        Map<String, JsonNode> results = read(objectMapper.readTree(resultsFile));
+
+        int regressions = 0;
+        System.out.println(String.format("%-80s %16s %16s %8s", "Benchmark", "Baseline", "Now", "Change"));
+        for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            JsonNode after = entry.getValue();
+            if (before == null) {
+                System.out.println(String.format("%-80s %16s %16s %8s", entry.getKey(), "-",
+                        format(after.path("primaryMetric")), "new"));
+                continue;
+            }
+
+            // throughput: higher is better
+            JsonNode scoreBefore = before.path("primaryMetric");
+            JsonNode scoreAfter = after.path("primaryMetric");
+            double change = change(scoreBefore.path("score").asDouble(), scoreAfter.path("score").asDouble());
+            boolean worse = !scoreBefore.path("scoreUnit").asText().equals(scoreAfter.path("scoreUnit").asText())
+                    || change < -threshold;
+            regressions += print(entry.getKey(), scoreBefore, scoreAfter, change, worse);
+
+            // allocation per operation: lower is better
+            JsonNode allocationBefore = allocation(before);
+            JsonNode allocationAfter = allocation(after);
+            if (allocationBefore != null && allocationAfter != null) {
+                double bytesBefore = allocationBefore.path("score").asDouble();
+                double bytesAfter = allocationAfter.path("score").asDouble();
+                change = change(bytesBefore, bytesAfter);
+                worse = change > threshold && bytesAfter - bytesBefore > ALLOCATION_SLACK;
+                regressions += print(entry.getKey() + " " + ALLOCATION, allocationBefore, allocationAfter, change, worse);
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println(String.format("%-80s %16s %16s %8s", key,
+                        format(baseline.get(key).path("primaryMetric")), "-", "not run"));
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " result(s) worse than the baseline by more than "
+                    + Math.round(threshold * 100) + "%");
+            System.exit(1);
+        }
+        System.out.println("No result worse than the baseline by more than " + Math.round(threshold * 100) + "%");
+    }
+
+    /**
+     * @return The results by benchmark name and parameters
+     */
+    private static Map<String, JsonNode> read(JsonNode root) {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : root) {
+            StringBuilder key = new StringBuilder(shorten(result.path("benchmark").asText()));
+            Map<String, String> params = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = result.path("params").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                params.put(field.getKey(), field.getValue().asText());
+            }
+            if (!params.isEmpty()) {
+                key.append(' ').append(params);
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    private static JsonNode allocation(JsonNode result) {
+        Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+        while (metrics.hasNext()) {
+            Map.Entry<String, JsonNode> metric = metrics.next();
+            // the gc profiler names it "·gc.alloc.rate.norm"
+            if (metric.getKey().endsWith(ALLOCATION)) {
+                return metric.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? (after == 0 ? 0 : Double.POSITIVE_INFINITY) : (after - before) / before;
+    }
+
+    private static int print(String key, JsonNode before, JsonNode after, double change, boolean worse) {
+        System.out.println(String.format("%-80s %16s %16s %+7.1f%%%s", key, format(before), format(after),
+                change * 100, worse ? "  WORSE" : ""));
+        return worse ? 1 : 0;
+    }
+
+    private static String format(JsonNode metric) {
+        return String.format("%.3g %s", metric.path("score").asDouble(), metric.path("scoreUnit").asText());
+    }
+
+    /**
+     * org.opendap.harvester.service.impl.LogLineBenchmark.parseLogLine -> LogLineBenchmark.parseLogLine
+     */
+    private static String shorten(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        int type = method > 0 ? benchmark.lastIndexOf('.', method - 1) : -1;
+        return type >= 0 ? benchmark.substring(type + 1) : benchmark;
+    }
+}
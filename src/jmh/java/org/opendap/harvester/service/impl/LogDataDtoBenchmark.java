@@ -0,0 +1,119 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.entity.dto.LogDataDto;
+import org.opendap.harvester.entity.dto.LogLineDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write a LogDataDto as JSON with the ObjectMapper Spring builds for the responses,
+ * to a stream that only counts the bytes. Each operation is one response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogDataDtoBenchmark {
+
+    @Param({"100", "10000"})
+    public int lines;
+
+    // "all" writes every field, "some" only the time, status and resource
+    @Param({"all", "some"})
+    public String fields;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final CountingOutputStream out = new CountingOutputStream();
+    private LogDataDto dto;
+
+    @Setup
+    public void setUp() {
+        LogLineServiceImpl logLineService = new LogLineServiceImpl();
+        LinePatternConfig config = SyntheticLog.config(false);
+        int[] indexes = "some".equals(fields) ? new int[] {
+                config.getSchema().indexOf("localDateTime"),
+                config.getSchema().indexOf("httpStatus"),
+                config.getSchema().indexOf("resourceId")} : null;
+
+        SyntheticLog log = new SyntheticLog(1);
+        List<LogLineDto> dtos = new ArrayList<>();
+        while (dtos.size() < lines) {
+            LogLine logLine = logLineService.parseLogLine(log.nextLine(), config);
+            if (logLine.isMatched()) {
+                dtos.add(logLineService.buildDto(logLine, indexes));
+            }
+        }
+        dto = LogDataDto.builder().lines(dtos).build();
+    }
+
+    @Benchmark
+    public long writeValue() throws IOException {
+        out.count = 0;
+        objectMapper.writeValue(out, dto);
+        return out.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.config.ConfigurationExtractor;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Read a whole synthetic log file, streaming each line to a consumer: as one /log page
+ * with no limit, and as a /stats request does, with and without a filter. Each
+ * operation is one read of the file; the 'lines' counter gives the lines passed on
+ * per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LogExtractionBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int lines;
+
+    // "none" passes every line on; "status" keeps only the 404s
+    @Param({"none", "status"})
+    public String filter;
+
+    // Threads extractAll() parses with (e.g. -p threads=4); a /log page is read on one
+    @Param({"1"})
+    public int threads;
+
+    private Path directory;
+    private LogExtractionServiceImpl service;
+    private LogFilter logFilter;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("reporter-jmh");
+        Path logFile = directory.resolve("AnonymousAccess.log");
+        new SyntheticLog(1).write(logFile, lines);
+
+        ConfigurationExtractor configurationExtractor = mock(ConfigurationExtractor.class);
+        when(configurationExtractor.getHyraxLogfilePath()).thenReturn(logFile.toString());
+        when(configurationExtractor.getHyraxLogfileCharset()).thenReturn(StandardCharsets.UTF_8);
+        when(configurationExtractor.getCheckpointPath()).thenReturn("");
+        LinePatternConfig config = SyntheticLog.config(false);
+        LinePatternService linePatternService = SyntheticLog.patternService(config);
+        LogLineServiceImpl logLineService = new LogLineServiceImpl();
+
+        LogTailServiceImpl logTailService = new LogTailServiceImpl();
+        ReflectionTestUtils.setField(logTailService, "configurationExtractor", configurationExtractor);
+        ReflectionTestUtils.setField(logTailService, "logLineService", logLineService);
+        ReflectionTestUtils.setField(logTailService, "linePatternService", linePatternService);
+        ReflectionTestUtils.setField(logTailService, "indexInterval", 65536L);
+        ReflectionTestUtils.setField(logTailService, "chunkSize", 1048576L);
+
+        service = new LogExtractionServiceImpl();
+        ReflectionTestUtils.setField(service, "logLineService", logLineService);
+        ReflectionTestUtils.setField(service, "linePatternService", linePatternService);
+        ReflectionTestUtils.setField(service, "configurationExtractor", configurationExtractor);
+        ReflectionTestUtils.setField(service, "logTailService", logTailService);
+        ReflectionTestUtils.setField(service, "parseThreads", threads);
+
+        logFilter = "status".equals(filter)
+                ? LogFilter.builder().statuses(Collections.singleton("404")).build()
+                : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.shutdown();
+        Files.deleteIfExists(directory.resolve("AnonymousAccess.log"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void extractPage(Blackhole blackhole, Counters counters) throws IOException {
+        service.extractLogData(null, null, Integer.MAX_VALUE, logFilter, consumer(blackhole, counters));
+    }
+
+    @Benchmark
+    public void extractAll(Blackhole blackhole, Counters counters) throws IOException {
+        service.extractLogData(null, logFilter, consumer(blackhole, counters));
+    }
+
+    private static LogLineConsumer consumer(final Blackhole blackhole, final Counters counters) {
+        return new LogLineConsumer() {
+            @Override
+            public void accept(LogLine logLine) {
+                counters.lines++;
+                blackhole.consume(logLine);
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work done for each line of the log: parsing it, reading its time and
+ * filtering it. Each operation is one line, taken in turn from 4096 synthetic ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogLineBenchmark {
+    private static final int LINES = 4096;
+
+    // "bracket" is the default pattern, split by BracketTokenizer; "regex" is the same
+    // pattern matched as a regular expression
+    @Param({"bracket", "regex"})
+    public String pattern;
+
+    private final LogLineServiceImpl logLineService = new LogLineServiceImpl();
+    private LinePatternConfig config;
+    private String[] lines;
+    private LogLine[] parsed;
+    private LogLineFilter filter;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        config = SyntheticLog.config("regex".equals(pattern));
+        SyntheticLog log = new SyntheticLog(1);
+        lines = new String[LINES];
+        parsed = new LogLine[LINES];
+        int matched = 0;
+        while (matched < LINES) {
+            String line = log.nextLine();
+            LogLine logLine = logLineService.parseLogLine(line, config);
+            if (logLine.isMatched()) {
+                lines[matched] = line;
+                parsed[matched] = logLine;
+                matched++;
+            }
+        }
+        filter = LogLineFilter.compile(LogFilter.builder()
+                .excludedStatuses(new HashSet<>(Arrays.asList("304", "500")))
+                .resourceId("/opendap/hyrax/data/nc/fnoc1*")
+                .verbs(new HashSet<>(Arrays.asList("GET")))
+                .build(), config.getSchema());
+    }
+
+    @Benchmark
+    public LogLine parseLogLine() {
+        return logLineService.parseLogLine(lines[next()], config);
+    }
+
+    /**
+     * The time of a parsed line (what toGMT() used to do).
+     */
+    @Benchmark
+    public long getEpochMillis() {
+        return logLineService.getEpochMillis(parsed[next()]);
+    }
+
+    /**
+     * The time of a line that has not been parsed, as the log is searched for 'since'.
+     */
+    @Benchmark
+    public long getEpochMillisFromText() {
+        return logLineService.getEpochMillis(lines[next()], config);
+    }
+
+    @Benchmark
+    public boolean filter() {
+        return filter.matches(parsed[next()]);
+    }
+
+    private int next() {
+        int index = next;
+        next = (index + 1) & (LINES - 1);
+        return index;
+    }
+}
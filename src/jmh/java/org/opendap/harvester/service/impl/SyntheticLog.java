@@ -0,0 +1,129 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.opendap.harvester.entity.LinePattern;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogLineSchema;
+import org.opendap.harvester.service.LinePatternService;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Log lines for the benchmarks: always the same for the same seed, in time order,
+ * with the mix of statuses, verbs and resources a Hyrax server sees, and one line
+ * in 200 malformed.
+ */
+final class SyntheticLog {
+    static final String NAMES = "host;sessionId;localDateTime;duration;httpStatus;requestId;httpVerb;resourceId;query;size";
+    static final String REGEXP = "\\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\]";
+
+    private static final long START = new DateTime(2016, 6, 23, 16, 48, 0, 0, DateTimeZone.UTC).getMillis();
+    private static final String[] STATUSES = {"200", "200", "200", "200", "200", "200", "200", "304", "404", "500"};
+    private static final String[] VERBS = {"GET", "GET", "GET", "HTTP-GET", "POST"};
+    private static final String[] SUFFIXES = {".dods", ".das", ".dds", ".dmr.xml", ".dap", ".html", ".nc4", ""};
+
+    private final Random random;
+    private int index = 0;
+
+    SyntheticLog(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @return The next line, without its line terminator
+     */
+    String nextLine() {
+        int i = index++;
+        if (random.nextInt(200) == 0) {
+            return "[malformed line " + i;
+        }
+        StringBuilder line = new StringBuilder(200);
+        line.append("[Mozilla/5.0 (X11; Linux x86_64) client/").append(random.nextInt(10)).append("] [-] [");
+        line.append(new DateTime(START + i * 250L, DateTimeZone.UTC).toString(TimestampParser.PATTERN));
+        line.append("] [").append(String.format("%5d", random.nextInt(2000))).append(" ms] [");
+        line.append(STATUSES[random.nextInt(STATUSES.length)]).append("] [");
+        line.append(String.format("%8d", i)).append("] [");
+        line.append(VERBS[random.nextInt(VERBS.length)]).append("] [/opendap/hyrax/data/nc/");
+        // a few datasets get most of the requests
+        int dataset = (int) Math.abs(random.nextGaussian() * 50);
+        line.append("fnoc").append(dataset).append(".nc").append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+        line.append("] [");
+        if (random.nextBoolean()) {
+            line.append("u[0:1:15][0:1:16],v[0:1:15][0:1:16]");
+        }
+        line.append("] [").append(random.nextInt(1000000)).append("]");
+        return line.toString();
+    }
+
+    /**
+     * Write 'count' lines to the file, replacing what it held.
+     */
+    void write(Path file, int count) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(nextLine());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @param regex True for the pattern matched with the regex, false for the one the
+     *              bracket tokenizer splits
+     */
+    static LinePatternConfig config(boolean regex) {
+        LinePatternConfig config = new LogLineServiceImpl().buildConfig(LinePattern.builder()
+                .names(NAMES)
+                .regexp(REGEXP)
+                .build());
+        if (!regex) {
+            return config;
+        }
+        return LinePatternConfig.builder()
+                .pattern(config.getPattern())
+                .names(config.getNames())
+                .schema(new LogLineSchema(config.getNames()))
+                .bracketFields(0)
+                .build();
+    }
+
+    static LinePatternService patternService(final LinePatternConfig config) {
+        return new LinePatternService() {
+            @Override
+            public LinePatternConfig getLinePatternConfig() {
+                return config;
+            }
+        };
+    }
+}
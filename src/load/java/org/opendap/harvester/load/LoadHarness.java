@@ -0,0 +1,422 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendap.harvester.entity.DurationHistogram;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Start a reporter (the embedded server, in a JVM of its own) on a log, poll /log
+ * from a number of threads the way collectors do, and report the latency
+ * percentiles, the throughput and the reporter's peak resident memory.
+ *
+ * Each poller starts from the beginning of the log and follows the cursors, asking
+ * for the next page at once while pages come back full, and every 'poll.interval'
+ * milliseconds once it has caught up. Pages are asked for as NDJSON.
+ *
+ * Usage: LoadHarness [--log=file | --lines=N] [--pollers=4] [--duration=60]
+ *                    [--poll.interval=1000] [--limit=10000] [--rate=lines/s]
+ *                    [--jvm="-Xmx512m"] [--port=0] [--reporter.x=y ...]
+ *
+ * Without --log a log of --lines lines is made with LogGenerator, which takes its
+ * options too. --rate appends lines to the log while it is polled. Options that name
+ * a reporter, collector or hyrax property are passed on to the reporter.
+ */
+public class LoadHarness {
+    private static final long START_TIMEOUT = 120000;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final int port;
+    private final int limit;
+    private final long pollInterval;
+    private final long deadline;
+
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong caughtUp = new AtomicLong();
+    private final Map<String, Long> statuses = new TreeMap<>();
+    private final DurationHistogram latencies = new DurationHistogram();
+
+    private LoadHarness(int port, int limit, long pollInterval, long deadline) {
+        this.port = port;
+        this.limit = limit;
+        this.pollInterval = pollInterval;
+        this.deadline = deadline;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadOptions options = new LoadOptions(args);
+        Path directory = Files.createTempDirectory("reporter-load");
+        final Path log;
+        if (options.has("log")) {
+            log = Paths.get(options.get("log", null));
+        } else {
+            log = directory.resolve("AnonymousAccess.log");
+            long count = options.getLong("lines", 1000000);
+            long interval = options.getLong("interval", 250);
+            new LogGenerator(options).write(log, count, System.currentTimeMillis() - count * interval, interval, false);
+        }
+        int pollers = options.getInt("pollers", 4);
+        long duration = options.getLong("duration", 60) * 1000;
+        int limit = options.getInt("limit", 10000);
+        int port = options.getInt("port", 0);
+        if (port == 0) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+        }
+
+        Process reporter = start(options, directory, log, port, limit);
+        Thread appender = null;
+        RssSampler rss = null;
+        try {
+            waitUntilUp(reporter, port);
+            rss = new RssSampler(pid(reporter));
+            rss.start();
+            final double rate = options.getDouble("rate", 0);
+            if (rate > 0) {
+                appender = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            new LogGenerator(options).appendLive(log, rate, 0);
+                        } catch (IOException e) {
+                            System.err.println("Appending to " + log + " failed: " + e);
+                        }
+                    }
+                }, "log-appender");
+                appender.start();
+            }
+
+            long begin = System.currentTimeMillis();
+            final LoadHarness harness = new LoadHarness(port, limit, options.getLong("poll.interval", 1000), begin + duration);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < pollers; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        harness.poll();
+                    }
+                }, "poller-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.currentTimeMillis() - begin;
+            if (appender != null) {
+                appender.interrupt();
+                appender.join();
+            }
+            rss.interrupt();
+            rss.join();
+
+            System.out.println(String.format("Log:        %s (%.1f MB)%s", log, Files.size(log) / 1e6,
+                    rate > 0 ? ", " + rate + " lines/s appended" : ""));
+            System.out.println(String.format("Pollers:    %d for %.1f s, pages of %d lines", pollers, elapsed / 1000.0, limit));
+            harness.report(elapsed);
+            System.out.println("Peak RSS:   " + (rss.getPeak() > 0 ? rss.getPeak() / 1024 + " MB" : "not available")
+                    + " (the reporter's JVM)");
+            System.out.println("Reporter:   " + directory.resolve("reporter.out"));
+        } finally {
+            if (appender != null) {
+                appender.interrupt();
+            }
+            if (rss != null) {
+                rss.interrupt();
+            }
+            reporter.destroy();
+            if (!options.has("log")) {
+                Files.deleteIfExists(log);
+            }
+        }
+    }
+
+    /**
+     * One collector: read the whole log a page at a time, then keep polling for new
+     * lines until the deadline.
+     */
+    private void poll() {
+        DurationHistogram histogram = new DurationHistogram();
+        Map<String, Long> counts = new TreeMap<>();
+        String cursor = null;
+        boolean behind = true;
+        long begin = System.currentTimeMillis();
+        while (System.currentTimeMillis() < deadline) {
+            long start = System.nanoTime();
+            Page page;
+            try {
+                page = get(cursor);
+            } catch (IOException e) {
+                page = new Page(e.getClass().getSimpleName());
+            }
+            histogram.record((System.nanoTime() - start) / 1000);
+            Long count = counts.get(page.status);
+            counts.put(page.status, count == null ? 1 : count + 1);
+
+            if (page.nextCursor != null) {
+                cursor = page.nextCursor;
+                lines.addAndGet(page.lines);
+                bytes.addAndGet(page.bytes);
+                if (page.lines >= limit) {
+                    continue;
+                }
+                if (behind) {
+                    behind = false;
+                    long took = System.currentTimeMillis() - begin;
+                    long max;
+                    while ((max = caughtUp.get()) < took && !caughtUp.compareAndSet(max, took)) {
+                        // retry
+                    }
+                }
+            }
+            sleep(page.retryAfter > 0 ? page.retryAfter : pollInterval);
+        }
+        synchronized (this) {
+            latencies.merge(histogram);
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                Long count = statuses.get(entry.getKey());
+                statuses.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+            }
+        }
+    }
+
+    private Page get(String cursor) throws IOException {
+        String url = "http://localhost:" + port + "/log?limit=" + limit
+                + (cursor != null ? "&cursor=" + URLEncoder.encode(cursor, "UTF-8") : "");
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Accept", "application/x-ndjson");
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(600000);
+        int status = connection.getResponseCode();
+        Page page = new Page(String.valueOf(status));
+        if (status != 200) {
+            String retryAfter = connection.getHeaderField("Retry-After");
+            page.retryAfter = retryAfter != null ? Long.parseLong(retryAfter.trim()) * 1000 : 0;
+            drain(connection.getErrorStream());
+            return page;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            String last = null;
+            while ((line = reader.readLine()) != null) {
+                page.bytes += line.length() + 1;
+                if (last != null) {
+                    page.lines++;
+                }
+                last = line;
+            }
+            JsonNode end = last != null ? OBJECT_MAPPER.readTree(last) : null;
+            page.nextCursor = end != null && end.has("nextCursor") ? end.get("nextCursor").asText() : null;
+        }
+        return page;
+    }
+
+    private void report(long elapsed) {
+        long requests = latencies.getCount();
+        double seconds = elapsed / 1000.0;
+        System.out.println(String.format("Requests:   %d (%.1f/s) %s", requests, requests / seconds, statuses));
+        System.out.println(String.format("Lines:      %d (%.0f/s), %.1f MB (%.1f MB/s)", lines.get(), lines.get() / seconds,
+                bytes.get() / 1e6, bytes.get() / 1e6 / seconds));
+        System.out.println(String.format("Latency:    p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(90) / 1000.0,
+                latencies.getValueAtPercentile(99) / 1000.0, latencies.getMax() / 1000.0));
+        System.out.println("Caught up:  " + (caughtUp.get() > 0 ? String.format("%.1f s (the slowest poller)",
+                caughtUp.get() / 1000.0) : "not within the run"));
+    }
+
+    private static Process start(LoadOptions options, Path directory, Path log, int port, int limit) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String jvm = options.get("jvm", "-Xmx512m").trim();
+        if (!jvm.isEmpty()) {
+            command.addAll(Arrays.asList(jvm.split("\\s+")));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("org.opendap.harvester.ReporterApplication");
+        command.add("--server.port=" + port);
+        command.add("--hyrax.logfile.path=" + log.toAbsolutePath());
+        command.add("--reporter.checkpoint.path=" + directory.resolve("reporter.checkpoint"));
+        command.add("--logging.file=" + directory.resolve("reporter.log"));
+        command.add("--reporter.registration.enabled=false");
+        command.add("--collector.log.number=" + limit);
+        for (String arg : options.getArgs()) {
+            if (arg.startsWith("--reporter.") || arg.startsWith("--collector.") || arg.startsWith("--hyrax.")) {
+                command.add(arg);
+            }
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        // no olfs.xml: the reporter only uses the properties it is given
+        builder.environment().put("OLFS_CONFIG_DIR", directory.toString());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(directory.resolve("reporter.out").toFile());
+        return builder.start();
+    }
+
+    private static void waitUntilUp(Process reporter, int port) throws IOException, InterruptedException {
+        long begin = System.currentTimeMillis();
+        while (System.currentTimeMillis() - begin < START_TIMEOUT) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port
+                        + "/healthcheck").openConnection();
+                connection.setConnectTimeout(1000);
+                if (connection.getResponseCode() == 200) {
+                    drain(connection.getInputStream());
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            if (!reporter.isAlive()) {
+                throw new IOException("The reporter exited with status " + reporter.exitValue());
+            }
+            Thread.sleep(250);
+        }
+        throw new IOException("The reporter did not start within " + START_TIMEOUT / 1000 + " s");
+    }
+
+    /**
+     * @return The process id, or -1 if this JVM cannot tell (Process.pid() is Java 9)
+     */
+    private static long pid(Process process) {
+        try {
+            Method method = Process.class.getMethod("pid");
+            return (Long) method.invoke(process);
+        } catch (ReflectiveOperationException e) {
+            // Java 8
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[8192];
+                while (stream.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Page {
+        private final String status;
+        private String nextCursor = null;
+        private long lines = 0;
+        private long bytes = 0;
+        private long retryAfter = 0;
+
+        Page(String status) {
+            this.status = status;
+        }
+    }
+
+    /**
+     * Read the peak resident set size of a process (VmHWM in /proc/<pid>/status, in
+     * kB) twice a second, so it is known even if the process is gone at the end.
+     */
+    private static class RssSampler extends Thread {
+        private final long pid;
+        private volatile long peak = 0;
+
+        RssSampler(long pid) {
+            super("rss-sampler");
+            setDaemon(true);
+            this.pid = pid;
+        }
+
+        @Override
+        public void run() {
+            Path status = Paths.get("/proc/" + pid + "/status");
+            while (pid > 0 && !isInterrupted()) {
+                sample(status);
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            sample(status);
+        }
+
+        private void sample(Path status) {
+            try {
+                for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("VmHWM:")) {
+                        peak = Math.max(peak, Long.parseLong(line.replaceAll("[^0-9]", "")));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // no /proc, or the process is gone
+            }
+        }
+
+        long getPeak() {
+            return peak;
+        }
+    }
+}
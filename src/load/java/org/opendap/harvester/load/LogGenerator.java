@@ -0,0 +1,352 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.load;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Write a Hyrax anonymous access log (see ExampleAnonymous.log) of made-up requests,
+ * or append to one at a steady rate as a busy server would.
+ *
+ * What the requests look like is set with --name=value options:
+ * - seed (1): the same seed and options give the same lines
+ * - datasets (1000) and skew (1.1): how many datasets there are, and how much more
+ *   popular the first ones are (a Zipf exponent; 0 makes them all as popular)
+ * - statuses ("200:88,304:5,404:5,500:2"): the status mix, as status:weight
+ * - query.rate (0.4), query.min (10), query.max (200): how many data requests have a
+ *   constraint, and how long the constraints are (characters)
+ * - zones ("+0000"): the time zone offsets the times are written with, e.g.
+ *   "+0000,-0700,+0530"; each line takes one of them
+ * - malformed (0.001): the share of lines that are blank, cut short or not log lines
+ *
+ * Usage: LogGenerator --out=file [--lines=N] [--append=true] [--interval=ms]
+ *                     [--start=2016-06-23T16:48:00Z] [--rate=lines/s --duration=s] [options]
+ *
+ * The N lines are 'interval' milliseconds apart on average, starting at 'start' (by
+ * default, so that the last one is now). With a rate, lines stamped with the current
+ * time are then appended at that rate for 'duration' seconds (0: until stopped).
+ */
+public class LogGenerator {
+    private static final String[] AGENTS = {
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0 Safari/537.36",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_14_1) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/12.0 Safari/605.1.15",
+            "Mozilla/5.0 (X11; Linux x86_64; rv:63.0) Gecko/20100101 Firefox/63.0",
+            "Python-urllib/3.6",
+            "python-requests/2.20.0",
+            "Wget/1.19.4 (linux-gnu)",
+            "curl/7.58.0",
+            "oc4.6.1",
+            "PyDAP/3.2.2",
+            "Panoply/4.10.0"};
+    private static final String[] DIRECTORIES = {"nc", "hdf4", "hdf5", "gdal", "ncml", "ff", "csv", "dmrpp"};
+    private static final String[] VARIABLES = {"sst", "u", "v", "lat", "lon", "time", "COADSX", "COADSY", "TIME",
+            "band_1", "precip", "air", "SPEH", "UWND", "VWND"};
+    // suffix and weight; the data responses (the ones that take a constraint) come first
+    private static final String[] SUFFIXES = {".dods", ".dap", ".ascii", ".das", ".dds", ".dmr.xml", ".html", ".info", ".nc4", ""};
+    private static final int[] SUFFIX_WEIGHTS = {30, 10, 5, 10, 10, 10, 12, 3, 5, 5};
+    private static final int DATA_SUFFIXES = 3;
+    private static final int SESSIONS = 500;
+    private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS Z";
+
+    private final Random random;
+    private final double[] datasetCdf;
+    private final String[] statuses;
+    private final double[] statusCdf;
+    private final double[] suffixCdf;
+    private final double queryRate;
+    private final int queryMin;
+    private final int queryMax;
+    private final DateTimeFormatter[] formatters;
+    private final double malformed;
+    private final String[] sessionIds = new String[SESSIONS];
+    private final int[] sessionAgents = new int[SESSIONS];
+    private final long[] sessionRequests = new long[SESSIONS];
+
+    LogGenerator(LoadOptions options) {
+        random = new Random(options.getLong("seed", 1));
+        datasetCdf = zipf(options.getInt("datasets", 1000), options.getDouble("skew", 1.1));
+
+        List<String> names = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (String entry : options.get("statuses", "200:88,304:5,404:5,500:2").split(",")) {
+            String[] parts = entry.trim().split(":");
+            names.add(parts[0].trim());
+            weights.add(parts.length > 1 ? Double.parseDouble(parts[1].trim()) : 1);
+        }
+        statuses = names.toArray(new String[names.size()]);
+        double[] statusWeights = new double[weights.size()];
+        for (int i = 0; i < statusWeights.length; i++) {
+            statusWeights[i] = weights.get(i);
+        }
+        statusCdf = cdf(statusWeights);
+        double[] suffixWeights = new double[SUFFIX_WEIGHTS.length];
+        for (int i = 0; i < suffixWeights.length; i++) {
+            suffixWeights[i] = SUFFIX_WEIGHTS[i];
+        }
+        suffixCdf = cdf(suffixWeights);
+
+        queryRate = options.getDouble("query.rate", 0.4);
+        queryMin = options.getInt("query.min", 10);
+        queryMax = Math.max(queryMin, options.getInt("query.max", 200));
+
+        String[] zones = options.get("zones", "+0000").split(",");
+        formatters = new DateTimeFormatter[zones.length];
+        for (int i = 0; i < zones.length; i++) {
+            formatters[i] = DateTimeFormat.forPattern(PATTERN).withLocale(Locale.US).withZone(zone(zones[i].trim()));
+        }
+        malformed = options.getDouble("malformed", 0.001);
+
+        for (int i = 0; i < SESSIONS; i++) {
+            // about a third of the clients keep no session
+            sessionIds[i] = random.nextInt(3) == 0 ? "-" : String.format("%016X%016X", random.nextLong(), random.nextLong());
+            sessionAgents[i] = random.nextInt(AGENTS.length);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadOptions options = new LoadOptions(args);
+        if (!options.has("out")) {
+            System.err.println("Usage: LogGenerator --out=file [--lines=N] [--append=true] [--interval=ms] [--start=time]"
+                    + " [--rate=lines/s --duration=s] [--seed=1 --datasets=1000 --skew=1.1 --statuses=200:88,304:5,404:5,500:2"
+                    + " --query.rate=0.4 --query.min=10 --query.max=200 --zones=+0000 --malformed=0.001]");
+            System.exit(2);
+        }
+        Path file = Paths.get(options.get("out", null));
+        LogGenerator generator = new LogGenerator(options);
+
+        long lines = options.getLong("lines", 100000);
+        long interval = options.getLong("interval", 250);
+        long start = options.has("start") ? DateTime.parse(options.get("start", null)).getMillis()
+                : System.currentTimeMillis() - lines * interval;
+        long begin = System.currentTimeMillis();
+        generator.write(file, lines, start, interval, Boolean.parseBoolean(options.get("append", "false")));
+        System.out.println("Wrote " + lines + " lines to " + file + " in " + (System.currentTimeMillis() - begin) + " ms");
+
+        double rate = options.getDouble("rate", 0);
+        if (rate > 0) {
+            long duration = options.getLong("duration", 0) * 1000;
+            System.out.println("Appending " + rate + " lines/s" + (duration > 0 ? " for " + duration / 1000 + " s" : ""));
+            long appended = generator.appendLive(file, rate, duration);
+            System.out.println("Appended " + appended + " lines");
+        }
+    }
+
+    /**
+     * Write 'count' lines, on average 'interval' milliseconds apart from 'start'.
+     *
+     * @return The time of the last line
+     */
+    long write(Path file, long count, long start, long interval, boolean append) throws IOException {
+        long time = start;
+        try (BufferedWriter writer = open(file, append)) {
+            for (long i = 0; i < count; i++) {
+                // the gaps between requests are exponentially distributed
+                time += (long) (-Math.log(1 - random.nextDouble()) * interval);
+                writeLine(writer, time);
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Append lines stamped with the current time at 'rate' lines per second, in a
+     * batch every 100 ms, until 'duration' milliseconds have gone by (0: until the
+     * thread is interrupted).
+     *
+     * @return The number of lines appended
+     */
+    long appendLive(Path file, double rate, long duration) throws IOException {
+        long begin = System.currentTimeMillis();
+        long written = 0;
+        try (BufferedWriter writer = open(file, true)) {
+            while (!Thread.currentThread().isInterrupted()) {
+                long now = System.currentTimeMillis();
+                if (duration > 0 && now - begin >= duration) {
+                    break;
+                }
+                long due = (long) ((now - begin) * rate / 1000);
+                for (; written < due; written++) {
+                    writeLine(writer, now);
+                }
+                writer.flush();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return written;
+    }
+
+    private void writeLine(Writer writer, long time) throws IOException {
+        writer.write(nextLine(time));
+        writer.write('\n');
+    }
+
+    /**
+     * @param time The time of the request (milliseconds since the epoch)
+     * @return A log line, without its line terminator
+     */
+    String nextLine(long time) {
+        if (malformed > 0 && random.nextDouble() < malformed) {
+            return malformedLine(time);
+        }
+        return wellFormedLine(time);
+    }
+
+    private String wellFormedLine(long time) {
+        int session = random.nextInt(SESSIONS);
+        int dataset = pick(datasetCdf);
+        int suffix = pick(suffixCdf);
+        String status = statuses[pick(statusCdf)];
+
+        StringBuilder line = new StringBuilder(256);
+        line.append('[').append(AGENTS[sessionAgents[session]]).append("] [").append(sessionIds[session]).append("] [");
+        line.append(formatters[random.nextInt(formatters.length)].print(time)).append("] [");
+        line.append(pad(duration(suffix), 5)).append(" ms] [").append(status).append("] [");
+        line.append(pad(++sessionRequests[session], 8)).append("] [");
+        line.append(random.nextInt(20) == 0 ? "POST" : "GET").append("] [");
+        line.append("/opendap/hyrax/data/").append(DIRECTORIES[dataset % DIRECTORIES.length]).append("/dataset")
+                .append(dataset).append(".nc").append(SUFFIXES[suffix]).append("] [");
+        if (suffix < DATA_SUFFIXES && random.nextDouble() < queryRate) {
+            appendQuery(line, queryMin + random.nextInt(queryMax - queryMin + 1));
+        }
+        line.append("] [").append("200".equals(status) ? size(suffix) : 0).append(']');
+        return line.toString();
+    }
+
+    /**
+     * A constraint of about 'length' characters, e.g. "sst[0:1:11][0:1:89][0:1:179],lat[0:1:89]".
+     */
+    private void appendQuery(StringBuilder line, int length) {
+        int start = line.length();
+        while (line.length() - start < length) {
+            if (line.length() > start) {
+                line.append(',');
+            }
+            line.append(VARIABLES[random.nextInt(VARIABLES.length)]);
+            int dimensions = 1 + random.nextInt(3);
+            for (int i = 0; i < dimensions; i++) {
+                int first = random.nextInt(100);
+                line.append('[').append(first).append(":1:").append(first + random.nextInt(1000)).append(']');
+            }
+        }
+    }
+
+    private String malformedLine(long time) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return "";
+            case 1:
+                String line = wellFormedLine(time);
+                return line.substring(0, 1 + random.nextInt(line.length() - 1));
+            default:
+                return "java.lang.IllegalStateException: Response already committed at " + time;
+        }
+    }
+
+    /**
+     * Milliseconds, mostly small with a long tail; data responses take longer.
+     */
+    private long duration(int suffix) {
+        double millis = Math.exp(random.nextGaussian() * 1.2 + (suffix < DATA_SUFFIXES ? 4 : 1.5));
+        return Math.min(600000, (long) millis);
+    }
+
+    private long size(int suffix) {
+        return suffix < DATA_SUFFIXES ? (long) Math.exp(random.nextGaussian() * 2 + 11) : 500 + random.nextInt(20000);
+    }
+
+    private int pick(double[] cdf) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(cdf.length - 1, index >= 0 ? index : -index - 1);
+    }
+
+    private static double[] zipf(int count, double exponent) {
+        double[] weights = new double[Math.max(1, count)];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1 / Math.pow(i + 1, exponent);
+        }
+        return cdf(weights);
+    }
+
+    private static double[] cdf(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cdf[i] = sum / total;
+        }
+        return cdf;
+    }
+
+    private static DateTimeZone zone(String offset) {
+        int sign = offset.startsWith("-") ? -1 : 1;
+        String digits = offset.replaceAll("[^0-9]", "");
+        if (digits.length() != 4) {
+            throw new IllegalArgumentException("Expected a zone offset like +0100, not " + offset);
+        }
+        int minutes = Integer.parseInt(digits.substring(0, 2)) * 60 + Integer.parseInt(digits.substring(2));
+        return DateTimeZone.forOffsetMillis(sign * minutes * 60000);
+    }
+
+    private static String pad(long value, int width) {
+        String text = Long.toString(value);
+        StringBuilder padded = new StringBuilder(width);
+        for (int i = text.length(); i < width; i++) {
+            padded.append(' ');
+        }
+        return padded.append(text).toString();
+    }
+
+    private static BufferedWriter open(Path file, boolean append) throws IOException {
+        return append
+                ? Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+}
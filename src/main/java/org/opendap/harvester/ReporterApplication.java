@@ -32,6 +32,7 @@ package org.opendap.harvester;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
@@ -49,6 +50,7 @@ import org.springframework.boot.web.support.SpringBootServletInitializer;
 
 import org.springframework.context.annotation.Bean;
 //import org.springframework.http.HttpStatus;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
 
@@ -63,9 +65,19 @@ public class ReporterApplication extends SpringBootServletInitializer {
 		return application.sources(ReporterApplication.class);
 	}
 
+    /**
+     * The client the reporter calls the collector with. Without timeouts a collector
+     * that accepts the connection but never answers would hold the calling thread for
+     * good. Connections are kept alive and reused by the JDK's HTTP client, since
+     * RestTemplate reads each response to its end and closes it.
+     */
     @Bean
-    public RestTemplate restTemplate(){
-        return new RestTemplate();
+    public RestTemplate restTemplate(@Value("${reporter.http.connect.timeout:5000}") int connectTimeout,
+                                     @Value("${reporter.http.read.timeout:10000}") int readTimeout){
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(connectTimeout);
+        factory.setReadTimeout(readTimeout);
+        return new RestTemplate(factory);
     }
     
 	public static void main(String[] args) {
@@ -0,0 +1,95 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.config;
+
+import org.opendap.harvester.service.LogRequestLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The threads that asynchronous responses (the streamed /log, and /stats) run on.
+ *
+ * Spring's default makes a new thread for each one; this pool has one thread per
+ * request LogRequestLimiter lets read the log at once, and one per request it lets
+ * wait for its turn, since the turn is waited for on these threads rather than on the
+ * web server's. Its queue holds the responses that are only copied from
+ * LogResponseCache, and those that come in while every thread is taken; these still
+ * get their turn, or a 503, within reporter.log.queue.timeout of being reserved.
+ *
+ * When a request completes, its LogRequestLimiter.Ticket is cancelled, so that a
+ * request whose task never ran (cut off while still queued, or refused by the pool)
+ * does not keep its place.
+ */
+@Configuration
+public class AsyncConfiguration extends WebMvcConfigurerAdapter {
+    private static final int QUEUE_CAPACITY = 100;
+
+    @Value("${reporter.log.max.concurrent:2}")
+    private int maxConcurrent;
+
+    @Value("${reporter.log.max.queued:4}")
+    private int maxQueued;
+
+    // How long an asynchronous response may take (milliseconds) before it is cut off
+    @Value("${reporter.log.timeout:600000}")
+    private long timeout;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(logRequestExecutor());
+        configurer.setDefaultTimeout(timeout);
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) throws Exception {
+                Object ticket = request.getAttribute(LogRequestLimiter.TICKET_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (ticket instanceof LogRequestLimiter.Ticket) {
+                    ((LogRequestLimiter.Ticket) ticket).cancel();
+                }
+            }
+        });
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor logRequestExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        int threads = Math.max(1, maxConcurrent) + Math.max(0, maxQueued);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(QUEUE_CAPACITY);
+        executor.setThreadNamePrefix("reporter-log-");
+        executor.setDaemon(true);
+        return executor;
+    }
+}
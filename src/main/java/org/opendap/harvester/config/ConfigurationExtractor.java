@@ -26,9 +26,13 @@
 package org.opendap.harvester.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendap.harvester.ReporterApplication;
 import org.opendap.harvester.entity.LinePattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
@@ -44,6 +48,10 @@ import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.springframework.util.StringUtils.isEmpty;
 
@@ -56,12 +64,20 @@ import static org.springframework.util.StringUtils.isEmpty;
  * value of the OLFS_CONFIG_DIR environment variable and, if that does not name a
  * valid directory, fallback to checking "/etc/olfs/".
  *
+ * All of the values are read in one pass into a ConfigurationSnapshot, which is
+ * published through a volatile field. Every reporter.config.check.interval
+ * milliseconds the files the snapshot was read from are checked and, if one has
+ * changed, a new snapshot replaces the old one.
+ *
  * @todo This class has methods that trap exceptions. Review that.
  * @todo Add a check of the webapps/opendap/WEB_INF/conf dir to the list of places for config info
  * 
  */
 @Component
 public class ConfigurationExtractor {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
     private static final String ENV_VAR_NAME = "OLFS_CONFIG_DIR";
     private static final String DEFAULT_CONFIG_DIR = "/etc/olfs/";
     private static final String DEFAULT_CONFIG_FILE = "reporter.xml";
@@ -83,6 +99,9 @@ public class ConfigurationExtractor {
     @Value("${hyrax.logfile.path:}")
     private String hyraxLogfilePathFromProperties;
 
+    @Value("${hyrax.logfile.charset:UTF-8}")
+    private String hyraxLogfileCharsetFromProperties;
+
     @Value("${hyrax.default.ping:}")
     private Long hyraxDefaultPingFromProperties;
     
@@ -99,54 +118,55 @@ public class ConfigurationExtractor {
     @Value("${collector.reporter.url}")
     private String hyraxDefaultReporterUrlFromProperties;
 
-    private String hyraxLogfilePath = null;
-    private Long hyraxDefaultPing = null;
-    private String linePatternPath = null;
-    private LinePattern linePattern = null;
-    
-    //SBL - used for the call to collector/registration on startup
-    private String hyraxDefaultCollectorUrl = null;
-    private String hyraxDefaultServerUrl = null;
-    private String hyraxDefaultReporterUrl = null;
-    private Integer hyraxDefaultLogNumber = null;
+    @Value("${reporter.checkpoint.path:}")
+    private String checkpointPathFromProperties;
 
-    private LinePattern getLinePatternDirectly() {
-        LinePattern linePattern = extractLinePatternFormOlfsXml();
-        return !isEmpty(linePattern.getNames()) && !isEmpty(linePattern.getRegexp()) ?
-                linePattern :
-                extractLinePatternFormProperties();
-    }
+    private volatile ConfigurationSnapshot snapshot = null;
 
-    private LinePattern extractLinePatternFormOlfsXml(){
-        return LinePattern.builder()
-                .names(extractDataFromOlfsXml("/OLFSConfig/LogReporter/LogFilePattern/names").trim())
-                .regexp(extractDataFromOlfsXml("/OLFSConfig/LogReporter/LogFilePattern/regexp").trim())
-                .build();
+    /**
+     * Get the current configuration, reading it the first time this is called.
+     *
+     * @return The current snapshot of the configuration.
+     */
+    public ConfigurationSnapshot getSnapshot() {
+        ConfigurationSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = loadSnapshot();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
     }
 
-    private LinePattern extractLinePatternFormProperties(){
-        return LinePattern.builder()
-                .names(logfilePatternNamesFromProperties)
-                .regexp(logfilePatternRegexpFromProperties)
-                .build();
+    @Scheduled(fixedDelayString = "${reporter.config.check.interval:10000}")
+    public void checkForChanges() {
+        reloadIfChanged();
     }
 
     /**
-     * Get the pathname to the JSON file that contains the log file field regex and
-     * names. Look in the configuration file (reporter.xml) and default to the 
-     * application.properties.
-     * 
-     * @return Return the name of the JSON file or an empty string.
+     * Read the configuration again if any of the files it was read from have changed.
+     * If the new configuration cannot be read, the old one is kept.
+     *
+     * @return True if a new snapshot replaced the old one, false otherwise.
      */
-    private String getLinePatternPath() {
-        if (linePatternPath != null){
-            return linePatternPath;
+    public synchronized boolean reloadIfChanged() {
+        ConfigurationSnapshot current = snapshot;
+        if (current == null
+                || getSourceVersions(current.getConfigDir(), current.getLinePatternPath()).equals(current.getSourceVersions())) {
+            return false;
         }
-        String linePatternPathFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/LogFilePatternPath").trim();
-        linePatternPath = !isEmpty(linePatternPathFromConfig)
-                ?  linePatternPathFromConfig
-                : logfilePatternPathFromProperties;
-        return linePatternPath;
+        try {
+            snapshot = loadSnapshot();
+            log.info("ConfigurationExtractor.java - reloadIfChanged() : configuration reloaded");
+            return true;
+        } catch (RuntimeException e) {
+            String error = "/!\\ ConfigurationExtractor.java - reloadIfChanged() : "+ e.toString() +", keeping the old configuration /!\\";
+            log.error(error);
+        }
+        return false;
     }
 
     /**
@@ -159,24 +179,11 @@ public class ConfigurationExtractor {
      * 
      * @todo Handle the error when the path is set, but the file is missing
      * @todo Handle the error when the pattern information cannot be found.
-     * @todo getLinePatternDirectly() is never called if the value for the JSON file is set in the properties.
      *  
      * @return A LinePattern object or null if the information cannot be found.
      */
     public LinePattern getLinePattern() {
-        if (linePattern != null) {
-            return linePattern;
-        }
-        try {
-            if (isEmpty(getLinePatternPath())) {
-                linePattern = getLinePatternDirectly();
-            } else {
-                linePattern = new ObjectMapper().readValue(new File(getLinePatternPath()), LinePattern.class);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return linePattern;
+        return getSnapshot().getLinePattern();
     }
 
     /**
@@ -187,15 +194,7 @@ public class ConfigurationExtractor {
      * @return The ping interval, in seconds.
      */
     public Long getDefaultPing() {
-        if (hyraxDefaultPing != null) {
-            return hyraxDefaultPing;
-        }
-        
-        String hyraxDefaultPingFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/DefaultPing").trim();
-        hyraxDefaultPing = !isEmpty(hyraxDefaultPingFromConfig)
-                ?  Long.valueOf(hyraxDefaultPingFromConfig)
-                : hyraxDefaultPingFromProperties;
-        return hyraxDefaultPing;
+        return getSnapshot().getDefaultPing();
     }
     
     /**
@@ -207,16 +206,7 @@ public class ConfigurationExtractor {
      * 1/31/19 - SBL - initial code
      */
     public String getCollectorUrl() {
-    	if (hyraxDefaultCollectorUrl != null) {
-    		return hyraxDefaultCollectorUrl;
-    	}
-    	
-    	String hyraxDefaultCollectorFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/CollectorUrl").trim();
-    	hyraxDefaultCollectorUrl = !isEmpty(hyraxDefaultCollectorFromConfig)
-    			? hyraxDefaultCollectorFromConfig 
-    			: hyraxDefaultCollectorUrlFromProperties;
-    	
-    	return hyraxDefaultCollectorUrl;
+    	return getSnapshot().getCollectorUrl();
     }
     
     /**
@@ -227,15 +217,7 @@ public class ConfigurationExtractor {
      * 
      */
     public String getServerUrl() {
-    	if (hyraxDefaultServerUrl != null) {
-    		return hyraxDefaultServerUrl;
-    	}
-    	
-    	String hyraxDefaultServerUrlFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/ServerUrl").trim();
-    	hyraxDefaultServerUrl = !isEmpty(hyraxDefaultServerUrlFromConfig)
-    			? hyraxDefaultServerUrlFromConfig
-    			: hyraxDefaultServerUrlFromProperties;
-    	return hyraxDefaultServerUrl;
+    	return getSnapshot().getServerUrl();
     }
     
     /**
@@ -246,15 +228,7 @@ public class ConfigurationExtractor {
      * 
      */
     public String getReporterUrl() {
-    	if (hyraxDefaultReporterUrl != null) {
-    		return hyraxDefaultReporterUrl;
-    	}
-    	
-    	String hyraxDefaultReporterUrlFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/ReporterUrl").trim();
-    	hyraxDefaultReporterUrl = !isEmpty(hyraxDefaultReporterUrlFromConfig)
-    			? hyraxDefaultReporterUrlFromConfig
-    			: hyraxDefaultReporterUrlFromProperties;
-    	return hyraxDefaultReporterUrl;
+    	return getSnapshot().getReporterUrl();
     }
     
     /**
@@ -265,15 +239,19 @@ public class ConfigurationExtractor {
      * 
      */
     public Integer getLogNumber() {
-    	if (hyraxDefaultLogNumber != null) {
-    		return hyraxDefaultLogNumber;
-    	}
-    	
-    	String hyraxDefaultLogNumberFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/LogNumber").trim();
-    	hyraxDefaultLogNumber = !isEmpty(hyraxDefaultLogNumberFromConfig)
-    			? Integer.valueOf(hyraxDefaultLogNumberFromConfig)
-    			: hyraxDefaultLogNumberFromProperties;
-    	return hyraxDefaultLogNumber;
+    	return getSnapshot().getLogNumber();
+    }
+
+    /**
+     * Where should the reporter save how far it has read into the log file? If
+     * the name cannot be read from a configuration file, return the value set in
+     * the application.properties file. An empty value means the checkpoint is
+     * only kept in memory.
+     *
+     * @return The pathname to the checkpoint file or the empty string.
+     */
+    public String getCheckpointPath() {
+        return getSnapshot().getCheckpointPath();
     }
 
     /**
@@ -284,14 +262,7 @@ public class ConfigurationExtractor {
      * @return The pathname to the log file.
      */
     public String getHyraxLogfilePath() {
-        if (hyraxLogfilePath != null) {
-            return hyraxLogfilePath;
-        }
-
-        String hyraxLogfilePathFromConfig = extractDataFromOlfsXml("/OLFSConfig/LogReporter/HyraxLogfilePath").trim();
-        hyraxLogfilePath = !isEmpty(hyraxLogfilePathFromConfig)
-                ? hyraxLogfilePathFromConfig
-                : hyraxLogfilePathFromProperties;
+        String hyraxLogfilePath = getSnapshot().getHyraxLogfilePath();
         if (isEmpty(hyraxLogfilePath)){
             throw new IllegalStateException("Can not find HyraxLogfilePath property");
         }
@@ -299,54 +270,176 @@ public class ConfigurationExtractor {
     }
 
     /**
-     * Read configuration information from the reporter.xml file.
+     * What charset is the log file written in? If it cannot be read from a
+     * configuration file, return the value set in the application.properties file
+     * (UTF-8 if that is not set either).
+     *
+     * @return The charset of the log file.
+     */
+    public Charset getHyraxLogfileCharset() {
+        return getSnapshot().getHyraxLogfileCharset();
+    }
+
+    /**
+     * Read all of the configuration values.
+     *
+     * The reporter.xml file is parsed once and each value is read from it, falling
+     * back to the value from application.properties when reporter.xml cannot be
+     * found or does not hold that value.
+     *
+     * @return A new snapshot.
+     */
+    private ConfigurationSnapshot loadSnapshot() {
+        String configDir = getConfigDir();
+        Document config = loadConfig(configDir);
+        XPath xPath = XPathFactory.newInstance().newXPath();
+
+        String linePatternPath = valueOrDefault(extractData(config, xPath, "/OLFSConfig/LogReporter/LogFilePatternPath"),
+                logfilePatternPathFromProperties);
+        String defaultPing = extractData(config, xPath, "/OLFSConfig/LogReporter/DefaultPing");
+        String logNumber = extractData(config, xPath, "/OLFSConfig/LogReporter/LogNumber");
+
+        ConfigurationSnapshot loaded = ConfigurationSnapshot.builder()
+                .configDir(configDir)
+                .sourceVersions(getSourceVersions(configDir, linePatternPath))
+                .hyraxLogfilePath(valueOrDefault(extractData(config, xPath, "/OLFSConfig/LogReporter/HyraxLogfilePath"),
+                        hyraxLogfilePathFromProperties))
+                .hyraxLogfileCharset(Charset.forName(valueOrDefault(
+                        extractData(config, xPath, "/OLFSConfig/LogReporter/HyraxLogfileCharset"),
+                        hyraxLogfileCharsetFromProperties)))
+                .defaultPing(!isEmpty(defaultPing) ? Long.valueOf(defaultPing) : hyraxDefaultPingFromProperties)
+                .collectorUrl(valueOrDefault(extractData(config, xPath, "/OLFSConfig/LogReporter/CollectorUrl"),
+                        hyraxDefaultCollectorUrlFromProperties))
+                .serverUrl(valueOrDefault(extractData(config, xPath, "/OLFSConfig/LogReporter/ServerUrl"),
+                        hyraxDefaultServerUrlFromProperties))
+                .reporterUrl(valueOrDefault(extractData(config, xPath, "/OLFSConfig/LogReporter/ReporterUrl"),
+                        hyraxDefaultReporterUrlFromProperties))
+                .logNumber(!isEmpty(logNumber) ? Integer.valueOf(logNumber) : hyraxDefaultLogNumberFromProperties)
+                .checkpointPath(valueOrDefault(extractData(config, xPath, "/OLFSConfig/LogReporter/CheckpointPath"),
+                        checkpointPathFromProperties))
+                .linePatternPath(linePatternPath)
+                .linePattern(loadLinePattern(config, xPath, linePatternPath))
+                .build();
+        if(logOutput) { log.info("loadSnapshot() | config dir : " + configDir); }
+        return loaded;
+    }
+
+    /**
+     * Read the log line pattern from the JSON file, if one is named, otherwise from
+     * reporter.xml, falling back to application.properties.
+     *
+     * @return A LinePattern object or null if the JSON file cannot be read.
+     */
+    private LinePattern loadLinePattern(Document config, XPath xPath, String linePatternPath) {
+        if (!isEmpty(linePatternPath)) {
+            try {
+                return new ObjectMapper().readValue(new File(linePatternPath), LinePattern.class);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        LinePattern linePattern = LinePattern.builder()
+                .names(extractData(config, xPath, "/OLFSConfig/LogReporter/LogFilePattern/names"))
+                .regexp(extractData(config, xPath, "/OLFSConfig/LogReporter/LogFilePattern/regexp"))
+                .build();
+        return !isEmpty(linePattern.getNames()) && !isEmpty(linePattern.getRegexp()) ?
+                linePattern :
+                LinePattern.builder()
+                        .names(logfilePatternNamesFromProperties)
+                        .regexp(logfilePatternRegexpFromProperties)
+                        .build();
+    }
+
+    private String valueOrDefault(String value, String defaultValue) {
+        return !isEmpty(value) ? value : defaultValue;
+    }
+
+    /**
+     * @return The last-modified time and length of reporter.xml and the JSON pattern
+     * file (0 for a file that does not exist).
+     */
+    private List<Long> getSourceVersions(String configDir, String linePatternPath) {
+        List<Long> versions = new ArrayList<>();
+        if (configDir != null) {
+            File config = new File(configDir + DEFAULT_CONFIG_FILE);
+            versions.add(config.lastModified());
+            versions.add(config.length());
+        }
+        if (!isEmpty(linePatternPath)) {
+            File linePatternFile = new File(linePatternPath);
+            versions.add(linePatternFile.lastModified());
+            versions.add(linePatternFile.length());
+        }
+        return versions;
+    }
+
+    /**
+     * Read configuration information from the parsed reporter.xml file.
      *
-     * Read configuration information from the "reporter.xml" (or the DEFAULT_CONFIG_FILE).
-     * If the configuration file cannot be found or does not contain the information,
+     * If the configuration file could not be found or does not contain the information,
      * return the empty string (not a null).
      *
+     * @param config The parsed reporter.xml file or null
+     * @param xPath Used to evaluate the XPath
      * @param xPathRoute The XPath to an element in the reporter.xml file.
-     * @return The value of the element or the empty string.
+     * @return The value of the element, trimmed, or the empty string.
      */
-    private String extractDataFromOlfsXml(String xPathRoute) {
-        XPath xPath = XPathFactory.newInstance().newXPath();
+    private String extractData(Document config, XPath xPath, String xPathRoute) {
+        if (config == null) {
+            return "";
+        }
         String elementValue = null;
         try {
-            String configDir = getConfigDir();
-            if (configDir != null) {
-                configDir += DEFAULT_CONFIG_FILE;
-                // COMPLETED Add test that the file exists and is readable. jhrg 10/4/17
-                File tmp = new File(configDir);
-                if (tmp.exists() && tmp.canRead()) {
-                	elementValue = xPath.compile(xPathRoute).evaluate(loadXMLFromFile(configDir));
-                }
-            }
-            /* Removed because XPath...evaluate() might return null.
-            else {
-                elementValue = "";
-            } */
-        } catch (XPathExpressionException | ParserConfigurationException | SAXException | IOException e) {
+            elementValue = xPath.compile(xPathRoute).evaluate(config);
+        } catch (XPathExpressionException e) {
             //e.printStackTrace();
             e.getMessage();
         }
 
-        return elementValue != null ? elementValue : "";
+        return elementValue != null ? elementValue.trim() : "";
+    }
+
+    /**
+     * Read and parse the reporter.xml file (or the DEFAULT_CONFIG_FILE).
+     *
+     * @param configDir The directory that holds the file, or null
+     * @return A Document instance or null if the file cannot be found, read or parsed.
+     */
+    private Document loadConfig(String configDir) {
+        if (configDir == null) {
+            return null;
+        }
+        // COMPLETED Add test that the file exists and is readable. jhrg 10/4/17
+        File configFile = new File(configDir + DEFAULT_CONFIG_FILE);
+        if (!configFile.exists() || !configFile.canRead()) {
+            return null;
+        }
+        try {
+            return loadXMLFromFile(configFile);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            String error = "/!\\ ConfigurationExtractor.java - loadConfig() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+        return null;
     }
 
     /**
      * Read and parse an XML file.
      *
-     * @param xmlFile The pathname to the file
+     * @param xmlFile The file
      * @return A Document instance
      * @throws ParserConfigurationException
      * @throws IOException
      * @throws SAXException
      */
-    private Document loadXMLFromFile(String xmlFile) throws ParserConfigurationException, IOException, SAXException {
+    private Document loadXMLFromFile(File xmlFile) throws ParserConfigurationException, IOException, SAXException {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();
-        InputSource is = new InputSource(new FileReader(xmlFile));
-        return builder.parse(is);
+        try (Reader reader = new FileReader(xmlFile)) {
+            return builder.parse(new InputSource(reader));
+        }
     }
 
     /**
@@ -379,14 +472,17 @@ public class ConfigurationExtractor {
         // Trick: the reporter web service directory is probably in the same place
         // as the 'opendap' directory. Get 'reporter/WEB_INF", go up two levels and
         // then descend into "opendap/WEB_INF/conf"
-        configDirName = servletContext.getRealPath(WEB_INF);
+        configDirName = servletContext != null ? servletContext.getRealPath(WEB_INF) : null;
+        if (configDirName == null) {
+            return null;
+        }
         File cf = new File(configDirName);
         try {
             File webappsFolder = cf.getParentFile().getParentFile();
             String configPath = webappsFolder.getCanonicalPath() +
                     File.separator + OPENDAP_APPLICATION_NAME +
                     File.separator + WEB_INF +
-                    File.separator + "conf";
+                    File.separator + "conf" + File.separator;
             return pathIsGood(configPath) ? configPath : null;
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,63 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.config;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.opendap.harvester.entity.LinePattern;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * All of the reporter's configuration, read in one pass from reporter.xml (and the
+ * pattern file) with the application.properties values filling in what is missing.
+ *
+ * A snapshot is never changed once built. When the configuration files change, a
+ * new snapshot replaces the old one, so a request that holds a snapshot always sees
+ * values that were read together.
+ */
+@Getter
+@Builder
+public class ConfigurationSnapshot {
+    private final String configDir;
+    private final String hyraxLogfilePath;
+    private final Charset hyraxLogfileCharset;
+    private final Long defaultPing;
+    private final String collectorUrl;
+    private final String serverUrl;
+    private final String reporterUrl;
+    private final Integer logNumber;
+    private final String checkpointPath;
+    private final String linePatternPath;
+    private final LinePattern linePattern;
+
+    /**
+     * The last-modified time and length of each file the snapshot was read from,
+     * used to tell when it needs to be read again.
+     */
+    private final List<Long> sourceVersions;
+}
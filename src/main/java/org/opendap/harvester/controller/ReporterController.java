@@ -30,21 +30,59 @@
 package org.opendap.harvester.controller;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.joda.time.LocalDateTime;
 import org.opendap.harvester.ReporterApplication;
 import org.opendap.harvester.config.ConfigurationExtractor;
-import org.opendap.harvester.entity.LogData;
-import org.opendap.harvester.entity.dto.LogDataDto;
+import org.opendap.harvester.entity.LatencyStats;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogFileState;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.entity.LogLineSchema;
+import org.opendap.harvester.entity.LogStats;
+import org.opendap.harvester.entity.LogStatsQuery;
+import org.opendap.harvester.entity.RegistrationState;
+import org.opendap.harvester.service.LatencyService;
+import org.opendap.harvester.service.LinePatternService;
 import org.opendap.harvester.service.LogExtractionService;
-import org.opendap.harvester.service.impl.RegistrationImpl;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.opendap.harvester.service.LogLineService;
+import org.opendap.harvester.service.LogRequestLimiter;
+import org.opendap.harvester.service.LogResponseCache;
+import org.opendap.harvester.service.LogStatsService;
+import org.opendap.harvester.service.LogStreamService;
+import org.opendap.harvester.service.LogTailService;
+import org.opendap.harvester.service.Registration;
+import org.opendap.harvester.service.ReporterBusyException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 /**
@@ -56,6 +94,9 @@ import org.springframework.web.bind.annotation.*;
 public class ReporterController {
 	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
 	private boolean logOutput = false;
+
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final MediaType NDJSON = MediaType.parseMediaType(NDJSON_VALUE);
 	
     /**
      * Autowired automatically inject some of the HyraxInstanceRegisterService implementations to this
@@ -65,45 +106,466 @@ public class ReporterController {
     @Autowired
     private LogExtractionService logExtractionService;
 
+    @Autowired
+    private LogTailService logTailService;
+
+    @Autowired
+    private LogLineService logLineService;
+
+    @Autowired
+    private LinePatternService linePatternService;
+
+    @Autowired
+    private LogStatsService logStatsService;
+
+    @Autowired
+    private LatencyService latencyService;
+
+    @Autowired
+    private LogStreamService logStreamService;
+
+    @Autowired
+    private LogRequestLimiter logRequestLimiter;
+
+    @Autowired
+    private LogResponseCache logResponseCache;
+
+    @Autowired
+    private Registration registration;
+
     @Autowired
     private ConfigurationExtractor configurationExtractor;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // How long a /log/stream response lasts (milliseconds); clients reconnect after it
+    @Value("${reporter.stream.timeout:3600000}")
+    private long streamTimeout;
 
+
+    /**
+     * Return a page of the log lines after 'since' (or of all of them). Each line is
+     * written to the response as soon as it is parsed, so memory use does not depend
+     * on the number of lines returned.
+     *
+     * A page holds at most 'limit' lines, and never more than collector.log.number
+     * (LogNumber in reporter.xml). Each response ends with a cursor; passing it back
+     * as 'cursor' returns the lines that follow, with none repeated or skipped, even
+     * if they have the same time or the log has been rotated in between.
+     *
+     * The response is the JSON object {"lines":[{"values":{...}}, ...],"nextCursor":"..."}
+     * unless the Accept header asks for NDJSON (application/x-ndjson), in which case
+     * each line is written as a {"values":{...}} object on a line of its own and the
+     * last line is {"nextCursor":"..."}.
+     *
+     * 'fields' picks the fields written for each line. 'status', 'resourceId' and
+     * 'verb' drop the lines that do not match them (see LogFilter); they are tested
+     * as the lines are read, before the lines are decoded, and dropped lines do not
+     * count towards 'limit'.
+     *
+     * The log is read on a pool of threads, not on the request thread, by at most
+     * reporter.log.max.concurrent requests at once; when they are all busy the request
+     * waits its turn on the pool, or is refused with a 429 or 503 and a Retry-After
+     * header (see LogRequestLimiter). Identical
+     * requests made at the same time share one read of the log, and a response is
+     * kept for a little while to answer identical requests without reading the log
+     * at all (see LogResponseCache).
+     *
+     * The response has an ETag made of the parameters, of the state of the log file
+     * (see LogFileState) and of the line pattern, and the later of the file's
+     * last-modified time and the time the line pattern was loaded. A request whose
+     * If-None-Match (or If-Modified-Since) shows that it has the response already is
+     * answered with a 304 after one stat of the log file, which is not opened.
+     *
+     * @param since Only return lines after this time (GMT)
+     * @param limit The most lines to return
+     * @param cursor The nextCursor of the previous page
+     * @param fields Comma separated names of the fields to return; all of them if not set
+     * @param status Comma separated HTTP status codes to return; a code preceded by '!'
+     *               is left out instead, e.g. "!304"
+     * @param resourceId A prefix of the resourceIds to return, or a glob using '*' and '?'
+     * @param verb Comma separated HTTP verbs to return, e.g. "GET,POST"
+     * @param accept The Accept header
+     * @param webRequest The request, for its conditional headers
+     * @return The streaming response, or null for a 304
+     * @throws Exception
+     */
     @RequestMapping(path = "/log", method = RequestMethod.GET)
-    @ResponseBody
-    public LogDataDto getLogsSince(@RequestParam(required = false) String since) throws Exception {
-    	if(logOutput) { log.info("/log.1/5) getLogsSince() entry");}
-        LogData logData;
-        if(logOutput) { log.info("/log.2/5) checking if 'since' is empty");}
-        if (!StringUtils.isEmpty(since)){
-        	if(logOutput) { log.info("/log.3/5) 'since' is not empty, extracting recent data ...");}
-            LocalDateTime localDateTime = LocalDateTime.parse(since);
-            if(logOutput) { log.info("/log.3.2) time : " + localDateTime);}
-            logData = logExtractionService.extractLogDataSince(localDateTime);
-            if(logOutput) { log.info("/log.3.3) log data : size - "+logData.getLines().size()+"\n" + logData.toString());}
-        } else {
-        	if(logOutput) { log.info("/log.3/5) 'since' is empty, extracting all data ...");}
-            logData = logExtractionService.extractAllLogData();
+    public ResponseEntity<StreamingResponseBody> getLogsSince(@RequestParam(required = false) String since,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String resourceId,
+            @RequestParam(required = false) String verb,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            WebRequest webRequest) throws Exception {
+    	if(logOutput) { log.info("/log.1/3) getLogsSince() entry");}
+        final LocalDateTime localDateTime = !StringUtils.isEmpty(since) ? LocalDateTime.parse(since) : null;
+        final LogCursor from = !StringUtils.isEmpty(cursor) ? LogCursor.decode(cursor) : null;
+        final int pageSize = getPageSize(limit);
+        final LogFilter filter = buildFilter(fields, status, resourceId, verb);
+        LinePatternConfig config = linePatternService.getLinePatternConfig();
+        LogLineSchema schema = config.getSchema();
+        filter.check(schema);
+        final int[] fieldIndexes = filter.getFieldIndexes(schema);
+        if(logOutput) { log.info("/log.2/3) time : " + localDateTime + ", limit : " + pageSize);}
+        LogFileState state = logTailService.getLogFileState();
+        if (state == null) {
+            throw new IllegalStateException("Can not read the log file");
+        }
+
+        final boolean ndjson = accept != null && accept.contains(NDJSON_VALUE);
+        final String key = "/log?since=" + localDateTime + "&cursor=" + cursor + "&limit=" + pageSize
+                + "&fields=" + fields + "&status=" + status + "&resourceId=" + resourceId + "&verb=" + verb
+                + "&ndjson=" + ndjson + "\n" + state.getGeneration() + "\n" + config.getGeneration();
+        String eTag = "\"" + DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8)) + "\"";
+        if (webRequest.checkNotModified(eTag, getLastModified(state, config))) {
+            if(logOutput) { log.info("/log.3/3) not modified, returning <<");}
+            return null;
         }
-        if(logOutput) { log.info("/log.4/5) data extracted, checking data ...");} 
-        if (logData == null){
-        	if(logOutput) { log.info("log.4e) data is null");}
-            throw new IllegalStateException("Log data is null");
+        if (!new File(configurationExtractor.getHyraxLogfilePath()).canRead()) {
+            throw new IllegalStateException("Can not read the log file");
         }
-        if(logOutput) { log.info("/log.5/5) kosher data, returning <<");}
-        return logExtractionService.buildDto(logData);
+        final byte[] kept = logResponseCache.get(key);
+        if (kept != null) {
+            if(logOutput) { log.info("/log.3/3) " + kept.length + " bytes kept from an identical request, returning <<");}
+            return ResponseEntity.ok()
+                    .contentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON_UTF8)
+                    .body((StreamingResponseBody) new StreamingResponseBody() {
+                        @Override
+                        public void writeTo(OutputStream outputStream) throws IOException {
+                            outputStream.write(kept);
+                        }
+                    });
+        }
+
+        // The place is reserved here, without waiting, and the turn waited for on the
+        // async thread (see LogRequestLimiter). A request that joins an identical one
+        // already reading the log reserves nothing, and only takes a place if it has
+        // to read the log after all.
+        final LogRequestLimiter.Ticket ticket = logResponseCache.isWriting(key) ? null : logRequestLimiter.reserve();
+        if (ticket != null) {
+            webRequest.setAttribute(LogRequestLimiter.TICKET_ATTRIBUTE, ticket, RequestAttributes.SCOPE_REQUEST);
+        }
+        StreamingResponseBody body = new StreamingResponseBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                try {
+                    logResponseCache.write(key, outputStream, new LogResponseCache.ResponseWriter() {
+                        @Override
+                        public void writeTo(OutputStream outputStream) throws IOException {
+                            LogRequestLimiter.Ticket reading = ticket != null ? ticket : logRequestLimiter.reserve();
+                            try {
+                                reading.await();
+                                writeLines(outputStream);
+                            } finally {
+                                reading.release();
+                            }
+                        }
+                    });
+                } finally {
+                    if (ticket != null) {
+                        ticket.release();
+                    }
+                }
+            }
+
+            private void writeLines(OutputStream outputStream) throws IOException {
+                final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                if (ndjson) {
+                    generator.setRootValueSeparator(null);
+                } else {
+                    generator.writeStartObject();
+                    generator.writeArrayFieldStart("lines");
+                }
+                LogCursor next = logExtractionService.extractLogData(localDateTime, from, pageSize, filter,
+                        new LogLineConsumer() {
+                    @Override
+                    public void accept(LogLine logLine) throws IOException {
+                        generator.writeObject(logLineService.buildDto(logLine, fieldIndexes));
+                        if (ndjson) {
+                            generator.writeRaw('\n');
+                        }
+                    }
+                });
+                if (ndjson) {
+                    generator.writeStartObject();
+                    generator.writeStringField("nextCursor", next.encode());
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                } else {
+                    generator.writeEndArray();
+                    generator.writeStringField("nextCursor", next.encode());
+                    generator.writeEndObject();
+                }
+                generator.close();
+            }
+        };
+        if(logOutput) { log.info("/log.3/3) streaming " + (ndjson ? "NDJSON" : "JSON") + " response, returning <<");}
+        return ResponseEntity.ok()
+                .contentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON_UTF8)
+                .body(body);
     }
     
+    /**
+     * Send the log lines written from now on, as they are written, until the client
+     * goes away (or reporter.stream.timeout has passed).
+     *
+     * The response is a stream of Server-Sent Events (text/event-stream), one event
+     * per line with the {"values":{...}} object as its data, unless the Accept header
+     * asks for NDJSON (application/x-ndjson), in which case each line is written as a
+     * {"values":{...}} object on a line of its own. Empty comments (or empty lines)
+     * are sent while there are no new lines. A client that falls too far behind is
+     * sent a "dropped" event and the stream ends.
+     *
+     * @param fields As for /log
+     * @param status As for /log
+     * @param resourceId As for /log
+     * @param verb As for /log
+     * @param accept The Accept header
+     * @return The streaming response
+     * @throws Exception
+     */
+    @RequestMapping(path = "/log/stream", method = RequestMethod.GET)
+    public ResponseEntity<ResponseBodyEmitter> streamLog(@RequestParam(required = false) String fields,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String resourceId,
+            @RequestParam(required = false) String verb,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) throws Exception {
+    	if(logOutput) { log.info("/log/stream.1/2) streamLog() entry");}
+        final LogFilter filter = buildFilter(fields, status, resourceId, verb);
+        LinePatternConfig config = linePatternService.getLinePatternConfig();
+        LogLineSchema schema = config.getSchema();
+        filter.check(schema);
+        final int[] fieldIndexes = filter.getFieldIndexes(schema);
+        if (!new File(configurationExtractor.getHyraxLogfilePath()).canRead()) {
+            throw new IllegalStateException("Can not read the log file");
+        }
+
+        final boolean ndjson = accept != null && accept.contains(NDJSON_VALUE);
+        final ResponseBodyEmitter emitter = ndjson ? new ResponseBodyEmitter(streamTimeout)
+                : new SseEmitter(streamTimeout);
+        final LogStreamService.Subscription subscription = logStreamService.subscribe(filter,
+                new LogStreamService.Subscriber() {
+            @Override
+            public void accept(LogLine logLine) throws IOException {
+                Object dto = logLineService.buildDto(logLine, fieldIndexes);
+                if (ndjson) {
+                    emitter.send(dto, MediaType.APPLICATION_JSON);
+                    emitter.send("\n", MediaType.TEXT_PLAIN);
+                } else {
+                    ((SseEmitter) emitter).send(SseEmitter.event().data(dto, MediaType.APPLICATION_JSON));
+                }
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                if (ndjson) {
+                    emitter.send("\n", MediaType.TEXT_PLAIN);
+                } else {
+                    ((SseEmitter) emitter).send(SseEmitter.event().comment(""));
+                }
+            }
+
+            @Override
+            public void end(boolean dropped) {
+                try {
+                    if (dropped && !ndjson) {
+                        ((SseEmitter) emitter).send(SseEmitter.event().name("dropped").data(""));
+                    }
+                    emitter.complete();
+                } catch (IOException | IllegalStateException e) {
+                    // the response is over already
+                }
+            }
+        });
+        Runnable close = new Runnable() {
+            @Override
+            public void run() {
+                subscription.close();
+            }
+        };
+        emitter.onCompletion(close);
+        emitter.onTimeout(close);
+        if(logOutput) { log.info("/log/stream.2/2) streaming " + (ndjson ? "NDJSON" : "SSE") + " response, returning <<");}
+        return ResponseEntity.ok()
+                .contentType(ndjson ? NDJSON : MediaType.TEXT_EVENT_STREAM)
+                .body(emitter);
+    }
+
+    /**
+     * @return The later of the last-modified time of the log file and the time the
+     * line pattern was loaded, or -1 if it is less than a second ago: If-Modified-Since has whole seconds, so a line written later in that second
+     * would look like it was not modified
+     */
+    private static long getLastModified(LogFileState state, LinePatternConfig config) {
+        long lastModified = Math.max(state.getLastModified(), config.getBuilt());
+        return lastModified < System.currentTimeMillis() - 1000 ? lastModified : -1;
+    }
+
+    /**
+     * @param limit The page size asked for, or null
+     * @return The page size, capped by the configured log number
+     */
+    private int getPageSize(Integer limit) {
+        Integer logNumber = configurationExtractor.getLogNumber();
+        int max = logNumber != null && logNumber > 0 ? logNumber : Integer.MAX_VALUE;
+        return limit != null && limit > 0 ? Math.min(limit, max) : max;
+    }
+
+    /**
+     * Count the log lines after 'since' and up to 'until' instead of returning them,
+     * e.g. /stats?groupBy=resourceId,httpStatus&interval=60&metrics=size,duration for
+     * the requests and bytes per dataset, status and minute.
+     *
+     * @param since Only count lines after this time (GMT)
+     * @param until Only count lines at or before this time (GMT)
+     * @param groupBy Comma separated names of the fields to group the lines by
+     * @param interval Also group the lines by the interval (in seconds) their time is in
+     * @param metrics Comma separated names of numeric fields to sum, e.g. "size,duration"
+     * @param status As for /log
+     * @param resourceId As for /log
+     * @param verb As for /log
+     * @param webRequest The request, which holds its place among those reading the log
+     * @return The count, and the metrics, of each group, counted on the same pool of
+     * threads as /log
+     * @throws Exception
+     */
+    @RequestMapping(path = "/stats", method = RequestMethod.GET)
+    @ResponseBody
+    public Callable<LogStats> getStats(@RequestParam(required = false) String since,
+            @RequestParam(required = false) String until,
+            @RequestParam(required = false) String groupBy,
+            @RequestParam(required = false) Integer interval,
+            @RequestParam(required = false) String metrics,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String resourceId,
+            @RequestParam(required = false) String verb,
+            WebRequest webRequest) throws Exception {
+    	if(logOutput) { log.info("/stats.1/2) getStats() entry");}
+        if (!new File(configurationExtractor.getHyraxLogfilePath()).canRead()) {
+            throw new IllegalStateException("Can not read the log file");
+        }
+        final LogStatsQuery query = LogStatsQuery.builder()
+                .since(!StringUtils.isEmpty(since) ? LocalDateTime.parse(since) : null)
+                .until(!StringUtils.isEmpty(until) ? LocalDateTime.parse(until) : null)
+                .groupBy(split(groupBy))
+                .interval(interval != null ? interval : 0)
+                .metrics(split(metrics))
+                .filter(buildFilter(null, status, resourceId, verb))
+                .build();
+        final LogRequestLimiter.Ticket ticket = logRequestLimiter.reserve();
+        webRequest.setAttribute(LogRequestLimiter.TICKET_ATTRIBUTE, ticket, RequestAttributes.SCOPE_REQUEST);
+        return new Callable<LogStats>() {
+            @Override
+            public LogStats call() throws Exception {
+                try {
+                    ticket.await();
+                    LogStats stats = logStatsService.getStats(query);
+                    if(logOutput) { log.info("/stats.2/2) " + stats.getGroups().size() + " groups, returning <<");}
+                    return stats;
+                } finally {
+                    ticket.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * The 50th, 95th and 99th percentiles of the duration of the requests in a window,
+     * for all requests or per dataset or response type. With histograms=true the
+     * histograms are returned too; the histograms of several reporters (or windows)
+     * can be merged by adding their counts.
+     *
+     * The request only reads the histograms the scheduled update keeps, so it never
+     * reads the log and needs no place in the /log pool; the lines written since the
+     * last update (see reporter.latency.update.interval) are not counted yet.
+     *
+     * @param since The start of the window (GMT)
+     * @param until The end of the window (GMT)
+     * @param groupBy "dataset", "type" (e.g. ".dods") or "all"
+     * @param histograms Also return the histograms
+     * @return The percentiles of each group
+     * @throws Exception
+     */
+    @RequestMapping(path = "/latency", method = RequestMethod.GET)
+    @ResponseBody
+    public LatencyStats getLatency(@RequestParam(required = false) String since,
+            @RequestParam(required = false) String until,
+            @RequestParam(required = false) String groupBy,
+            @RequestParam(required = false, defaultValue = "false") boolean histograms) throws Exception {
+    	if(logOutput) { log.info("/latency.1/2) getLatency() entry");}
+        if (!new File(configurationExtractor.getHyraxLogfilePath()).canRead()) {
+            throw new IllegalStateException("Can not read the log file");
+        }
+        LatencyStats stats = latencyService.getLatency(
+                !StringUtils.isEmpty(since) ? LocalDateTime.parse(since) : null,
+                !StringUtils.isEmpty(until) ? LocalDateTime.parse(until) : null,
+                groupBy, histograms);
+        if(logOutput) { log.info("/latency.2/2) " + stats.getGroups().size() + " groups, returning <<");}
+        return stats;
+    }
+
+    /**
+     * @return The filter for the /log parameters; empty values are ignored
+     */
+    private static LogFilter buildFilter(String fields, String status, String resourceId, String verb) {
+        Set<String> statuses = new LinkedHashSet<>();
+        Set<String> excludedStatuses = new LinkedHashSet<>();
+        for (String code : split(status)) {
+            if (code.startsWith("!")) {
+                if (code.length() > 1) {
+                    excludedStatuses.add(code.substring(1).trim());
+                }
+            } else {
+                statuses.add(code);
+            }
+        }
+        List<String> fieldList = split(fields);
+        return LogFilter.builder()
+                .fields(fieldList.isEmpty() ? null : fieldList)
+                .statuses(statuses)
+                .excludedStatuses(excludedStatuses)
+                .resourceId(!StringUtils.isEmpty(resourceId) ? resourceId : null)
+                .verbs(new LinkedHashSet<>(split(verb)))
+                .build();
+    }
+
+    /**
+     * @return The trimmed, non-empty values of a comma separated parameter
+     */
+    private static List<String> split(String values) {
+        List<String> list = new ArrayList<>();
+        for (String value : StringUtils.commaDelimitedListToStringArray(values)) {
+            if (!value.trim().isEmpty()) {
+                list.add(value.trim());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Register with the collector again. The call is made on the scheduler; the
+     * state returned is the one before it, /registration shows how it went.
+     */
     @RequestMapping(path = "/register", method = RequestMethod.GET)
     @ResponseBody
-    public void registerReporter() {
+    public RegistrationState registerReporter() {
         File tmp = new File("./reporter.uuid");
         if (tmp.exists() && tmp.canRead()) {
         	tmp.delete();
         }
-    	
-    	RegistrationImpl r = new RegistrationImpl();
-    	r.init();
+
+        registration.init();
+        return registration.getState();
+    }
+
+    @RequestMapping(path = "/registration", method = RequestMethod.GET)
+    @ResponseBody
+    public RegistrationState getRegistration() {
+        return registration.getState();
     }
 
     // 4/16/19 - SBL - Methods below are for testing, leave commented for release versions    
@@ -151,4 +613,24 @@ public class ReporterController {
     public void handleException(IllegalStateException e) {
     }
 
+    /**
+     * Too many requests are reading the log: 429 if the request was refused at once,
+     * 503 if it waited and its turn did not come.
+     */
+    @ExceptionHandler(ReporterBusyException.class)
+    public ResponseEntity<Void> handleBusy(ReporterBusyException e) {
+        return ResponseEntity.status(e.isQueueFull() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter()))
+                .build();
+    }
+
+    /**
+     * A 'since' or 'cursor' that cannot be parsed, a field the log lines do not have,
+     * or a /stats request that makes too many groups.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST)
+    public void handleBadRequest(IllegalArgumentException e) {
+    }
+
 }
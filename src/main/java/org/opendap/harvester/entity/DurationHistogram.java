@@ -0,0 +1,226 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.entity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A histogram of durations (whole milliseconds) with buckets that grow with the
+ * value, as in an HDR histogram: values below 2 * SUB_BUCKETS each have a bucket of
+ * their own, and above that every power of two is split into SUB_BUCKETS buckets, so
+ * a percentile is off by less than 1 / SUB_BUCKETS (under 1%) of its value.
+ *
+ * The buckets are the same in every histogram, so histograms are merged by adding
+ * their counts bucket by bucket; this is how the histograms of several time buckets,
+ * or of several reporters, are put together. The JSON form holds only the buckets
+ * that are not empty: {"subBuckets":128,"counts":{"<bucket>":count, ...}}.
+ *
+ * Most histograms (one dataset in one minute, say) hold a few values, so the buckets
+ * that are not empty are kept as a sorted list until there are more than
+ * SPARSE_BUCKETS of them, and only then as an array of every bucket up to the
+ * highest.
+ */
+public class DurationHistogram {
+    public static final int SUB_BUCKETS = 128;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int SPARSE_BUCKETS = 32;
+
+    // The bucket of each count while the histogram is sparse, null once it is dense
+    private int[] buckets = new int[0];
+    private long[] counts = new long[0];
+    private int size = 0;
+    private long count = 0;
+
+    public DurationHistogram() {
+    }
+
+    /**
+     * Make a histogram out of the JSON form.
+     *
+     * @throws IllegalArgumentException If the buckets are not the ones this class uses
+     */
+    @JsonCreator
+    public DurationHistogram(@JsonProperty("subBuckets") int subBuckets,
+            @JsonProperty("counts") Map<Integer, Long> counts) {
+        if (subBuckets != SUB_BUCKETS) {
+            throw new IllegalArgumentException("Histogram has " + subBuckets + " sub-buckets, not " + SUB_BUCKETS);
+        }
+        if (counts != null) {
+            for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+                if (entry.getKey() < 0 || entry.getKey() >= BUCKETS || entry.getValue() < 0) {
+                    throw new IllegalArgumentException("Bad histogram bucket " + entry);
+                }
+                add(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param value A duration; negative values are counted as 0
+     */
+    public void record(long value) {
+        add(bucketOf(Math.max(0, value)), 1);
+    }
+
+    /**
+     * Add the counts of another histogram to this one.
+     */
+    public void merge(DurationHistogram other) {
+        for (int i = other.size - 1; i >= 0; i--) {
+            if (other.counts[i] != 0) {
+                add(other.bucketAt(i), other.counts[i]);
+            }
+        }
+    }
+
+    public int getSubBuckets() {
+        return SUB_BUCKETS;
+    }
+
+    /**
+     * @return The count of each bucket that is not empty
+     */
+    public Map<Integer, Long> getCounts() {
+        Map<Integer, Long> map = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            if (counts[i] != 0) {
+                map.put(bucketAt(i), counts[i]);
+            }
+        }
+        return map;
+    }
+
+    @JsonIgnore
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile From 0 to 100
+     * @return The largest value in the bucket that holds the value at that percentile,
+     * or 0 if the histogram is empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < size; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(bucketAt(i));
+            }
+        }
+        return highestValueOf(bucketAt(size - 1));
+    }
+
+    /**
+     * @return The largest value recorded, to the precision of its bucket
+     */
+    @JsonIgnore
+    public long getMax() {
+        for (int i = size - 1; i >= 0; i--) {
+            if (counts[i] != 0) {
+                return highestValueOf(bucketAt(i));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The bucket of the i-th count
+     */
+    private int bucketAt(int i) {
+        return buckets != null ? buckets[i] : i;
+    }
+
+    private void add(int bucket, long n) {
+        if (buckets == null) {
+            if (bucket >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(bucket + 1, 2 * counts.length));
+                size = counts.length;
+            }
+            counts[bucket] += n;
+            count += n;
+            return;
+        }
+
+        int i = Arrays.binarySearch(buckets, 0, size, bucket);
+        if (i < 0) {
+            if (size == SPARSE_BUCKETS) {
+                toDense();
+                add(bucket, n);
+                return;
+            }
+            i = -i - 1;
+            if (size == buckets.length) {
+                buckets = Arrays.copyOf(buckets, Math.max(4, 2 * size));
+                counts = Arrays.copyOf(counts, buckets.length);
+            }
+            System.arraycopy(buckets, i, buckets, i + 1, size - i);
+            System.arraycopy(counts, i, counts, i + 1, size - i);
+            buckets[i] = bucket;
+            counts[i] = 0;
+            size++;
+        }
+        counts[i] += n;
+        count += n;
+    }
+
+    private void toDense() {
+        long[] dense = new long[buckets[size - 1] + 1];
+        for (int i = 0; i < size; i++) {
+            dense[buckets[i]] = counts[i];
+        }
+        buckets = null;
+        counts = dense;
+        size = dense.length;
+    }
+
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
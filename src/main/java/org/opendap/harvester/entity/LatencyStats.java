@@ -0,0 +1,62 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.entity;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The result of a /latency request: the duration percentiles (milliseconds) of each
+ * group of requests over the window asked for.
+ */
+@Getter
+@Builder
+public class LatencyStats {
+    private final String since;
+    private final String until;
+    private final String groupBy;
+    private final int bucketSeconds;
+    private final List<Group> groups;
+
+    /**
+     * The requests that share a key: a dataset, a response type (e.g. ".dods"), or
+     * all of them. The histogram is only there if it was asked for.
+     */
+    @Getter
+    @Builder
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Group {
+        private final String key;
+        private final long count;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+        private final long max;
+        private final DurationHistogram histogram;
+    }
+}
@@ -27,13 +27,32 @@ package org.opendap.harvester.entity;
 
 import lombok.Builder;
 import lombok.Getter;
-import lombok.Setter;
 
 import java.util.regex.Pattern;
 
-@Getter @Setter
+/**
+ * The compiled form of a LinePattern. Instances are shared by all requests, so
+ * they are never changed once built.
+ *
+ * When the regex is the usual run of bracketed fields, bracketFields holds the
+ * number of fields and lines are split without using the regex; otherwise it is 0.
+ */
+@Getter
 @Builder
 public class LinePatternConfig {
     private String[] names;
+    private LogLineSchema schema;
     private Pattern pattern;
+    private int bracketFields;
+    // When it was built (milliseconds since the epoch); a response parsed with it is
+    // not older than that
+    private long built;
+
+    /**
+     * @return The regex and the field names, equal for configs that parse lines the
+     * same way
+     */
+    public String getGeneration() {
+        return pattern.pattern() + "\n" + String.join(";", names);
+    }
 }
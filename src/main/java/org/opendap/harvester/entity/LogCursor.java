@@ -0,0 +1,79 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Where a page of log lines ended: the file (by its file key, so a log file that has
+ * been rotated is still found under its new name) and the byte offset just past the
+ * last line read. The time of the latest line read is kept too, to fall back on when
+ * the file is gone.
+ *
+ * Clients see the cursor as an opaque string (see encode()).
+ */
+@Getter
+@Builder
+@AllArgsConstructor
+public class LogCursor {
+    private static final String VERSION = "1";
+    private static final char SEPARATOR = ':';
+
+    private final String fileKey;
+    private final long offset;
+    private final long lastTime;
+
+    /**
+     * @return The cursor as a URL-safe string
+     */
+    public String encode() {
+        String text = VERSION + SEPARATOR + offset + SEPARATOR + lastTime + SEPARATOR + fileKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor A string made by encode()
+     * @return The cursor
+     * @throws IllegalArgumentException If the string is not a cursor
+     */
+    public static LogCursor decode(String cursor) {
+        String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = text.split(String.valueOf(SEPARATOR), 4);
+        if (parts.length != 4 || !VERSION.equals(parts[0]) || parts[3].isEmpty()) {
+            throw new IllegalArgumentException("Not a log cursor: " + cursor);
+        }
+        long offset = Long.parseLong(parts[1]);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Not a log cursor: " + cursor);
+        }
+        return new LogCursor(parts[3], offset, Long.parseLong(parts[2]));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.entity;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a client wants from /log: the fields to return and the lines to keep.
+ *
+ * Every condition that is set must hold for a line to be kept:
+ * - statuses: the httpStatus is one of these
+ * - excludedStatuses: the httpStatus is none of these
+ * - resourceId: the resourceId matches this glob ('*' is any run of characters and
+ *   '?' any one character); without a wildcard it is a prefix
+ * - verbs: the httpVerb is one of these, ignoring case; "GET" also matches "HTTP-GET"
+ *
+ * A null fields list returns every field.
+ */
+@Getter
+@Builder
+public class LogFilter {
+    public static final String STATUS_FIELD = "httpStatus";
+    public static final String RESOURCE_FIELD = "resourceId";
+    public static final String VERB_FIELD = "httpVerb";
+
+    private final List<String> fields;
+    private final Set<String> statuses;
+    private final Set<String> excludedStatuses;
+    private final String resourceId;
+    private final Set<String> verbs;
+
+    /**
+     * @return True if the filter drops any lines, false if it only picks fields
+     */
+    public boolean hasConditions() {
+        return !isEmpty(statuses) || !isEmpty(excludedStatuses) || resourceId != null || !isEmpty(verbs);
+    }
+
+    /**
+     * Check that the fields the filter uses are in the log lines.
+     *
+     * @param schema The fields of the log lines
+     * @throws IllegalArgumentException If one of them is not
+     */
+    public void check(LogLineSchema schema) {
+        if (fields != null) {
+            for (String field : fields) {
+                checkField(schema, field);
+            }
+        }
+        if (!isEmpty(statuses) || !isEmpty(excludedStatuses)) {
+            checkField(schema, STATUS_FIELD);
+        }
+        if (resourceId != null) {
+            checkField(schema, RESOURCE_FIELD);
+        }
+        if (!isEmpty(verbs)) {
+            checkField(schema, VERB_FIELD);
+        }
+    }
+
+    /**
+     * @param schema The fields of the log lines
+     * @return The indexes of the fields to return, in order, or null for all of them
+     */
+    public int[] getFieldIndexes(LogLineSchema schema) {
+        if (fields == null) {
+            return null;
+        }
+        int[] indexes = new int[fields.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = schema.indexOf(fields.get(i));
+        }
+        return indexes;
+    }
+
+    private static void checkField(LogLineSchema schema, String field) {
+        if (schema.indexOf(field) < 0) {
+            throw new IllegalArgumentException("No field '" + field + "' in the log lines");
+        }
+    }
+
+    private static boolean isEmpty(Set<String> values) {
+        return values == null || values.isEmpty();
+    }
+}
@@ -27,13 +27,41 @@ package org.opendap.harvester.entity;
 
 import lombok.Builder;
 import lombok.Getter;
-import lombok.Setter;
 
 import java.util.Map;
 
-
+/**
+ * A parsed log line: the (trimmed) text of the line and the start and end of each of
+ * its fields, with the field names held by the shared schema. A line that did not
+ * match the pattern has no bounds, and so no values.
+ *
+ * A line parsed straight from the log file may still be a view of the file's bytes,
+ * valid only while the line is being handled; LogLineService.decode() gives a line
+ * that can be kept.
+ */
 @Builder
-@Getter @Setter
+@Getter
 public class LogLine {
-    private Map<String, String> values;
+    private LogLineSchema schema;
+    private CharSequence line;
+    private int[] bounds;
+
+    /**
+     * @return A read-only map from field name to value; empty if the line did not match
+     */
+    public Map<String, String> getValues() {
+        return schema.asMap(line, bounds);
+    }
+
+    /**
+     * @param name A field name
+     * @return The value of the field, or null if the line has no such field
+     */
+    public String getValue(String name) {
+        return LogLineSchema.getValue(line, bounds, schema.indexOf(name));
+    }
+
+    public boolean isMatched() {
+        return bounds != null;
+    }
 }
@@ -0,0 +1,194 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.entity;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The field names of a log line, shared by every line parsed with the same pattern.
+ *
+ * A parsed line keeps only the text of the line and where each of its fields starts
+ * and ends (see LogLine); the names are held once, here, instead of as the keys of
+ * a map in every line.
+ */
+public class LogLineSchema {
+    public static final long NO_NUMBER = Long.MIN_VALUE;
+
+    private final String[] names;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    public LogLineSchema(String[] names) {
+        this.names = names.clone();
+        for (int i = 0; i < names.length; i++) {
+            indexes.put(names[i], i);
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param name A field name
+     * @return The index of the field, or -1 if there is no field with that name
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Get a field of a line.
+     *
+     * @param line The text the bounds refer to
+     * @param bounds The start and end of each field in the line
+     * @param index The index of the field
+     * @return The value of the field, or null if the line has no such field (or, for
+     * a regex with optional groups, the group did not match)
+     */
+    public static String getValue(CharSequence line, int[] bounds, int index) {
+        if (bounds == null || index < 0 || 2 * index + 1 >= bounds.length || bounds[2 * index] < 0) {
+            return null;
+        }
+        return line.subSequence(bounds[2 * index], bounds[2 * index + 1]).toString();
+    }
+
+    /**
+     * Read the whole number at the start of a field, after any spaces, without cutting
+     * the field out of the line: 19 for "   19 ms".
+     *
+     * @param line The text the bounds refer to
+     * @param bounds The start and end of each field in the line
+     * @param index The index of the field
+     * @return The number, or NO_NUMBER if the field does not start with one
+     */
+    public static long getNumber(CharSequence line, int[] bounds, int index) {
+        if (bounds == null || index < 0 || 2 * index + 1 >= bounds.length || bounds[2 * index] < 0) {
+            return NO_NUMBER;
+        }
+        int i = bounds[2 * index];
+        int end = bounds[2 * index + 1];
+        while (i < end && line.charAt(i) == ' ') {
+            i++;
+        }
+        boolean negative = i < end && line.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        int start = i;
+        long value = 0;
+        while (i < end && i - start < 18 && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+            value = value * 10 + (line.charAt(i) - '0');
+            i++;
+        }
+        if (i == start) {
+            return NO_NUMBER;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * The number of fields a line has; a line that did not match has none.
+     */
+    public int fieldCount(int[] bounds) {
+        return bounds == null ? 0 : Math.min(names.length, bounds.length / 2);
+    }
+
+    /**
+     * A read-only map view of the fields of a line. The values are cut out of the
+     * line when they are read.
+     *
+     * @param line The text the bounds refer to
+     * @param bounds The start and end of each field in the line, or null
+     * @return The map from field name to value
+     */
+    public Map<String, String> asMap(final CharSequence line, final int[] bounds) {
+        final int size = fieldCount(bounds);
+        return new AbstractMap<String, String>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public String get(Object key) {
+                Integer index = indexes.get(key);
+                return index != null && index < size ? getValue(line, bounds, index) : null;
+            }
+
+            @Override
+            public Set<Entry<String, String>> entrySet() {
+                return new AbstractSet<Entry<String, String>>() {
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        return new Iterator<Entry<String, String>>() {
+                            private int next = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < size;
+                            }
+
+                            @Override
+                            public Entry<String, String> next() {
+                                if (next >= size) {
+                                    throw new NoSuchElementException();
+                                }
+                                int index = next++;
+                                return new SimpleImmutableEntry<>(names[index], getValue(line, bounds, index));
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+}
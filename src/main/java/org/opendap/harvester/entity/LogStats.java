@@ -0,0 +1,92 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.entity;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a /stats request: one group for each distinct set of values of the
+ * groupBy fields (and time interval), in the order of their keys.
+ */
+@Getter
+@Builder
+public class LogStats {
+    private final String since;
+    private final String until;
+    private final List<String> groupBy;
+    private final int interval;
+    private final long lines;
+    private final List<Group> groups;
+
+    /**
+     * The lines that share a key.
+     */
+    @Getter
+    public static class Group {
+        private final Map<String, String> key;
+        private long count = 0;
+        private final Map<String, FieldStats> metrics;
+
+        public Group(Map<String, String> key, Map<String, FieldStats> metrics) {
+            this.key = key;
+            this.metrics = metrics;
+        }
+
+        public void add() {
+            count++;
+        }
+    }
+
+    /**
+     * The count, sum, min and max of a numeric field over the lines of a group that
+     * have a number in it.
+     */
+    @Getter
+    public static class FieldStats {
+        private long count = 0;
+        private long sum = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        public void add(long value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        public Long getMin() {
+            return count > 0 ? min : null;
+        }
+
+        public Long getMax() {
+            return count > 0 ? max : null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.entity;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.joda.time.LocalDateTime;
+
+import java.util.List;
+
+/**
+ * What to count for /stats: the lines after 'since' and up to 'until' that the filter
+ * keeps, grouped by the values of the 'groupBy' fields and, if 'interval' is set, by
+ * the interval (in seconds) their time falls in. For each group the number of lines
+ * is counted, and the count, sum, min and max of each of the numeric 'metrics' fields
+ * are kept.
+ */
+@Getter
+@Builder
+public class LogStatsQuery {
+    private final LocalDateTime since;
+    private final LocalDateTime until;
+    private final List<String> groupBy;
+    private final int interval;
+    private final List<String> metrics;
+    private final LogFilter filter;
+}
@@ -25,9 +25,10 @@
 
 package org.opendap.harvester.entity.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.Builder;
 import lombok.Getter;
-import lombok.Setter;
+import org.opendap.harvester.entity.LogLineSchema;
 
 import java.util.Map;
 
@@ -39,10 +40,22 @@ import java.util.Map;
  * [Mozilla/5.0 ...] [366DFB37E0D4D83BE7C70266B74F267D] [2016-06-23T17:50:27.468 +0100] [   19 ms] 
  * [200] [      12] [GET] [/opendap/hyrax/data/nc/coads_climatology.nc.dods] 
  * [COADSX[0:1:179],COADSY[0:1:89],TIME[0:1:11]] 
+ *
+ * Like LogLine, this holds the line and the bounds of its fields, not a map;
+ * LogLineDtoSerializer writes it as {"values":{"name":"value", ...}}. When 'fields'
+ * is set only those fields (indexes into the schema) are written, in that order.
  */
 
 @Builder
-@Getter @Setter
+@Getter
+@JsonSerialize(using = LogLineDtoSerializer.class)
 public class LogLineDto {
-    private Map<String, String> values;
+    private LogLineSchema schema;
+    private CharSequence line;
+    private int[] bounds;
+    private int[] fields;
+
+    public Map<String, String> getValues() {
+        return schema.asMap(line, bounds);
+    }
 }
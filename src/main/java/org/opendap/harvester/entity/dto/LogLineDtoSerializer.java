@@ -0,0 +1,66 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.entity.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.opendap.harvester.entity.LogLineSchema;
+
+import java.io.IOException;
+
+/**
+ * Write a LogLineDto as {"values":{"name":"value", ...}}, the same JSON a map of
+ * values would give, without building the map. Only the DTO's fields are written,
+ * if it has them.
+ */
+public class LogLineDtoSerializer extends JsonSerializer<LogLineDto> {
+    @Override
+    public void serialize(LogLineDto logLineDto, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        LogLineSchema schema = logLineDto.getSchema();
+        CharSequence line = logLineDto.getLine();
+        int[] bounds = logLineDto.getBounds();
+        int[] fields = logLineDto.getFields();
+        int fieldCount = schema.fieldCount(bounds);
+
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("values");
+        if (fields == null) {
+            for (int i = 0; i < fieldCount; i++) {
+                generator.writeStringField(schema.getName(i), LogLineSchema.getValue(line, bounds, i));
+            }
+        } else {
+            for (int i : fields) {
+                if (i >= 0 && i < fieldCount) {
+                    generator.writeStringField(schema.getName(i), LogLineSchema.getValue(line, bounds, i));
+                }
+            }
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
@@ -27,7 +27,9 @@ package org.opendap.harvester.service;
 
 
 import org.joda.time.LocalDateTime;
+import org.opendap.harvester.entity.LogCursor;
 import org.opendap.harvester.entity.LogData;
+import org.opendap.harvester.entity.LogFilter;
 import org.opendap.harvester.entity.dto.LogDataDto;
 
 import java.io.IOException;
@@ -35,6 +37,12 @@ import java.io.IOException;
 public interface LogExtractionService {
     LogData extractLogDataSince(LocalDateTime time) throws IOException;
     LogData extractAllLogData() throws IOException;
+    void extractLogData(LocalDateTime since, LogFilter filter, LogLineConsumer consumer) throws IOException;
+    void extractLogData(LocalDateTime since, LocalDateTime until, LogFilter filter, LogLineConsumer consumer)
+            throws IOException;
+    LogCursor extractLogData(LocalDateTime since, LogCursor cursor, int limit, LogFilter filter,
+            LogLineConsumer consumer) throws IOException;
+    LogCursor getEndCursor() throws IOException;
 
     LogDataDto buildDto(LogData logData);
 }
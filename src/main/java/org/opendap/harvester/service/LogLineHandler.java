@@ -0,0 +1,62 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service;
+
+import java.io.IOException;
+
+/**
+ * Called for each line read from the log file.
+ */
+public interface LogLineHandler {
+    long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * @param line A line from the log file, without the line terminator. This may be
+     *             a view of the bytes of the file that is only valid during the call;
+     *             toString() gives the decoded line, which can be kept.
+     * @return The time of the line in milliseconds since the epoch (GMT) or NO_TIME
+     * if the line has no time that can be parsed.
+     * @throws IOException If the handler cannot pass the line on
+     */
+    long handle(CharSequence line) throws IOException;
+
+    /**
+     * Called after handle() with where the line ends, for handlers that need to find
+     * their way back to it (see LogCursor).
+     *
+     * @param fileKey The file key of the file the line is in
+     * @param offset The byte offset just past the line
+     */
+    default void lineEnd(String fileKey, long offset) {
+    }
+
+    /**
+     * @return True if the handler wants no more lines; checked after each line
+     */
+    default boolean isDone() {
+        return false;
+    }
+}
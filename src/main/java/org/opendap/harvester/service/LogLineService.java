@@ -26,12 +26,18 @@
 package org.opendap.harvester.service;
 
 import org.joda.time.LocalDateTime;
+import org.opendap.harvester.entity.LinePattern;
 import org.opendap.harvester.entity.LinePatternConfig;
 import org.opendap.harvester.entity.LogLine;
 import org.opendap.harvester.entity.dto.LogLineDto;
 
 public interface LogLineService {
     LocalDateTime getLocalDateTime(LogLine logLine);
-    LogLine parseLogLine(String line, LinePatternConfig config);
+    long getEpochMillis(LogLine logLine);
+    long getEpochMillis(CharSequence line, LinePatternConfig config);
+    LinePatternConfig buildConfig(LinePattern linePattern);
+    LogLine parseLogLine(CharSequence line, LinePatternConfig config);
+    LogLine decode(LogLine logLine, LinePatternConfig config);
     LogLineDto buildDto(LogLine logLine);
+    LogLineDto buildDto(LogLine logLine, int[] fields);
 }
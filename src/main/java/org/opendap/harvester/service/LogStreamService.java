@@ -0,0 +1,57 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service;
+
+import org.opendap.harvester.entity.LogFilter;
+
+import java.io.IOException;
+
+public interface LogStreamService {
+    /**
+     * Receives the new log lines of one subscription, on a thread of its own.
+     */
+    interface Subscriber extends LogLineConsumer {
+        /**
+         * Called when no line has come for a while; writing something to the client
+         * finds out if it has gone.
+         */
+        void heartbeat() throws IOException;
+
+        /**
+         * Called once, last, when the subscription ends.
+         *
+         * @param dropped True if it was ended because the subscriber fell too far behind
+         */
+        void end(boolean dropped);
+    }
+
+    interface Subscription {
+        void close();
+    }
+
+    Subscription subscribe(LogFilter filter, Subscriber subscriber) throws IOException;
+    int publish() throws IOException;
+}
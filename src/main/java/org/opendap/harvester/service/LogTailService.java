@@ -0,0 +1,51 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service;
+
+import org.joda.time.LocalDateTime;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogFileState;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Read the log file, keeping track of how far into it the reporter has read and
+ * where in it the lines for a given time start, so that a 'since' request only has
+ * to read the part of the file that can hold lines after that time.
+ */
+public interface LogTailService {
+    void readLines(LocalDateTime since, LogLineHandler handler) throws IOException;
+    void readLines(LocalDateTime since, LocalDateTime until, LogLineHandler handler) throws IOException;
+    LogCursor readLines(LocalDateTime since, LogCursor from, LogLineHandler handler) throws IOException;
+    <H extends LogLineHandler> void readLines(LocalDateTime since, ForkJoinPool pool, Supplier<H> handlers,
+            LogChunkConsumer<H> chunks) throws IOException;
+    <H extends LogLineHandler> void readLines(LocalDateTime since, LocalDateTime until, ForkJoinPool pool,
+            Supplier<H> handlers, LogChunkConsumer<H> chunks) throws IOException;
+    void indexLogFile() throws IOException;
+    LogFileState getLogFileState() throws IOException;
+}
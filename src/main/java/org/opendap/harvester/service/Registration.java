@@ -25,6 +25,7 @@
 
 package org.opendap.harvester.service;
 
+import org.opendap.harvester.entity.RegistrationState;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 //import org.springframework.boot.context.event.ApplicationStartingEvent;
 import org.springframework.context.ApplicationListener;
@@ -35,4 +36,9 @@ import org.springframework.stereotype.Component;
 public interface Registration extends ApplicationListener<ApplicationReadyEvent> {
 	void init();
 	void registerationCall();
+
+	/**
+	 * @return Whether the reporter is registered, and when it last tried and will try next
+	 */
+	RegistrationState getState();
 }
\ No newline at end of file
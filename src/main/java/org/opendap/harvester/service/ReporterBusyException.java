@@ -0,0 +1,48 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service;
+
+import lombok.Getter;
+
+/**
+ * The reporter has too much work to take a request on now; the client should try
+ * again after 'retryAfter' seconds.
+ */
+@Getter
+public class ReporterBusyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    // True if the request was refused at once because too many were waiting already,
+    // false if it waited and its turn did not come in time
+    private final boolean queueFull;
+    private final long retryAfter;
+
+    public ReporterBusyException(String message, boolean queueFull, long retryAfter) {
+        super(message);
+        this.queueFull = queueFull;
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * A single-pass replacement for the default log line regex, which is N copies of
+ * \[(.*)\] separated by single spaces.
+ *
+ * The greedy (.*) groups of that regex backtrack heavily. Since "] [" cannot overlap
+ * itself, the split the regex settles on is always the one that uses the last N-1
+ * occurrences of "] [" between the first '[' and the final ']' as the separators, so
+ * this class finds those by scanning the line backwards once.
+ *
+ * Like '.' in the regex, no field may hold a line terminator; a line that has one
+ * does not match. On a view of UTF-8 bytes (see MappedLine) the terminators are
+ * looked for as byte sequences, since a lone 0x85 there is the second byte of a
+ * character such as Å or х, not NEL.
+ */
+final class BracketTokenizer {
+    private static final Pattern BRACKET_REGEXP = Pattern.compile("\\\\\\[\\(\\.\\*\\)\\\\\\]( \\\\\\[\\(\\.\\*\\)\\\\\\])*");
+    private static final String GROUP = "(.*)";
+    private static final char LINE_SEPARATOR = 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    private BracketTokenizer() {
+    }
+
+    /**
+     * Does the regex have the shape this tokenizer handles?
+     *
+     * @param regexp The log line regex
+     * @return The number of fields if it has that shape, otherwise 0
+     */
+    static int fieldCount(String regexp) {
+        if (regexp == null || !BRACKET_REGEXP.matcher(regexp).matches()) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = regexp.indexOf(GROUP); i >= 0; i = regexp.indexOf(GROUP, i + GROUP.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Find the fields of a (trimmed) log line.
+     *
+     * @param line The line, already trimmed
+     * @param fieldCount The number of fields
+     * @param bounds Filled with the start and end of each field; must have room for
+     *               2 * fieldCount values
+     * @return True if the line matches, false otherwise
+     */
+    static boolean tokenize(CharSequence line, int fieldCount, int[] bounds) {
+        int length = line.length();
+        if (length < 2 || line.charAt(0) != '[' || line.charAt(length - 1) != ']') {
+            return false;
+        }
+        Charset charset = line instanceof MappedLine ? ((MappedLine) line).getCharset() : null;
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            for (int i = 1; i < length - 1; i++) {
+                if (isUtf8LineTerminator(line, i)) {
+                    return false;
+                }
+            }
+        } else if (StandardCharsets.US_ASCII.equals(charset)) {
+            for (int i = 1; i < length - 1; i++) {
+                char c = line.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 1; i < length - 1; i++) {
+                if (isLineTerminator(line.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+
+        // Find the separators from the end; 'end' is where the current field ends.
+        int field = fieldCount - 1;
+        int end = length - 1;
+        for (int i = end - 3; i >= 1 && field > 0; i--) {
+            if (line.charAt(i) == ']' && line.charAt(i + 1) == ' ' && line.charAt(i + 2) == '[') {
+                bounds[2 * field] = i + 3;
+                bounds[2 * field + 1] = end;
+                end = i;
+                field--;
+            }
+        }
+        if (field > 0) {
+            return false;
+        }
+        bounds[0] = 1;
+        bounds[1] = end;
+        return true;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR;
+    }
+
+    /**
+     * Does a line terminator start at this byte? NEL is C2 85 in UTF-8, and the line
+     * and paragraph separators are E2 80 A8 and E2 80 A9.
+     */
+    private static boolean isUtf8LineTerminator(CharSequence bytes, int i) {
+        char c = bytes.charAt(i);
+        if (c == '\n' || c == '\r') {
+            return true;
+        }
+        int length = bytes.length();
+        if (c == 0xc2) {
+            return i + 1 < length && bytes.charAt(i + 1) == 0x85;
+        }
+        if (c == 0xe2) {
+            return i + 2 < length && bytes.charAt(i + 1) == 0x80
+                    && (bytes.charAt(i + 2) == 0xa8 || bytes.charAt(i + 2) == 0xa9);
+        }
+        return false;
+    }
+}
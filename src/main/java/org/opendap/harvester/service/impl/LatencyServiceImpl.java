@@ -0,0 +1,324 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.entity.DurationHistogram;
+import org.opendap.harvester.entity.LatencyStats;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.entity.LogLineSchema;
+import org.opendap.harvester.service.LatencyService;
+import org.opendap.harvester.service.LogExtractionService;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.opendap.harvester.service.LogLineService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keep histograms of the duration field of the log, per time bucket, for all
+ * requests, per dataset and per response type (the last suffix of the resourceId,
+ * e.g. ".dods" or ".das").
+ *
+ * The histograms are brought up to date from where the last update stopped (see
+ * LogCursor) on a schedule, so each line is read once. A request only merges the
+ * buckets already there, so it never reads the log: the lines are read into buckets
+ * of their own and added to the kept ones at the end of the update. Buckets older
+ * than the retention period, counted back from the latest bucket, are dropped.
+ *
+ * A bucket keeps at most reporter.latency.max.keys datasets, and as many types;
+ * when another one comes along, the one with the fewest requests so far is merged
+ * into the "other" group to make room, so the busiest ones keep their own
+ * histograms and the totals stay right.
+ */
+@Service
+public class LatencyServiceImpl implements LatencyService {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    static final String GROUP_ALL = "all";
+    static final String GROUP_DATASET = "dataset";
+    static final String GROUP_TYPE = "type";
+    static final String GROUP_OTHER = "other";
+
+    private static final String DURATION_FIELD = "duration";
+    private static final String RESOURCE_FIELD = "resourceId";
+
+    @Autowired
+    private LogExtractionService logExtractionService;
+
+    @Autowired
+    private LogLineService logLineService;
+
+    // The length of a time bucket, and how long buckets are kept.
+    @Value("${reporter.latency.bucket.seconds:60}")
+    private int bucketSeconds;
+
+    @Value("${reporter.latency.retention.minutes:1440}")
+    private int retentionMinutes;
+
+    // The most datasets (and the most types) with a histogram of their own in one
+    // bucket.
+    @Value("${reporter.latency.max.keys:100}")
+    private int maxKeys;
+
+    // The buckets are guarded by 'this', the cursor by 'updateLock'
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+    private final Object updateLock = new Object();
+    private LogCursor cursor = null;
+
+    /**
+     * The histograms of one time bucket.
+     */
+    private class Bucket {
+        private final DurationHistogram all = new DurationHistogram();
+        private final Map<String, DurationHistogram> byDataset = new HashMap<>();
+        private final Map<String, DurationHistogram> byType = new HashMap<>();
+
+        /**
+         * Add the histograms of the same bucket read by a later update.
+         */
+        void merge(Bucket other) {
+            all.merge(other.all);
+            for (Map.Entry<String, DurationHistogram> entry : other.byDataset.entrySet()) {
+                keyHistogram(byDataset, entry.getKey()).merge(entry.getValue());
+            }
+            for (Map.Entry<String, DurationHistogram> entry : other.byType.entrySet()) {
+                keyHistogram(byType, entry.getKey()).merge(entry.getValue());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${reporter.latency.update.interval:60000}")
+    public void scheduledUpdate() {
+        try {
+            update();
+        } catch (IOException | RuntimeException e) {
+            String error = "/!\\ LatencyServiceImpl.java - scheduledUpdate() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+
+    /**
+     * Add the lines written since the last update to the histograms. The first
+     * update reads the lines of the last reporter.latency.retention.minutes.
+     *
+     * @throws IOException If the log file cannot be read
+     */
+    @Override
+    public void update() throws IOException {
+        synchronized (updateLock) {
+            if(logOutput) { log.info("update() | >>> function start"); }
+            final long bucketMillis = bucketSeconds * 1000L;
+            final long retentionMillis = retentionMinutes * 60 * 1000L;
+            final TreeMap<Long, Bucket> read = new TreeMap<>();
+            final long[] latest = {latestBucket()};
+            final int[] added = {0};
+            // The first update only wants the lines of the retention period, so the
+            // time index and the catalog of rotated files let it skip the rest
+            LocalDateTime since = cursor == null
+                    ? new LocalDateTime(System.currentTimeMillis() - retentionMillis, DateTimeZone.UTC) : null;
+            cursor = logExtractionService.extractLogData(since, cursor, Integer.MAX_VALUE, null, new LogLineConsumer() {
+                private LogLineSchema schema = null;
+                private int durationIndex;
+                private int resourceIndex;
+
+                @Override
+                public void accept(LogLine logLine) {
+                    if (logLine.getSchema() != schema) {
+                        schema = logLine.getSchema();
+                        durationIndex = schema.indexOf(DURATION_FIELD);
+                        resourceIndex = schema.indexOf(RESOURCE_FIELD);
+                    }
+                    long duration = LogLineSchema.getNumber(logLine.getLine(), logLine.getBounds(), durationIndex);
+                    if (duration == LogLineSchema.NO_NUMBER) {
+                        return;
+                    }
+                    long time;
+                    try {
+                        time = logLineService.getEpochMillis(logLine);
+                    } catch (IllegalArgumentException e) {
+                        return;
+                    }
+                    long start = Math.floorDiv(time, bucketMillis) * bucketMillis;
+                    Bucket bucket = read.get(start);
+                    if (bucket == null) {
+                        if (latest[0] != Long.MIN_VALUE && start < latest[0] - retentionMillis) {
+                            return;
+                        }
+                        bucket = new Bucket();
+                        read.put(start, bucket);
+                        // Retention counts back from the latest bucket, which may be
+                        // well before now, so drop the buckets that are too old as it goes
+                        if (start > latest[0]) {
+                            latest[0] = start;
+                            read.headMap(start - retentionMillis).clear();
+                        }
+                    }
+                    bucket.all.record(duration);
+                    String resource = LogLineSchema.getValue(logLine.getLine(), logLine.getBounds(), resourceIndex);
+                    if (resource != null) {
+                        int dot = typeStart(resource);
+                        String type = dot >= 0 ? resource.substring(dot) : "";
+                        String dataset = dot >= 0 && typeStart(resource.substring(0, dot)) >= 0
+                                ? resource.substring(0, dot) : resource;
+                        keyHistogram(bucket.byType, type).record(duration);
+                        keyHistogram(bucket.byDataset, dataset).record(duration);
+                    }
+                    added[0]++;
+                }
+            });
+
+            synchronized (this) {
+                for (Map.Entry<Long, Bucket> entry : read.entrySet()) {
+                    Bucket bucket = buckets.get(entry.getKey());
+                    if (bucket == null) {
+                        buckets.put(entry.getKey(), entry.getValue());
+                    } else {
+                        bucket.merge(entry.getValue());
+                    }
+                }
+                if (!buckets.isEmpty()) {
+                    buckets.headMap(buckets.lastKey() - retentionMillis).clear();
+                }
+                if(logOutput) { log.info("update() | " + added[0] + " lines added, " + buckets.size() + " buckets, returning <<<"); }
+            }
+        }
+    }
+
+    private synchronized long latestBucket() {
+        return buckets.isEmpty() ? Long.MIN_VALUE : buckets.lastKey();
+    }
+
+    /**
+     * Merge the histograms of the buckets that overlap a window. Only the lines
+     * added by the updates so far are counted.
+     *
+     * @param since The start of the window (GMT); null for the oldest bucket kept
+     * @param until The end of the window (GMT); null for now
+     * @param groupBy "dataset", "type", or null (or "all") for all requests
+     * @param histograms Return the merged histograms too
+     * @return The percentiles of each group, in the order of their keys
+     * @throws IllegalArgumentException If groupBy is not one of those
+     */
+    @Override
+    public synchronized LatencyStats getLatency(LocalDateTime since, LocalDateTime until, String groupBy,
+            boolean histograms) {
+        String group = groupBy == null || groupBy.isEmpty() ? GROUP_ALL : groupBy;
+        if (!group.equals(GROUP_ALL) && !group.equals(GROUP_DATASET) && !group.equals(GROUP_TYPE)) {
+            throw new IllegalArgumentException("Can not group latency by '" + groupBy + "'");
+        }
+        long bucketMillis = bucketSeconds * 1000L;
+        long from = since != null ? since.toDateTime(DateTimeZone.UTC).getMillis() - bucketMillis + 1 : Long.MIN_VALUE;
+        long to = until != null ? until.toDateTime(DateTimeZone.UTC).getMillis() : Long.MAX_VALUE;
+        Map<String, DurationHistogram> merged = new TreeMap<>();
+        for (Bucket bucket : buckets.subMap(from, true, to, true).values()) {
+            if (group.equals(GROUP_ALL)) {
+                histogram(merged, GROUP_ALL).merge(bucket.all);
+            } else {
+                Map<String, DurationHistogram> source = group.equals(GROUP_DATASET) ? bucket.byDataset : bucket.byType;
+                for (Map.Entry<String, DurationHistogram> entry : source.entrySet()) {
+                    histogram(merged, entry.getKey()).merge(entry.getValue());
+                }
+            }
+        }
+
+        List<LatencyStats.Group> groups = new ArrayList<>();
+        for (Map.Entry<String, DurationHistogram> entry : merged.entrySet()) {
+            DurationHistogram histogram = entry.getValue();
+            groups.add(LatencyStats.Group.builder()
+                    .key(entry.getKey())
+                    .count(histogram.getCount())
+                    .p50(histogram.getValueAtPercentile(50))
+                    .p95(histogram.getValueAtPercentile(95))
+                    .p99(histogram.getValueAtPercentile(99))
+                    .max(histogram.getMax())
+                    .histogram(histograms ? histogram : null)
+                    .build());
+        }
+        return LatencyStats.builder()
+                .since(since != null ? since.toString() : null)
+                .until(until != null ? until.toString() : null)
+                .groupBy(group)
+                .bucketSeconds(bucketSeconds)
+                .groups(groups)
+                .build();
+    }
+
+    /**
+     * @return The index of the '.' that starts the suffix of the last part of the
+     * path, or -1 if it has none
+     */
+    private static int typeStart(String resource) {
+        int dot = resource.lastIndexOf('.');
+        return dot > resource.lastIndexOf('/') ? dot : -1;
+    }
+
+    /**
+     * Get the histogram of a dataset or type in a bucket, making room for it if the
+     * bucket already has reporter.latency.max.keys of them.
+     */
+    private DurationHistogram keyHistogram(Map<String, DurationHistogram> histograms, String key) {
+        DurationHistogram histogram = histograms.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        int keys = histograms.size() - (histograms.containsKey(GROUP_OTHER) ? 1 : 0);
+        if (!key.equals(GROUP_OTHER) && keys >= Math.max(1, maxKeys)) {
+            Map.Entry<String, DurationHistogram> smallest = null;
+            for (Map.Entry<String, DurationHistogram> entry : histograms.entrySet()) {
+                if (!entry.getKey().equals(GROUP_OTHER)
+                        && (smallest == null || entry.getValue().getCount() < smallest.getValue().getCount())) {
+                    smallest = entry;
+                }
+            }
+            histograms.remove(smallest.getKey());
+            histogram(histograms, GROUP_OTHER).merge(smallest.getValue());
+        }
+        return histogram(histograms, key);
+    }
+
+    private static DurationHistogram histogram(Map<String, DurationHistogram> histograms, String key) {
+        DurationHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new DurationHistogram();
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+}
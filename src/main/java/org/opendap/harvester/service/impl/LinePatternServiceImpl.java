@@ -0,0 +1,111 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.config.ConfigurationExtractor;
+import org.opendap.harvester.entity.LinePattern;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogLineService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compile the log line pattern once and share it.
+ *
+ * ConfigurationExtractor replaces its snapshot when reporter.xml or the JSON pattern
+ * file changes. When the LinePattern in the current snapshot is not the one the
+ * shared config was compiled from, it is compiled again and the new config replaces
+ * the old one in a single step, so a request sees either the old config or the new
+ * one, never a mix. If the new pattern cannot be compiled, the old config is kept.
+ *
+ * @note The values in application.properties are compiled into the war file, so a
+ * change to them still needs a redeploy.
+ */
+@Service
+public class LinePatternServiceImpl implements LinePatternService {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    @Autowired
+    private ConfigurationExtractor configurationExtractor;
+
+    @Autowired
+    private LogLineService logLineService;
+
+    private volatile Compiled compiled = null;
+
+    @Override
+    public LinePatternConfig getLinePatternConfig() {
+        LinePattern linePattern = configurationExtractor.getLinePattern();
+        Compiled current = compiled;
+        if (current == null || current.source != linePattern) {
+            current = compile(linePattern);
+        }
+        return current.config;
+    }
+
+    private synchronized Compiled compile(LinePattern linePattern) {
+        Compiled current = compiled;
+        if (current != null && current.source == linePattern) {
+            return current;
+        }
+        try {
+            current = new Compiled(linePattern, logLineService.buildConfig(linePattern));
+            if (compiled != null) {
+                log.info("LinePatternServiceImpl.java - compile() : log line pattern reloaded");
+            }
+        } catch (PatternSyntaxException | NullPointerException e) {
+            if (current == null) {
+                throw e;
+            }
+            String error = "/!\\ LinePatternServiceImpl.java - compile() : "+ e.toString() +", keeping the old pattern /!\\";
+            log.error(error);
+            current = new Compiled(linePattern, current.config);
+        }
+        if(logOutput) { log.info("compile() | bracket fields : " + current.config.getBracketFields()); }
+        compiled = current;
+        return current;
+    }
+
+    /**
+     * A compiled config and the LinePattern it stands for.
+     */
+    private static final class Compiled {
+        private final LinePattern source;
+        private final LinePatternConfig config;
+
+        Compiled(LinePattern source, LinePatternConfig config) {
+            this.source = source;
+            this.config = config;
+        }
+    }
+}
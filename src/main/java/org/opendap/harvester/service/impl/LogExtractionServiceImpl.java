@@ -29,29 +29,37 @@
  */
 package org.opendap.harvester.service.impl;
 
+import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
 import org.opendap.harvester.ReporterApplication;
 import org.opendap.harvester.config.ConfigurationExtractor;
-import org.opendap.harvester.entity.LinePattern;
 import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogCursor;
 import org.opendap.harvester.entity.LogData;
+import org.opendap.harvester.entity.LogFilter;
 import org.opendap.harvester.entity.LogLine;
 import org.opendap.harvester.entity.dto.LogDataDto;
 import org.opendap.harvester.entity.dto.LogLineDto;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogChunkConsumer;
 import org.opendap.harvester.service.LogExtractionService;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.opendap.harvester.service.LogLineHandler;
 import org.opendap.harvester.service.LogLineService;
+import org.opendap.harvester.service.LogTailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 @Service
 public class LogExtractionServiceImpl implements LogExtractionService {
@@ -61,9 +69,37 @@ public class LogExtractionServiceImpl implements LogExtractionService {
     @Autowired
     private LogLineService logLineService;
 
+    @Autowired
+    private LinePatternService linePatternService;
+
     @Autowired
     private ConfigurationExtractor configurationExtractor;
 
+    @Autowired
+    private LogTailService logTailService;
+
+    // Threads used to parse the log file; 1 parses it on the calling thread and 0
+    // uses one thread per processor.
+    @Value("${reporter.parse.threads:1}")
+    private int parseThreads;
+
+    private ForkJoinPool parsePool = null;
+
+    // The most recent parsed lines kept in memory, for 'since' and cursor requests
+    // that fall inside them; 0 turns this off.
+    @Value("${reporter.buffer.size:10000}")
+    private int bufferSize;
+
+    // How far back (milliseconds) the first read into the buffer starts; 0 reads the
+    // whole log.
+    @Value("${reporter.buffer.tail.window:3600000}")
+    private long tailWindow;
+
+    private volatile LogLineBuffer buffer = null;
+    private final Object tailLock = new Object();
+    private LinePatternConfig tailConfig = null;
+    private LogCursor tailCursor = null;
+
     @Override
     public LogData extractLogDataSince(LocalDateTime time) throws IOException {
     	if(logOutput) { log.info("extractLogDataSince() | >>> function start"); }
@@ -85,10 +121,265 @@ public class LogExtractionServiceImpl implements LogExtractionService {
         return getLogLines(null);
     }
 
+    /**
+     * Pass each log line after 'since' to the consumer as soon as it is parsed, without
+     * holding the result in memory.
+     *
+     * @param since Only lines after this time; null means all lines
+     * @param filter Only the lines it keeps; null means all lines
+     * @param consumer Called with each line
+     * @throws IOException If the log file cannot be read or the consumer fails
+     */
+    @Override
+    public void extractLogData(LocalDateTime since, LogFilter filter, LogLineConsumer consumer) throws IOException {
+        extractLogData(since, null, filter, consumer);
+    }
+
+    /**
+     * Pass each log line after 'since' and at or before 'until' to the consumer as
+     * soon as it is parsed. The log is only read until its lines are well past
+     * 'until' (see LogTailService).
+     *
+     * @param since Only lines after this time; null means all lines
+     * @param until Only lines at or before this time; null means all lines
+     * @param filter Only the lines it keeps; null means all lines
+     * @param consumer Called with each line
+     * @throws IOException If the log file cannot be read or the consumer fails
+     */
+    @Override
+    public void extractLogData(LocalDateTime since, LocalDateTime until, LogFilter filter, LogLineConsumer consumer)
+            throws IOException {
+        readLines(linePatternService.getLinePatternConfig(), since, until, filter, consumer);
+    }
+
+    /**
+     * Pass at most 'limit' log lines after 'since' to the consumer, starting where the
+     * previous page ended.
+     *
+     * @param since Only lines after this time; null means all lines
+     * @param cursor Where the previous page ended; null to start from 'since'
+     * @param limit The most lines to pass on
+     * @param filter Only the lines it keeps; null means all lines. Lines it drops do
+     *               not count towards the limit.
+     * @param consumer Called with each line
+     * @return Where this page ended; pass it back to get the next page
+     * @throws IOException If the log file cannot be read or the consumer fails
+     */
+    @Override
+    public LogCursor extractLogData(LocalDateTime since, LogCursor cursor, int limit, LogFilter filter,
+            LogLineConsumer consumer) throws IOException {
+        LinePatternConfig config = linePatternService.getLinePatternConfig();
+        LogLineFilter lineFilter = LogLineFilter.compile(filter, config.getSchema());
+        LogLineBuffer current = buffer;
+        if (current != null && (since != null || cursor != null)) {
+            LogCursor end = readBuffered(current, config, since, cursor, limit, lineFilter, consumer);
+            if (end != null) {
+                return end;
+            }
+        }
+        LineCollector collector = new LineCollector(config, since, consumer);
+        collector.limit = limit;
+        collector.filter = lineFilter;
+        return logTailService.readLines(since, cursor, collector);
+    }
+
+    /**
+     * @return A cursor at the end of the log, so that the page after it holds only the
+     * lines written from now on
+     * @throws IOException If the log file cannot be read
+     */
+    @Override
+    public LogCursor getEndCursor() throws IOException {
+        final LinePatternConfig config = linePatternService.getLinePatternConfig();
+        return logTailService.readLines(LocalDateTime.now(DateTimeZone.UTC), (LogCursor) null, new LogLineHandler() {
+            @Override
+            public long handle(CharSequence line) {
+                return logLineService.getEpochMillis(line, config);
+            }
+        });
+    }
+
+    /**
+     * Answer a page from the buffer of recent lines, if it starts inside the buffer,
+     * reading the rest of the page from the log file if the buffer runs out first.
+     * Nothing is locked: if the entries are overwritten while they are read, the
+     * page is read from the file instead.
+     *
+     * @return Where the page ended, or null if it does not start inside the buffer
+     */
+    private LogCursor readBuffered(LogLineBuffer buffer, LinePatternConfig config, LocalDateTime since,
+            LogCursor cursor, int limit, LogLineFilter filter, LogLineConsumer consumer) throws IOException {
+        long sinceMillis = since != null ? since.toDateTime(DateTimeZone.UTC).getMillis() : LogLineHandler.NO_TIME;
+        long head = buffer.getHead();
+        long seq;
+        if (cursor != null) {
+            seq = buffer.find(cursor, head);
+            if (seq < 0) {
+                return null;
+            }
+            seq++;
+        } else {
+            seq = buffer.find(sinceMillis, head);
+            if (seq < 0) {
+                return null;
+            }
+        }
+
+        List<LogLine> lines = new ArrayList<>();
+        LogLineBuffer.Entry last = null;
+        for (; seq < head && lines.size() < limit; seq++) {
+            LogLineBuffer.Entry entry = buffer.get(seq);
+            if (entry == null) {
+                if(logOutput) { log.info("readBuffered() | buffer overwritten, reading the log file"); }
+                return null;
+            }
+            last = entry;
+            if ((since == null || (entry.time != LogLineHandler.NO_TIME && entry.time > sinceMillis))
+                    && (filter == null || filter.matches(entry.logLine))) {
+                lines.add(entry.logLine);
+            }
+        }
+        for (LogLine logLine : lines) {
+            consumer.accept(logLine);
+        }
+
+        LogCursor end = last != null ? last.getCursor() : cursor;
+        if (lines.size() < limit) {
+            LineCollector collector = new LineCollector(config, since, consumer);
+            collector.limit = limit - lines.size();
+            collector.filter = filter;
+            end = logTailService.readLines(since, end, collector);
+        }
+        if(logOutput) { log.info("readBuffered() | " + lines.size() + " lines from the buffer"); }
+        return end;
+    }
+
+    @Scheduled(fixedDelayString = "${reporter.buffer.tail.interval:5000}")
+    public void tailLog() {
+        try {
+            tail();
+        } catch (IOException | RuntimeException e) {
+            String error = "/!\\ LogExtractionServiceImpl.java - tailLog() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+
+    /**
+     * Read the lines written since the last call into the buffer of recent lines.
+     * The first call, and the first after the line pattern changes, starts where the
+     * time index puts the lines of the last reporter.buffer.tail.window milliseconds;
+     * the buffer is told that the lines before that are no later than its start.
+     *
+     * @throws IOException If the log file cannot be read
+     */
+    void tail() throws IOException {
+        if (bufferSize <= 0) {
+            return;
+        }
+        synchronized (tailLock) {
+            LinePatternConfig config = linePatternService.getLinePatternConfig();
+            if (config != tailConfig) {
+                buffer = null;
+                tailCursor = null;
+                tailConfig = config;
+            }
+            LogLineBuffer current = buffer != null ? buffer : new LogLineBuffer(bufferSize);
+            LocalDateTime since = null;
+            if (tailCursor == null && tailWindow > 0) {
+                since = new LocalDateTime(System.currentTimeMillis() - tailWindow, DateTimeZone.UTC);
+                current.seed(since.toDateTime(DateTimeZone.UTC).getMillis());
+            }
+            tailCursor = logTailService.readLines(since, tailCursor, new BufferTail(config, current));
+            buffer = current;
+        }
+    }
+
+    /**
+     * Parse each line read from the log file and add it to the buffer once its end
+     * is known.
+     */
+    private class BufferTail implements LogLineHandler {
+        private final LinePatternConfig config;
+        private final LogLineBuffer buffer;
+        private LogLine pending = null;
+        private long pendingTime = NO_TIME;
+
+        BufferTail(LinePatternConfig config, LogLineBuffer buffer) {
+            this.config = config;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long handle(CharSequence rawLine) {
+            pending = null;
+            if (isBlank(rawLine)) {
+                return NO_TIME;
+            }
+            LogLine logLine = logLineService.decode(logLineService.parseLogLine(rawLine, config), config);
+            if (!logLine.isMatched()) {
+                return NO_TIME;
+            }
+            pending = logLine;
+            pendingTime = getEpochMillis(logLine);
+            return pendingTime;
+        }
+
+        @Override
+        public void lineEnd(String fileKey, long offset) {
+            if (pending != null) {
+                buffer.append(pending, pendingTime, fileKey, offset);
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * Read the log, on the parse pool if there is one, passing the lines after 'since'
+     * and at or before 'until' to the consumer in file order.
+     *
+     * @return The number of lines that did not match the pattern
+     */
+    private int readLines(final LinePatternConfig config, final LocalDateTime since, final LocalDateTime until,
+            LogFilter filter, final LogLineConsumer consumer) throws IOException {
+        final LogLineFilter lineFilter = LogLineFilter.compile(filter, config.getSchema());
+        final long untilMillis = until != null ? until.toDateTime(DateTimeZone.UTC).getMillis() : Long.MAX_VALUE;
+        ForkJoinPool pool = getParsePool();
+        if (pool == null) {
+            LineCollector collector = new LineCollector(config, since, consumer);
+            collector.untilMillis = untilMillis;
+            collector.filter = lineFilter;
+            logTailService.readLines(since, until, collector);
+            return collector.y;
+        }
+
+        final int[] malformed = {0};
+        logTailService.readLines(since, until, pool, new Supplier<LineCollector>() {
+            @Override
+            public LineCollector get() {
+                LineCollector collector = new LineCollector(config, since, new LineList());
+                collector.untilMillis = untilMillis;
+                collector.filter = lineFilter;
+                return collector;
+            }
+        }, new LogChunkConsumer<LineCollector>() {
+            @Override
+            public void accept(LineCollector collector) throws IOException {
+                for (LogLine logLine : ((LineList) collector.consumer).lines) {
+                    consumer.accept(logLine);
+                }
+                malformed[0] += collector.y;
+            }
+        });
+        return malformed[0];
+    }
+
     /**
      * @todo This method will fail if the pattern doesn't match. In that case is returns
      * a record/line that is 'values:""' repeated N time  where N is the number of fields
      * in the pattern regex. There's no error message.
+     *
+     * @note LogTailService uses its index of the log file to skip the lines that are
+     * known to be at or before 'since'.
      * 
      * @param since
      * @return
@@ -97,59 +388,165 @@ public class LogExtractionServiceImpl implements LogExtractionService {
     private List<LogLine> getLogLines(LocalDateTime since) throws IOException {
     // 5/2/19 - SBL - added test for blank lines and lines that do not match pattern
     	if(logOutput) { log.info("getLogLines() | >>> function start"); }
-        LinePattern linePattern = configurationExtractor.getLinePattern();
-        
-        if(logOutput) { log.info("getLogLines() | building config ..."); }
-        LinePatternConfig config = LinePatternConfig.builder()
-                .pattern(Pattern.compile(linePattern.getRegexp()))
-                .names(linePattern.getNames().split(";"))
-                .build();
+        LinePatternConfig config = linePatternService.getLinePatternConfig();
 
-        if(logOutput) { log.info("getLogLines() | ... config built"); } 
+        if(logOutput) { log.info("getLogLines() | ... config ready"); } 
         if(logOutput) { log.info("getLogLines() | filepath : "+ configurationExtractor.getHyraxLogfilePath()); } 
-        List<String> allLines = Files.readAllLines(Paths.get(configurationExtractor.getHyraxLogfilePath()), Charset.defaultCharset());
-        
-        if(logOutput) { log.info("getLogLines() | lines read : "+allLines.size()+", value of 0 : "+ allLines.get(0)); } 
         if(logOutput) { log.info("getLogLines() | parsing lines ..."); }
-        List<LogLine> parsedLines = new ArrayList<>();
-        int x = 1; // <-- used in debugging, SBL - 7.2.19
-        int y = 0;
-        for (String line : allLines){
-        	
-        	if (line.trim().isEmpty()) { // <--- check for blank line before parsing
+        final List<LogLine> parsedLines = new ArrayList<>();
+        int malformed = readLines(config, since, null, null, new LogLineConsumer() {
+            @Override
+            public void accept(LogLine logLine) {
+                parsedLines.add(logLine);
+            }
+        });
+        
+        if(malformed != 0) {
+        	String error = "/!\\ LogExtractionServiceImpl.java - getLogLines() : number of malformed log lines - "+ malformed +" lines /!\\";
+        	if(logOutput) { log.error(error); }
+        }//end if
+        
+        if(logOutput) { log.info("getLogLines() | ... lines parsed"); }
+        if(logOutput) { log.info("getLogLines() | returning <<"); } 
+        return parsedLines;
+    }//end getLogLines
+
+    /**
+     * The pool the log file is parsed on, or null to parse it on the calling thread.
+     */
+    private synchronized ForkJoinPool getParsePool() {
+        if (parsePool == null && parseThreads != 1) {
+            int threads = parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+            if (threads > 1) {
+                if(logOutput) { log.info("getParsePool() | parsing with " + threads + " threads"); }
+                parsePool = new ForkJoinPool(threads);
+            }
+        }
+        return parsePool;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (parsePool != null) {
+            parsePool.shutdownNow();
+            parsePool = null;
+        }
+    }
+
+    /**
+     * Keep the lines of one collector, so that chunks of the file parsed in parallel
+     * can be put back together in file order.
+     */
+    private static class LineList implements LogLineConsumer {
+        private final List<LogLine> lines = new ArrayList<>();
+
+        @Override
+        public void accept(LogLine logLine) {
+            lines.add(logLine);
+        }
+    }
+
+    /**
+     * Parse each line read from the log file and pass the ones after 'since' and up
+     * to 'until' (and kept by the filter, if there is one) on to the consumer.
+     */
+    private class LineCollector implements LogLineHandler {
+        private final LinePatternConfig config;
+        private final LocalDateTime since;
+        private final long sinceMillis;
+        private final LogLineConsumer consumer;
+        private int x = 1; // <-- used in debugging, SBL - 7.2.19
+        private int y = 0;
+        private int limit = Integer.MAX_VALUE;
+        private int count = 0;
+        private LogLineFilter filter = null;
+        private long untilMillis = Long.MAX_VALUE;
+
+        LineCollector(LinePatternConfig config, LocalDateTime since, LogLineConsumer consumer) {
+            this.config = config;
+            this.since = since;
+            this.sinceMillis = since != null ? since.toDateTime(DateTimeZone.UTC).getMillis() : NO_TIME;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public long handle(CharSequence rawLine) throws IOException {
+        	if (isBlank(rawLine)) { // <--- check for blank line before parsing
         		if(logOutput) { log.info("getLogLines() | 	- "+x+") blank line, skipping"); }
         		if(logOutput) { x++; } // <-- used in debugging, SBL - 7.2.19
-        		continue;
+        		return NO_TIME;
         	}//end if - blank line test
-        	
-            LogLine parsedLogLine = logLineService.parseLogLine(line, config); //parse line
-            //if(logOutput) { log.info("getLogLines() | 	- "+x+") line : "+ parsedLogLine.getValues().toString()); }//output values 
-            boolean matched = !parsedLogLine.getValues().isEmpty(); //check if line was a match or not
-            
-            if (matched && (since == null || logLineService.getLocalDateTime(parsedLogLine).isAfter(since))){ 
+
+            LogLine parsedLogLine = logLineService.parseLogLine(rawLine, config); //parse line
+            boolean matched = parsedLogLine.isMatched(); //check if line was a match or not
+            long time = matched ? getEpochMillis(parsedLogLine) : NO_TIME;
+
+        	// Lines at or before 'since', or dropped by the filter, are dropped while
+        	// they are still in the log file's bytes, so only the lines that are
+        	// returned are decoded.
+        	if (matched && !(parsedLogLine.getLine() instanceof String)) {
+        		if ((since != null && time != NO_TIME && time <= sinceMillis)
+        				|| (time != NO_TIME && time > untilMillis)
+        				|| (filter != null && filter.isRawSafe() && !filter.matches(parsedLogLine))) {
+        			x++; // <-- used in debugging, SBL - 7.2.19
+        			return time;
+        		}
+        	}//end if - early test
+
+        	LogLine decoded = logLineService.decode(parsedLogLine, config);
+        	if (decoded.getBounds() != parsedLogLine.getBounds()) {
+        		matched = decoded.isMatched();
+        		time = matched ? getEpochMillis(decoded) : NO_TIME;
+        	}
+        	parsedLogLine = decoded;
+
+            if (matched && (since == null || (time != NO_TIME && time > sinceMillis))
+            		&& (untilMillis == Long.MAX_VALUE || (time != NO_TIME && time <= untilMillis))
+            		&& (filter == null || filter.matches(parsedLogLine))){ 
             	if(logOutput) { log.info("getLogLines() | 	- "+x+") line : "+ parsedLogLine.getValues().toString()); }//output values
             	if(logOutput) { log.info("getLogLines() | 	- "+x+") adding parsed line"); } 
-                parsedLines.add(parsedLogLine);
+                consumer.accept(parsedLogLine);
+                count++;
             }//end if - kosher line
             else if(!matched) { // <--- if not a match
             	//TODO output parse error to log file. sbl 7.2.19
-            	String error = "/!\\ LogExtractionServiceImpl.java - getLogLines() : malformed log line - \""+ line +"\" /!\\";
+            	String error = "/!\\ LogExtractionServiceImpl.java - getLogLines() : malformed log line - \""+ parsedLogLine.getLine() +"\" /!\\";
             	if(logOutput) { log.error(error); }
             	y++;
             	if(logOutput) { log.info("getLogLines() | 	- "+x+") line did not match pattern"); } 
             }//end if - non kosher line
             x++; // <-- used in debugging, SBL - 7.2.19
-        }//end for loop
-        
-        if(y != 0) {
-        	String error = "/!\\ LogExtractionServiceImpl.java - getLogLines() : number of malformed log lines - "+ y +" lines /!\\";
-        	if(logOutput) { log.error(error); }
-        }//end if
-        
-        if(logOutput) { log.info("getLogLines() | ... lines parsed"); }
-        if(logOutput) { log.info("getLogLines() | returning <<"); } 
-        return parsedLines;
-    }//end getLogLines
+            return time;
+        }
+
+        @Override
+        public boolean isDone() {
+            return count >= limit;
+        }
+    }
+
+    /**
+     * Same as line.trim().isEmpty(), without making a copy of the line.
+     */
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The time of the log line, or NO_TIME if the time field cannot be parsed.
+     */
+    private long getEpochMillis(LogLine logLine) {
+        try {
+            return logLineService.getEpochMillis(logLine);
+        } catch (IllegalArgumentException e) {
+            return LogLineHandler.NO_TIME;
+        }
+    }
 
     @Override
     public LogDataDto buildDto(LogData logData) {
@@ -0,0 +1,181 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LogLineHandler;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ring of the most recent parsed log lines, in the order they are in the log.
+ *
+ * One thread appends; any number read without a lock. Each entry is immutable and
+ * knows its sequence number, so a reader that finds a different number in a slot
+ * knows the entry it wanted has been overwritten and can fall back to the file.
+ *
+ * Each entry also holds the latest time of all the lines read before it, so a
+ * reader can tell whether the lines after 'since' all are in the buffer: they are
+ * if some entry has only lines at or before 'since' ahead of it.
+ */
+final class LogLineBuffer {
+    /**
+     * A line, where it ends in the log, and the latest time of the lines before it.
+     */
+    static final class Entry {
+        final long seq;
+        final LogLine logLine;
+        final long time;
+        final String fileKey;
+        final long endOffset;
+        final long maxTimeBefore;
+
+        private Entry(long seq, LogLine logLine, long time, String fileKey, long endOffset, long maxTimeBefore) {
+            this.seq = seq;
+            this.logLine = logLine;
+            this.time = time;
+            this.fileKey = fileKey;
+            this.endOffset = endOffset;
+            this.maxTimeBefore = maxTimeBefore;
+        }
+
+        /**
+         * @return A cursor just past this line
+         */
+        LogCursor getCursor() {
+            return new LogCursor(fileKey, endOffset, Math.max(maxTimeBefore, time));
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> entries;
+    private volatile long head = 0;
+    private long maxTime = LogLineHandler.NO_TIME;
+
+    LogLineBuffer(int capacity) {
+        this.capacity = capacity;
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Start the buffer after lines that are not read into it; call before the first
+     * append().
+     *
+     * @param time The latest time those lines can have
+     */
+    void seed(long time) {
+        maxTime = Math.max(maxTime, time);
+    }
+
+    /**
+     * Add a line; only one thread may call this.
+     *
+     * @param logLine A decoded line that matched the pattern
+     * @param time Its time, or NO_TIME
+     * @param fileKey The file it is in
+     * @param endOffset The byte offset just past it
+     */
+    void append(LogLine logLine, long time, String fileKey, long endOffset) {
+        long seq = head;
+        entries.set((int) (seq % capacity), new Entry(seq, logLine, time, fileKey, endOffset, maxTime));
+        maxTime = Math.max(maxTime, time);
+        head = seq + 1;
+    }
+
+    /**
+     * @return The sequence number the next entry will get
+     */
+    long getHead() {
+        return head;
+    }
+
+    /**
+     * @return The entry, or null if it has been overwritten (or not written yet)
+     */
+    Entry get(long seq) {
+        if (seq < 0) {
+            return null;
+        }
+        Entry entry = entries.get((int) (seq % capacity));
+        return entry != null && entry.seq == seq ? entry : null;
+    }
+
+    /**
+     * Find the latest entry that has only lines at or before 'since' ahead of it.
+     *
+     * @param since A time in milliseconds since the epoch (GMT)
+     * @param head The head the reader is working with
+     * @return Its sequence number, or -1 if the oldest entry in the buffer has lines
+     * after 'since' ahead of it (or the buffer is empty)
+     */
+    long find(long since, long head) {
+        long low = Math.max(0, head - capacity);
+        Entry first = get(low);
+        if (first == null || first.maxTimeBefore > since) {
+            return -1;
+        }
+        // maxTimeBefore never goes down, so search for the last entry within 'since'
+        long high = head - 1;
+        while (low < high) {
+            long mid = low + (high - low + 1) / 2;
+            Entry entry = get(mid);
+            if (entry == null) {
+                return -1;
+            }
+            if (entry.maxTimeBefore <= since) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the entry a cursor points just past.
+     *
+     * @param cursor A cursor
+     * @param head The head the reader is working with
+     * @return Its sequence number, or -1 if no entry in the buffer ends there
+     */
+    long find(LogCursor cursor, long head) {
+        for (long seq = head - 1; seq >= Math.max(0, head - capacity); seq--) {
+            Entry entry = get(seq);
+            if (entry == null) {
+                return -1;
+            }
+            if (entry.fileKey.equals(cursor.getFileKey())) {
+                if (entry.endOffset == cursor.getOffset()) {
+                    return seq;
+                }
+                if (entry.endOffset < cursor.getOffset()) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.entity.LogLineSchema;
+
+import java.util.Set;
+
+/**
+ * The conditions of a LogFilter, resolved against the fields of the log lines.
+ *
+ * A line is tested where its fields are, without cutting them out of it, so a line
+ * that is dropped costs only the tokenizing. When every value in the filter is ASCII
+ * (and the resourceId glob has no '?', which would count the bytes of a multi-byte
+ * character one by one) the test gives the same answer on a line still in the log
+ * file's bytes (see MappedLine) as on the decoded line, so lines can be dropped
+ * before they are decoded.
+ */
+final class LogLineFilter {
+    private final int statusIndex;
+    private final String[] statuses;
+    private final String[] excludedStatuses;
+    private final int resourceIndex;
+    private final String resourceGlob;
+    private final int verbIndex;
+    private final String[] verbs;
+    private final boolean rawSafe;
+
+    private LogLineFilter(LogFilter filter, LogLineSchema schema) {
+        statusIndex = schema.indexOf(LogFilter.STATUS_FIELD);
+        statuses = toArray(filter.getStatuses());
+        excludedStatuses = toArray(filter.getExcludedStatuses());
+        resourceIndex = schema.indexOf(LogFilter.RESOURCE_FIELD);
+        String resourceId = filter.getResourceId();
+        if (resourceId != null && resourceId.indexOf('*') < 0 && resourceId.indexOf('?') < 0) {
+            resourceId = resourceId + "*";
+        }
+        resourceGlob = resourceId;
+        verbIndex = schema.indexOf(LogFilter.VERB_FIELD);
+        verbs = toArray(filter.getVerbs());
+
+        boolean ascii = isAscii(statuses) && isAscii(excludedStatuses) && isAscii(verbs);
+        rawSafe = ascii && (resourceGlob == null || (isAscii(resourceGlob) && resourceGlob.indexOf('?') < 0));
+    }
+
+    /**
+     * @param filter What the client asked for
+     * @param schema The fields of the log lines
+     * @return The conditions, or null if the filter does not drop any lines
+     * @throws IllegalArgumentException If the filter uses a field the lines do not have
+     */
+    static LogLineFilter compile(LogFilter filter, LogLineSchema schema) {
+        if (filter == null || !filter.hasConditions()) {
+            return null;
+        }
+        filter.check(schema);
+        return new LogLineFilter(filter, schema);
+    }
+
+    /**
+     * @return True if matches() can be used on a line that has not been decoded
+     */
+    boolean isRawSafe() {
+        return rawSafe;
+    }
+
+    /**
+     * @param logLine A line that matched the pattern
+     * @return True if the line is kept
+     */
+    boolean matches(LogLine logLine) {
+        CharSequence line = logLine.getLine();
+        int[] bounds = logLine.getBounds();
+
+        if (statuses != null || excludedStatuses != null) {
+            if (!hasField(bounds, statusIndex)) {
+                return false;
+            }
+            int start = bounds[2 * statusIndex];
+            int end = bounds[2 * statusIndex + 1];
+            if (statuses != null && !equalsAny(line, start, end, statuses)) {
+                return false;
+            }
+            if (excludedStatuses != null && equalsAny(line, start, end, excludedStatuses)) {
+                return false;
+            }
+        }
+        if (resourceGlob != null) {
+            if (!hasField(bounds, resourceIndex)
+                    || !glob(resourceGlob, line, bounds[2 * resourceIndex], bounds[2 * resourceIndex + 1])) {
+                return false;
+            }
+        }
+        if (verbs != null) {
+            if (!hasField(bounds, verbIndex) || !isVerb(line, bounds[2 * verbIndex], bounds[2 * verbIndex + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Is the (trimmed) field one of the values?
+     */
+    private static boolean equalsAny(CharSequence line, int start, int end, String[] values) {
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        for (String value : values) {
+            if (regionMatches(line, start, end, value, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Is the verb field one of the verbs, ignoring case, either as it is or after
+     * the last '-' (Hyrax logs "HTTP-GET")?
+     */
+    private boolean isVerb(CharSequence line, int start, int end) {
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int dash = end - 1;
+        while (dash >= start && line.charAt(dash) != '-') {
+            dash--;
+        }
+        for (String verb : verbs) {
+            if (regionMatches(line, start, end, verb, true)
+                    || (dash >= start && regionMatches(line, dash + 1, end, verb, true))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(CharSequence line, int start, int end, String value, boolean ignoreCase) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = line.charAt(start + i);
+            char v = value.charAt(i);
+            if (c != v && (!ignoreCase || Character.toUpperCase(c) != Character.toUpperCase(v))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Does line[start, end) match the glob? '*' matches any run of characters and '?'
+     * any one character.
+     */
+    static boolean glob(String glob, CharSequence line, int start, int end) {
+        int g = 0;
+        int i = start;
+        int star = -1;
+        int mark = start;
+        while (i < end) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == line.charAt(i))) {
+                g++;
+                i++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                mark = i;
+            } else if (star >= 0) {
+                g = star + 1;
+                i = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    private static boolean hasField(int[] bounds, int index) {
+        return index >= 0 && 2 * index + 1 < bounds.length && bounds[2 * index] >= 0;
+    }
+
+    private static String[] toArray(Set<String> values) {
+        return values == null || values.isEmpty() ? null : values.toArray(new String[values.size()]);
+    }
+
+    private static boolean isAscii(String[] values) {
+        if (values != null) {
+            for (String value : values) {
+                if (!isAscii(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
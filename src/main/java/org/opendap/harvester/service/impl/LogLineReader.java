@@ -0,0 +1,181 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read lines from a log file starting at a given byte offset, keeping track of the
+ * byte offset just past the last complete line returned.
+ *
+ * Only lines terminated by a newline are returned; a partial line at the end of the
+ * file is assumed to still be in the process of being written and is left for the
+ * next read. Because of that, getOffset() is always a safe place to resume from.
+ *
+ * A reader can also be limited to the lines that start before a given offset, which
+ * is how a file is split into chunks that are read in parallel.
+ *
+ * The file is read a window at a time (so files of any size can be read) and the
+ * line breaks are found in the bytes of the window. For UTF-8, ISO-8859-1 and
+ * US-ASCII the lines are returned as views of those bytes (see MappedLine) and are
+ * only decoded if toString() is called; for other charsets each line is decoded.
+ *
+ * The windows of a rotated file, which no longer changes, are memory mapped. Those
+ * of the log file itself are read into memory instead: logrotate's copytruncate can
+ * shrink it while it is read, and touching a mapped page past the new end faults,
+ * which the JVM reports as an InternalError (not an IOException) at some point
+ * after the access, where no caller can handle it.
+ */
+class LogLineReader implements Closeable {
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    static final int READ_WINDOW_SIZE = 1024 * 1024;
+
+    private static final Charset[] MAPPED_CHARSETS = {
+            StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII };
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final boolean views;
+    private final boolean map;
+    private final long limit;
+    private final int windowSize;
+    private ByteBuffer window = null;
+    private long windowStart;
+    private long offset;
+
+    /**
+     * A reader of a rotated file, which is mapped.
+     */
+    LogLineReader(Path logFile, long offset, Charset charset) throws IOException {
+        this(logFile, offset, Long.MAX_VALUE, charset, true);
+    }
+
+    /**
+     * @param limit No line starting at or after this offset is returned
+     * @param map Map the file; only for a file that cannot shrink while it is read
+     */
+    LogLineReader(Path logFile, long offset, long limit, Charset charset, boolean map) throws IOException {
+        this(logFile, offset, limit, charset, map, map ? WINDOW_SIZE : READ_WINDOW_SIZE);
+    }
+
+    LogLineReader(Path logFile, long offset, long limit, Charset charset, boolean map, int windowSize)
+            throws IOException {
+        if (!Arrays.equals("\n".getBytes(charset), new byte[] {'\n'})) {
+            throw new IllegalArgumentException("The log file charset must be ASCII compatible: " + charset);
+        }
+        this.channel = FileChannel.open(logFile, StandardOpenOption.READ);
+        this.charset = charset;
+        this.views = Arrays.asList(MAPPED_CHARSETS).contains(charset);
+        this.map = map;
+        this.offset = offset;
+        this.windowStart = offset;
+        this.limit = limit;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return The next complete line, without the line terminator, or null when
+     * there are no more complete lines. The line is only valid until the next call.
+     * @throws IOException
+     */
+    CharSequence readLine() throws IOException {
+        if (offset >= limit) {
+            return null;
+        }
+        int start = (int) (offset - windowStart);
+        int end = window != null ? indexOfNewline(window, start) : -1;
+        if (end < 0) {
+            // The line goes past the end of the window (or there is no window yet):
+            // get a new window starting at the line, big enough to hold it.
+            long available = channel.size() - offset;
+            int size = window != null ? window.limit() - start : 0;
+            do {
+                if (size >= available) {
+                    return null;
+                }
+                size = (int) Math.min(available, Math.max(windowSize, Math.min(2L * size, Integer.MAX_VALUE)));
+                window = getWindow(offset, size);
+                windowStart = offset;
+                end = indexOfNewline(window, 0);
+                if (end < 0 && window.limit() < size) {
+                    // the file shrank while it was read
+                    return null;
+                }
+            } while (end < 0);
+            start = 0;
+        }
+
+        offset = windowStart + end + 1;
+        int length = end - start;
+        if (length > 0 && window.get(end - 1) == '\r') {
+            length--;
+        }
+        MappedLine line = new MappedLine(window, start, length, charset);
+        return views ? line : line.toString();
+    }
+
+    private ByteBuffer getWindow(long position, int size) throws IOException {
+        if (map) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            // read until the window is full or the file ends
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The byte offset just past the last complete line returned by readLine().
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -25,22 +25,22 @@
 
 package org.opendap.harvester.service.impl;
 
-import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
-import org.joda.time.format.DateTimeFormat;
 import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.entity.LinePattern;
 import org.opendap.harvester.entity.LinePatternConfig;
 import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.entity.LogLineSchema;
 import org.opendap.harvester.entity.dto.LogLineDto;
+import org.opendap.harvester.service.LogLineHandler;
 import org.opendap.harvester.service.LogLineService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class LogLineServiceImpl implements LogLineService {
@@ -52,56 +52,162 @@ public class LogLineServiceImpl implements LogLineService {
     @Override
     public LocalDateTime getLocalDateTime(LogLine logLine) {
     	if (logOutput) { log.info("getLocalDateTime() | >>> function start"); } 
-        Map<String, String> logLineValues = logLine.getValues();
-        //log.info("time.2/2) time value : "+ logLineValues.get(TIME_FIELD).toString() + ", returning <<"); // <---
-        return toGMT(logLineValues.get(TIME_FIELD));
+        return new LocalDateTime(getEpochMillis(logLine), DateTimeZone.UTC);
     }
 
+    /**
+     * The time of a log line in milliseconds since the epoch (GMT), read straight out
+     * of the line.
+     *
+     * @param logLine A parsed line
+     * @return The time
+     * @throws IllegalArgumentException If the line has no time or it cannot be parsed
+     */
     @Override
-    public LogLine parseLogLine(String line, LinePatternConfig config) {
-    	//log.info("parse.1/5) parseLogLine() entry, checking for nulls ..."); // <---
+    public long getEpochMillis(LogLine logLine) {
+        int index = logLine.getSchema() != null ? logLine.getSchema().indexOf(TIME_FIELD) : -1;
+        int[] bounds = logLine.getBounds();
+        if (index < 0 || bounds == null || 2 * index + 1 >= bounds.length || bounds[2 * index] < 0) {
+            throw new IllegalArgumentException("No " + TIME_FIELD + " in the log line");
+        }
+        return TimestampParser.parse(logLine.getLine(), bounds[2 * index], bounds[2 * index + 1]);
+    }
+
+    /**
+     * The time of a line from the log file, read without making a LogLine (or, when
+     * the pattern is the bracket one, a String) out of it.
+     *
+     * @param line A line from the log file
+     * @param config The pattern
+     * @return The time in milliseconds since the epoch (GMT), or NO_TIME if the line
+     * does not match the pattern or its time cannot be parsed
+     */
+    @Override
+    public long getEpochMillis(CharSequence line, LinePatternConfig config) {
+        try {
+            LogLine logLine = parseLogLine(line, config);
+            return logLine.isMatched() ? getEpochMillis(logLine) : LogLineHandler.NO_TIME;
+        } catch (IllegalArgumentException e) {
+            return LogLineHandler.NO_TIME;
+        }
+    }
+
+    /**
+     * Same as String.trim(), for any CharSequence.
+     */
+    private static CharSequence trim(CharSequence line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return start > 0 || end < line.length() ? line.subSequence(start, end) : line;
+    }
+
+    /**
+     * Compile the regex of a LinePattern and split its names.
+     *
+     * @param linePattern The pattern read from the configuration
+     * @return The compiled pattern
+     */
+    @Override
+    public LinePatternConfig buildConfig(LinePattern linePattern) {
+        String[] names = linePattern.getNames().split(";");
+        return LinePatternConfig.builder()
+                .pattern(Pattern.compile(linePattern.getRegexp()))
+                .names(names)
+                .schema(new LogLineSchema(names))
+                .bracketFields(BracketTokenizer.fieldCount(linePattern.getRegexp()))
+                .built(System.currentTimeMillis())
+                .build();
+    }
+
+    /**
+     * Parse a line. The result holds the trimmed line and the bounds of its fields;
+     * if the line does not match the pattern it has no bounds (and so no values).
+     *
+     * With the bracket pattern the line is tokenized as it is, so a line read from
+     * the log file stays a view of the file (see decode()); a regex is matched
+     * against the decoded line.
+     */
+    @Override
+    public LogLine parseLogLine(CharSequence line, LinePatternConfig config) {
         if (line == null || config == null) {
             return null;
         }
 
-        //log.info("parse.2/5) not null, getting names and creating hashMap ..."); // <---
-        String[] names = config.getNames();
-        Map<String, String> logLine = new HashMap<>();
-
-        //log.info("parse.3/5) creating matcher ..."); // <---
-        Matcher matcher = config.getPattern().matcher(line.trim());
-        //log.info("parse.4/5) matching ..."); // <---
-        if (matcher.matches()) {
-        	//log.info("parse.4.1) pattern matches, populating map<> ..."); // <---
-            for (int i = 1; i <= matcher.groupCount(); i++) {
-                logLine.put(names[i-1], matcher.group(i));
-                //log.info("parse.4.2) values : "+ names[i-1] + " - "+logLine.get(names[i-1])); // <---
+        CharSequence trimmed = config.getBracketFields() > 0 ? trim(line) : line.toString().trim();
+        int[] bounds;
+        if (config.getBracketFields() > 0) {
+            bounds = new int[2 * config.getBracketFields()];
+            if (!BracketTokenizer.tokenize(trimmed, config.getBracketFields(), bounds)) {
+                bounds = null;
             }
+        } else {
+            bounds = null;
+            Matcher matcher = config.getPattern().matcher(trimmed);
+            if (matcher.matches()) {
+                bounds = new int[2 * matcher.groupCount()];
+                for (int i = 1; i <= matcher.groupCount(); i++) {
+                    bounds[2 * (i - 1)] = matcher.start(i);
+                    bounds[2 * (i - 1) + 1] = matcher.end(i);
+                }
+            }
+        }
+
+        return LogLine.builder()
+                .schema(config.getSchema())
+                .line(trimmed)
+                .bounds(bounds)
+                .build();
+    }
+
+    /**
+     * Turn a line parsed straight from the log file into one that can be kept.
+     *
+     * If decoding the line gives one char per byte the fields are where they were;
+     * otherwise (multi-byte characters) the decoded line is parsed again.
+     *
+     * @param logLine A parsed line
+     * @param config The pattern it was parsed with
+     * @return The line, with its text a String
+     */
+    @Override
+    public LogLine decode(LogLine logLine, LinePatternConfig config) {
+        CharSequence line = logLine.getLine();
+        if (line instanceof String) {
+            return logLine;
         }
-        else {
-        	//log.info("parse.4.1) no match ..."); // <---
+        String decoded = line.toString();
+        if (!logLine.isMatched() || decoded.length() != line.length()) {
+            return parseLogLine(decoded, config);
         }
-        
-        //log.info("parse.5/5) done, returning <<"); // <---
-        return LogLine.builder().values(logLine).build();
+        return LogLine.builder()
+                .schema(logLine.getSchema())
+                .line(decoded)
+                .bounds(logLine.getBounds())
+                .build();
     }
 
     @Override
     public LogLineDto buildDto(LogLine logLine) {
-        return LogLineDto.builder().values(logLine.getValues()).build();
+        return buildDto(logLine, null);
     }
 
     /**
-     * Return the date/time information in GMT given that it has been recorded in the
-     * local time and we know what time zone that is.
-     *
-     * @param zoneString Time zone for the log data, using the strings recognized by the
-     *                   java DateTime class.
-     * @return A new LocalDateTime instance.
+     * @param logLine A parsed line
+     * @param fields The indexes of the fields to return, or null for all of them
      */
-    private LocalDateTime toGMT(String zoneString){
-        DateTime zonedDateTime =
-                DateTime.parse(zoneString, DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS Z"));
-        return zonedDateTime.toDateTime(DateTimeZone.UTC).toLocalDateTime();
+    @Override
+    public LogLineDto buildDto(LogLine logLine, int[] fields) {
+        return LogLineDto.builder()
+                .schema(logLine.getSchema())
+                .line(logLine.getLine())
+                .bounds(logLine.getBounds())
+                .fields(fields)
+                .build();
     }
 }
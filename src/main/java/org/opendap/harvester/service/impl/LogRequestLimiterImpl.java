@@ -0,0 +1,215 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.service.LogRequestLimiter;
+import org.opendap.harvester.service.ReporterBusyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for the requests that read the log file (/log and /stats).
+ *
+ * At most reporter.log.max.concurrent of them read the log at once. Up to
+ * reporter.log.max.queued more wait for their turn, in the order they came, for at
+ * most reporter.log.queue.timeout milliseconds; a request that finds the queue full is
+ * refused at once (429), and one whose turn does not come in time is refused then
+ * (503), both with a Retry-After of reporter.log.retry.after seconds. So a burst of
+ * requests cannot take all the container's threads and memory, and the other
+ * endpoints keep answering.
+ *
+ * The place is reserved on the request thread, which never waits, and the turn is
+ * waited for on the thread of the async pool (see AsyncConfiguration) that goes on
+ * to read the log; that thread releases the ticket when it is done. When the request
+ * completes, its ticket is cancelled as well (see TICKET_ATTRIBUTE), which gives the
+ * place back if no task took it up: the request timed out while its task was still
+ * queued, or the pool refused the task.
+ */
+@Service
+public class LogRequestLimiterImpl implements LogRequestLimiter {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    @Value("${reporter.log.max.concurrent:2}")
+    private int maxConcurrent;
+
+    @Value("${reporter.log.max.queued:4}")
+    private int maxQueued;
+
+    @Value("${reporter.log.queue.timeout:2000}")
+    private long queueTimeout;
+
+    @Value("${reporter.log.retry.after:5}")
+    private long retryAfter;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private Semaphore permits = null;
+
+    /**
+     * Take a place without waiting: a permit if one is free, otherwise a place in the
+     * queue.
+     *
+     * @return The ticket, which the caller must release when it has finished with the log
+     * @throws ReporterBusyException If too many requests are waiting already
+     */
+    @Override
+    public Ticket reserve() {
+        Semaphore semaphore = getPermits();
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw busy("interrupted waiting for a log request", false);
+        }
+        if (!acquired && waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            throw busy("too many log requests waiting", true);
+        }
+        if(logOutput) { log.info("reserve() | " + semaphore.availablePermits() + " permits left, " + waiting.get() + " waiting"); }
+        return new QueueTicket(semaphore, acquired, System.currentTimeMillis() + queueTimeout);
+    }
+
+    /**
+     * Take a permit on this thread, waiting for one if needed.
+     *
+     * @return A permit, which the caller must release when it has finished with the log
+     * @throws ReporterBusyException If too many requests are reading or waiting
+     */
+    @Override
+    public Permit acquire() {
+        Ticket ticket = reserve();
+        ticket.await();
+        return ticket;
+    }
+
+    private ReporterBusyException busy(String message, boolean queueFull) {
+        String error = "/!\\ LogRequestLimiterImpl.java - acquire() : " + message + " /!\\";
+        log.error(error);
+        return new ReporterBusyException(message, queueFull, retryAfter);
+    }
+
+    private synchronized Semaphore getPermits() {
+        if (permits == null) {
+            permits = new Semaphore(Math.max(1, maxConcurrent), true);
+        }
+        return permits;
+    }
+
+    /**
+     * A place that holds a permit, or is counted in 'waiting' until it gets one.
+     */
+    private final class QueueTicket implements Ticket {
+        private final Semaphore semaphore;
+        private final long deadline;
+        private boolean holding;
+        private boolean taken = false;
+        private boolean released = false;
+
+        private QueueTicket(Semaphore semaphore, boolean holding, long deadline) {
+            this.semaphore = semaphore;
+            this.holding = holding;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Wait for a permit until reporter.log.queue.timeout after the ticket was
+         * reserved. From now on only release() gives the place back.
+         *
+         * @throws ReporterBusyException If the turn does not come in time, or the
+         * ticket was cancelled or released
+         */
+        @Override
+        public void await() {
+            synchronized (this) {
+                if (released) {
+                    throw busy("log request cancelled", false);
+                }
+                taken = true;
+                if (holding) {
+                    return;
+                }
+            }
+            boolean acquired = false;
+            String error = "log request waited " + queueTimeout + " ms";
+            try {
+                acquired = semaphore.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = "interrupted waiting for a log request";
+            }
+            synchronized (this) {
+                if (acquired && !released) {
+                    holding = true;
+                    waiting.decrementAndGet();
+                    return;
+                }
+            }
+            if (acquired) {
+                semaphore.release();
+            }
+            release();
+            throw busy(error, false);
+        }
+
+        /**
+         * Give the place back, unless await() was called: the thread that called it
+         * releases the ticket itself when it is done with the log.
+         */
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (taken) {
+                    return;
+                }
+            }
+            release();
+        }
+
+        @Override
+        public void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (!holding) {
+                    waiting.decrementAndGet();
+                    return;
+                }
+            }
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.service.LogResponseCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Share the serialized result of a /log request with the identical requests made at
+ * the same time or shortly after.
+ *
+ * Requests are identified by a key made of their parameters and of the generation
+ * of the log file (see LogFileState), so a response is never reused once the log has
+ * been written to or rotated. While a response is being made, the identical
+ * requests that come in wait for it and then write the same bytes, instead of
+ * reading the log again. Responses of at most reporter.cache.max.response.bytes are
+ * then kept for reporter.cache.ttl milliseconds, in a cache of at most
+ * reporter.cache.max.bytes, the least recently used going first. Larger responses are
+ * not kept, and the requests that waited for one read the log themselves.
+ */
+@Service
+public class LogResponseCacheImpl implements LogResponseCache {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    // How long a response is kept (milliseconds); 0 keeps none, but identical
+    // requests made at the same time still share one response
+    @Value("${reporter.cache.ttl:10000}")
+    private long ttl;
+
+    @Value("${reporter.cache.max.bytes:16777216}")
+    private long maxBytes;
+
+    @Value("${reporter.cache.max.response.bytes:4194304}")
+    private int maxResponseBytes;
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private static final class Entry {
+        private final byte[] response;
+        private final long expires;
+
+        private Entry(byte[] response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A response being made; 'response' is null until it is done, and after if it was
+     * too large to share or could not be made.
+     */
+    private static final class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile byte[] response = null;
+    }
+
+    /**
+     * @param key The parameters of the request and the generation of the log file
+     * @return The response kept for the request, or null
+     */
+    @Override
+    public synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            bytes -= entry.response.length;
+            return null;
+        }
+        return entry.response;
+    }
+
+    /**
+     * @param key The parameters of the request and the generation of the log file
+     * @return Whether an identical request is making its response now
+     */
+    @Override
+    public boolean isWriting(String key) {
+        return flights.containsKey(key);
+    }
+
+    /**
+     * Write the response to a request: one that is kept, the one an identical request
+     * is making, or a new one made by 'writer'.
+     *
+     * @param key The parameters of the request and the generation of the log file
+     * @param outputStream Where to write the response
+     * @param writer Makes the response
+     */
+    @Override
+    public void write(String key, OutputStream outputStream, ResponseWriter writer) throws IOException {
+        byte[] kept = get(key);
+        if (kept != null) {
+            outputStream.write(kept);
+            outputStream.close();
+            return;
+        }
+
+        Flight flight = new Flight();
+        Flight running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            try {
+                running.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for an identical /log request");
+            }
+            byte[] shared = running.response;
+            if (shared != null) {
+                if(logOutput) { log.info("write() | sharing " + shared.length + " bytes"); }
+                outputStream.write(shared);
+                outputStream.close();
+            } else {
+                writer.writeTo(outputStream);
+            }
+            return;
+        }
+
+        Tee tee = new Tee(outputStream, maxResponseBytes);
+        try {
+            writer.writeTo(tee);
+            if (tee.copy != null) {
+                flight.response = tee.copy.toByteArray();
+                put(key, flight.response);
+            }
+        } finally {
+            flights.remove(key, flight);
+            flight.done.countDown();
+        }
+        if (tee.clientError != null) {
+            throw tee.clientError;
+        }
+    }
+
+    private synchronized void put(String key, byte[] response) {
+        if (ttl <= 0 || response.length > maxBytes) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Entry old = entries.put(key, new Entry(response, now + ttl));
+        bytes += response.length - (old != null ? old.response.length : 0);
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (bytes > maxBytes || entry.expires <= now) {
+                iterator.remove();
+                bytes -= entry.response.length;
+            }
+        }
+    }
+
+    /**
+     * Write to the client and keep a copy, until the copy would be larger than 'limit'.
+     * If the client goes away, go on making the copy for the requests that wait for
+     * it, as long as there is one.
+     */
+    private static final class Tee extends OutputStream {
+        private final OutputStream client;
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private IOException clientError = null;
+
+        private Tee(OutputStream client, int limit) {
+            this.client = client;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (clientError == null) {
+                try {
+                    client.write(b, off, len);
+                } catch (IOException e) {
+                    clientError = e;
+                }
+            }
+            if (copy != null && copy.size() + len > limit) {
+                copy = null;
+            }
+            if (copy != null) {
+                copy.write(b, off, len);
+            } else if (clientError != null) {
+                throw clientError;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (clientError == null) {
+                try {
+                    client.flush();
+                } catch (IOException e) {
+                    clientError = e;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (clientError == null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    clientError = e;
+                }
+            }
+        }
+    }
+}
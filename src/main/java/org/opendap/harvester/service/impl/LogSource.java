@@ -0,0 +1,284 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendap.harvester.entity.LogFileSummary;
+import org.opendap.harvester.service.LogLineHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The rotated siblings of the log file, e.g. AnonymousAccess.log.1,
+ * AnonymousAccess.log.2.gz or AnonymousAccess.log-20190702.gz, and a catalog of
+ * the range of times in each of them.
+ *
+ * Rotated files are no longer written, so the times in one are only read again
+ * when its size, last-modified time or file key change. The catalog is saved in a
+ * JSON file (next to the checkpoint) so it survives restarts. Gzipped files are
+ * decompressed as a stream, a buffer at a time.
+ */
+final class LogSource {
+    private static final Pattern ROTATED_SUFFIX = Pattern.compile("(\\.\\d+|-\\d{8,10})(\\.gz)?");
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File catalogFile;
+    private final Map<String, LogFileSummary> catalog = new HashMap<>();
+    private boolean changed = false;
+
+    /**
+     * @param catalogFile Where the catalog is saved, or null to keep it in memory
+     */
+    LogSource(File catalogFile) {
+        this.catalogFile = catalogFile;
+        if (catalogFile != null && catalogFile.exists()) {
+            try {
+                List<LogFileSummary> summaries = new ObjectMapper().readValue(catalogFile,
+                        new TypeReference<List<LogFileSummary>>() { });
+                for (LogFileSummary summary : summaries) {
+                    catalog.put(summary.getPath(), summary);
+                }
+            } catch (IOException e) {
+                // A catalog that can't be read is rebuilt from the files
+                catalog.clear();
+            }
+        }
+    }
+
+    File getCatalogFile() {
+        return catalogFile;
+    }
+
+    /**
+     * Find the rotated siblings of the log file.
+     *
+     * @param logFile The log file that is being written
+     * @return The rotated files, oldest first
+     * @throws IOException
+     */
+    static List<Path> findRotatedFiles(Path logFile) throws IOException {
+        Path dir = logFile.toAbsolutePath().getParent();
+        final String name = logFile.getFileName().toString();
+        final Map<Path, Long> lastModified = new HashMap<>();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(dir, new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path path) {
+                String sibling = path.getFileName().toString();
+                return sibling.startsWith(name)
+                        && ROTATED_SUFFIX.matcher(sibling.substring(name.length())).matches();
+            }
+        })) {
+            for (Path sibling : siblings) {
+                if (Files.isRegularFile(sibling)) {
+                    lastModified.put(sibling, Files.getLastModifiedTime(sibling).toMillis());
+                }
+            }
+        }
+        List<Path> rotated = new ArrayList<>(lastModified.keySet());
+        Collections.sort(rotated, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                int byTime = Long.compare(lastModified.get(a), lastModified.get(b));
+                // Files rotated in the same second: .2 is older than .1
+                return byTime != 0 ? byTime : b.getFileName().toString().compareTo(a.getFileName().toString());
+            }
+        });
+        return rotated;
+    }
+
+    /**
+     * Get the range of times in a rotated file, reading the file if the catalog does
+     * not have it yet or the file has changed.
+     *
+     * @param file A rotated file
+     * @param charset The charset of the file
+     * @param times Returns the time of each line
+     * @return The summary of the file
+     * @throws IOException
+     */
+    synchronized LogFileSummary getSummary(Path file, Charset charset, LogLineHandler times) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String path = file.toAbsolutePath().toString();
+        String fileKey = getFileKey(attributes);
+        LogFileSummary summary = catalog.get(path);
+        if (summary != null && summary.getSize() == attributes.size()
+                && summary.getLastModified() == attributes.lastModifiedTime().toMillis()
+                && fileKey.equals(summary.getFileKey())) {
+            return summary;
+        }
+
+        final long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        final LogLineHandler handler = times;
+        read(file, charset, new LogLineHandler() {
+            @Override
+            public long handle(CharSequence line) throws IOException {
+                long time = handler.handle(line);
+                if (time != NO_TIME) {
+                    range[0] = Math.min(range[0], time);
+                    range[1] = Math.max(range[1], time);
+                }
+                return time;
+            }
+        });
+        summary = LogFileSummary.builder()
+                .path(path)
+                .fileKey(fileKey)
+                .size(attributes.size())
+                .lastModified(attributes.lastModifiedTime().toMillis())
+                .minTime(range[0])
+                .maxTime(range[1])
+                .build();
+        catalog.put(path, summary);
+        changed = true;
+        return summary;
+    }
+
+    /**
+     * Pass each complete line of a rotated file to the handler.
+     *
+     * @param file A rotated file, gzipped or not
+     * @param charset The charset of the file
+     * @param handler Called with each line
+     * @throws IOException
+     */
+    static void read(Path file, Charset charset, LogLineHandler handler) throws IOException {
+        read(file, charset, 0, handler);
+    }
+
+    /**
+     * Pass the complete lines of a rotated file that start at or after an offset to
+     * the handler, until it is done.
+     *
+     * @param file A rotated file, gzipped or not
+     * @param charset The charset of the file
+     * @param offset Where to start; for a gzipped file, an offset in the uncompressed
+     *               bytes
+     * @param handler Called with each line
+     * @return The offset just past the last line passed to the handler
+     * @throws IOException
+     */
+    static long read(Path file, Charset charset, long offset, LogLineHandler handler) throws IOException {
+        String fileKey = getFileKey(Files.readAttributes(file, BasicFileAttributes.class));
+        if (!file.getFileName().toString().endsWith(GZIP_SUFFIX)) {
+            try (LogLineReader reader = new LogLineReader(file, offset, charset)) {
+                CharSequence line;
+                while ((line = reader.readLine()) != null) {
+                    handler.handle(line);
+                    handler.lineEnd(fileKey, reader.getOffset());
+                    if (handler.isDone()) {
+                        break;
+                    }
+                }
+                return reader.getOffset();
+            }
+        }
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    return skipped;
+                }
+                skipped += n;
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] line = new byte[1024];
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == '\n') {
+                        int end = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+                        handler.handle(new String(line, 0, end, charset));
+                        offset += length + 1;
+                        length = 0;
+                        handler.lineEnd(fileKey, offset);
+                        if (handler.isDone()) {
+                            return offset;
+                        }
+                        continue;
+                    }
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = buffer[i];
+                }
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Save the catalog if it has changed, dropping the files that are gone.
+     */
+    synchronized void save() throws IOException {
+        for (Iterator<String> paths = catalog.keySet().iterator(); paths.hasNext(); ) {
+            String path = paths.next();
+            if (!new File(path).exists()) {
+                paths.remove();
+                changed = true;
+            }
+        }
+        if (!changed || catalogFile == null) {
+            return;
+        }
+        Path target = catalogFile.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        new ObjectMapper().writeValue(tmp.toFile(), new ArrayList<>(catalog.values()));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    static String getFileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey != null ? fileKey.toString() : String.valueOf(attributes.creationTime().toMillis());
+    }
+}
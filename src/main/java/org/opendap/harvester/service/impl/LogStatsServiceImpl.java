@@ -0,0 +1,264 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.entity.LogLineSchema;
+import org.opendap.harvester.entity.LogStats;
+import org.opendap.harvester.entity.LogStatsQuery;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogExtractionService;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.opendap.harvester.service.LogLineService;
+import org.opendap.harvester.service.LogStatsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Count the log lines inside the reporter, so that a client that only wants totals
+ * gets the totals and not the lines.
+ */
+@Service
+public class LogStatsServiceImpl implements LogStatsService {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    // The key of the time interval of a group.
+    static final String TIME_KEY = "time";
+
+    @Autowired
+    private LogExtractionService logExtractionService;
+
+    @Autowired
+    private LogLineService logLineService;
+
+    @Autowired
+    private LinePatternService linePatternService;
+
+    // The most groups a /stats request may make; more is an error, as the result
+    // would be about as big as the lines themselves.
+    @Value("${reporter.stats.max.groups:10000}")
+    private int maxGroups;
+
+    /**
+     * @param query What to count
+     * @return The groups
+     * @throws IllegalArgumentException If the query uses a field the log lines do not
+     * have, or makes more than reporter.stats.max.groups groups
+     * @throws IOException If the log file cannot be read
+     */
+    @Override
+    public LogStats getStats(LogStatsQuery query) throws IOException {
+    	if(logOutput) { log.info("getStats() | >>> function start"); }
+        LogLineSchema schema = linePatternService.getLinePatternConfig().getSchema();
+        List<String> groupBy = query.getGroupBy() != null ? query.getGroupBy() : Collections.<String>emptyList();
+        List<String> metrics = query.getMetrics() != null ? query.getMetrics() : Collections.<String>emptyList();
+        for (String field : groupBy) {
+            checkField(schema, field);
+        }
+        for (String field : metrics) {
+            checkField(schema, field);
+        }
+        if (query.getFilter() != null) {
+            query.getFilter().check(schema);
+        }
+        if (query.getInterval() < 0) {
+            throw new IllegalArgumentException("The interval must not be negative");
+        }
+
+        Aggregator aggregator = new Aggregator(query, groupBy, metrics);
+        logExtractionService.extractLogData(query.getSince(), query.getUntil(), query.getFilter(), aggregator);
+
+        List<LogStats.Group> groups = new ArrayList<>(aggregator.groups.values());
+        Collections.sort(groups, new Comparator<LogStats.Group>() {
+            @Override
+            public int compare(LogStats.Group a, LogStats.Group b) {
+                for (Map.Entry<String, String> entry : a.getKey().entrySet()) {
+                    int c = compareValues(entry.getValue(), b.getKey().get(entry.getKey()));
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        });
+        if(logOutput) { log.info("getStats() | " + aggregator.lines + " lines in " + groups.size() + " groups, returning <<<"); }
+        return LogStats.builder()
+                .since(query.getSince() != null ? query.getSince().toString() : null)
+                .until(query.getUntil() != null ? query.getUntil().toString() : null)
+                .groupBy(groupBy)
+                .interval(query.getInterval())
+                .lines(aggregator.lines)
+                .groups(groups)
+                .build();
+    }
+
+    private static int compareValues(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static void checkField(LogLineSchema schema, String field) {
+        if (schema.indexOf(field) < 0) {
+            throw new IllegalArgumentException("No field '" + field + "' in the log lines");
+        }
+    }
+
+    /**
+     * Add each line to the group of its key. Only the fields that make up the key
+     * are cut out of the line, and the numbers are read in place.
+     */
+    private class Aggregator implements LogLineConsumer {
+        private final long untilMillis;
+        private final long intervalMillis;
+        private final String[] groupBy;
+        private final String[] metrics;
+        private final Map<List<String>, LogStats.Group> groups = new HashMap<>();
+        private long lines = 0;
+
+        private LogLineSchema schema = null;
+        private int[] groupIndexes;
+        private int[] metricIndexes;
+
+        private long lastInterval = Long.MIN_VALUE;
+        private String lastIntervalKey = null;
+
+        Aggregator(LogStatsQuery query, List<String> groupBy, List<String> metrics) {
+            this.untilMillis = query.getUntil() != null
+                    ? query.getUntil().toDateTime(DateTimeZone.UTC).getMillis() : Long.MAX_VALUE;
+            this.intervalMillis = query.getInterval() * 1000L;
+            this.groupBy = groupBy.toArray(new String[groupBy.size()]);
+            this.metrics = metrics.toArray(new String[metrics.size()]);
+        }
+
+        @Override
+        public void accept(LogLine logLine) {
+            if (logLine.getSchema() != schema) {
+                resolve(logLine.getSchema());
+            }
+
+            String intervalKey = null;
+            if (untilMillis != Long.MAX_VALUE || intervalMillis > 0) {
+                long time;
+                try {
+                    time = logLineService.getEpochMillis(logLine);
+                } catch (IllegalArgumentException e) {
+                    return;
+                }
+                if (time > untilMillis) {
+                    return;
+                }
+                if (intervalMillis > 0) {
+                    intervalKey = getIntervalKey(Math.floorDiv(time, intervalMillis) * intervalMillis);
+                }
+            }
+
+            int offset = intervalMillis > 0 ? 1 : 0;
+            String[] values = new String[offset + groupIndexes.length];
+            if (offset > 0) {
+                values[0] = intervalKey;
+            }
+            for (int i = 0; i < groupIndexes.length; i++) {
+                values[offset + i] = LogLineSchema.getValue(logLine.getLine(), logLine.getBounds(), groupIndexes[i]);
+            }
+            List<String> key = Arrays.asList(values);
+
+            LogStats.Group group = groups.get(key);
+            if (group == null) {
+                if (groups.size() >= maxGroups) {
+                    throw new IllegalArgumentException("More than " + maxGroups + " groups");
+                }
+                group = newGroup(values);
+                groups.put(key, group);
+            }
+            group.add();
+            for (int i = 0; i < metricIndexes.length; i++) {
+                long value = LogLineSchema.getNumber(logLine.getLine(), logLine.getBounds(), metricIndexes[i]);
+                if (value != LogLineSchema.NO_NUMBER) {
+                    group.getMetrics().get(metrics[i]).add(value);
+                }
+            }
+            lines++;
+        }
+
+        private LogStats.Group newGroup(String[] values) {
+            Map<String, String> key = new LinkedHashMap<>();
+            int offset = intervalMillis > 0 ? 1 : 0;
+            if (offset > 0) {
+                key.put(TIME_KEY, values[0]);
+            }
+            for (int i = 0; i < groupBy.length; i++) {
+                key.put(groupBy[i], values[offset + i]);
+            }
+            Map<String, LogStats.FieldStats> fieldStats = new LinkedHashMap<>();
+            for (String metric : metrics) {
+                fieldStats.put(metric, new LogStats.FieldStats());
+            }
+            return new LogStats.Group(key, fieldStats);
+        }
+
+        /**
+         * Find the fields in the schema of the lines; it changes if the pattern is
+         * reloaded.
+         */
+        private void resolve(LogLineSchema schema) {
+            this.schema = schema;
+            groupIndexes = new int[groupBy.length];
+            for (int i = 0; i < groupBy.length; i++) {
+                groupIndexes[i] = schema.indexOf(groupBy[i]);
+            }
+            metricIndexes = new int[metrics.length];
+            for (int i = 0; i < metrics.length; i++) {
+                metricIndexes[i] = schema.indexOf(metrics[i]);
+            }
+        }
+
+        private String getIntervalKey(long interval) {
+            if (interval != lastInterval) {
+                lastInterval = interval;
+                lastIntervalKey = new LocalDateTime(interval, DateTimeZone.UTC).toString();
+            }
+            return lastIntervalKey;
+        }
+    }
+}
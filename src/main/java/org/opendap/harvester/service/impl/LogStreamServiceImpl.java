@@ -0,0 +1,240 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogExtractionService;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.opendap.harvester.service.LogStreamService;
+import org.opendap.harvester.service.ReporterBusyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Send new log lines to subscribers (/log/stream) as they are written.
+ *
+ * One scheduled job reads the new lines of the log, from a cursor it keeps, every
+ * reporter.stream.interval milliseconds while there are subscribers, and offers each
+ * line to the queue of each subscriber whose filter keeps it. Each subscriber has a
+ * thread of its own that takes lines from its queue and writes them out, so a slow
+ * client only holds up itself. The queues hold at most reporter.stream.queue.size
+ * lines: a subscriber whose queue is full is dropped rather than left to hold the
+ * lines (or the job) up.
+ */
+@Service
+public class LogStreamServiceImpl implements LogStreamService {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    // The most lines read from the log in one go
+    private static final int READ_LIMIT = 10000;
+
+    @Autowired
+    private LogExtractionService logExtractionService;
+
+    @Autowired
+    private LinePatternService linePatternService;
+
+    @Value("${reporter.stream.queue.size:1000}")
+    private int queueSize;
+
+    @Value("${reporter.stream.max.subscribers:100}")
+    private int maxSubscribers;
+
+    @Value("${reporter.stream.heartbeat:15000}")
+    private long heartbeat;
+
+    @Value("${reporter.log.retry.after:5}")
+    private long retryAfter;
+
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private LogCursor cursor = null;
+
+    /**
+     * Start sending the lines written from now on that the filter keeps.
+     *
+     * @throws IllegalArgumentException If the filter names a field the lines do not have
+     * @throws ReporterBusyException If there are already reporter.stream.max.subscribers
+     */
+    @Override
+    public Subscription subscribe(LogFilter filter, Subscriber subscriber) throws IOException {
+        LinePatternConfig config = linePatternService.getLinePatternConfig();
+        if (filter != null) {
+            filter.check(config.getSchema());
+        }
+        Channel channel = new Channel(LogLineFilter.compile(filter, config.getSchema()), subscriber);
+        // The channel is added under the same lock as the cursor is set, so a
+        // publish() can not see no subscribers in between and drop the cursor
+        synchronized (this) {
+            if (channels.size() >= maxSubscribers) {
+                throw new ReporterBusyException("Too many log stream subscribers", true, retryAfter);
+            }
+            if (cursor == null) {
+                cursor = logExtractionService.getEndCursor();
+            }
+            channels.add(channel);
+        }
+        Thread writer = new Thread(channel, "reporter-log-stream-" + threadCount.incrementAndGet());
+        writer.setDaemon(true);
+        writer.start();
+        if(logOutput) { log.info("subscribe() | " + channels.size() + " subscribers"); }
+        return channel;
+    }
+
+    @Scheduled(fixedDelayString = "${reporter.stream.interval:1000}")
+    public void scheduledPublish() {
+        try {
+            publish();
+        } catch (IOException | RuntimeException e) {
+            String error = "/!\\ LogStreamServiceImpl.java - scheduledPublish() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+
+    /**
+     * Offer the lines written since the last call to the subscribers. With no
+     * subscribers nothing is read, and the next subscriber starts at the end of the
+     * log.
+     *
+     * @return The number of lines read
+     */
+    @Override
+    public synchronized int publish() throws IOException {
+        if (channels.isEmpty()) {
+            cursor = null;
+            return 0;
+        }
+        if (cursor == null) {
+            cursor = logExtractionService.getEndCursor();
+            return 0;
+        }
+        final int[] count = new int[1];
+        int read;
+        do {
+            final int before = count[0];
+            cursor = logExtractionService.extractLogData(null, cursor, READ_LIMIT, null, new LogLineConsumer() {
+                @Override
+                public void accept(LogLine logLine) {
+                    for (Channel channel : channels) {
+                        channel.offer(logLine);
+                    }
+                    count[0]++;
+                }
+            });
+            read = count[0] - before;
+        } while (read == READ_LIMIT);
+        if(logOutput) { log.info("publish() | " + count[0] + " lines to " + channels.size() + " subscribers"); }
+        return count[0];
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Channel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * The queue of one subscriber, and the loop its thread runs.
+     */
+    private final class Channel implements Runnable, Subscription {
+        private final LogLineFilter filter;
+        private final Subscriber subscriber;
+        private final BlockingQueue<LogLine> queue;
+        private volatile boolean closed = false;
+        private volatile boolean dropped = false;
+
+        private Channel(LogLineFilter filter, Subscriber subscriber) {
+            this.filter = filter;
+            this.subscriber = subscriber;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        }
+
+        private void offer(LogLine logLine) {
+            if (closed || (filter != null && !filter.matches(logLine))) {
+                return;
+            }
+            if (!queue.offer(logLine)) {
+                dropped = true;
+                close();
+                String error = "/!\\ LogStreamServiceImpl.java - offer() : subscriber more than " + queueSize
+                        + " lines behind, dropped /!\\";
+                log.error(error);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            channels.remove(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    LogLine logLine = queue.poll(heartbeat, TimeUnit.MILLISECONDS);
+                    if (closed) {
+                        break;
+                    }
+                    if (logLine != null) {
+                        subscriber.accept(logLine);
+                    } else {
+                        subscriber.heartbeat();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                // the client has gone
+                if(logOutput) { log.info("run() | subscriber ended : " + e.toString()); }
+            } finally {
+                close();
+                queue.clear();
+                subscriber.end(dropped);
+            }
+        }
+    }
+}
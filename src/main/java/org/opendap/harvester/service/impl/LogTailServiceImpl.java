@@ -0,0 +1,737 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.config.ConfigurationExtractor;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogCheckpoint;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogFileState;
+import org.opendap.harvester.entity.LogFileSummary;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogChunkConsumer;
+import org.opendap.harvester.service.LogLineHandler;
+import org.opendap.harvester.service.LogLineService;
+import org.opendap.harvester.service.LogTailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+import static org.springframework.util.StringUtils.isEmpty;
+
+/**
+ * Read the log file starting from the place given by a sparse time index of it.
+ *
+ * The index (see LogTimeIndex) is extended every time the log file is read past
+ * its current end, and is rebuilt in the background when the application starts.
+ * The end of the index is saved in the checkpoint file and the index entries in a
+ * sidecar file next to it ('.index' appended to the checkpoint file name), so both
+ * survive restarts.
+ *
+ * The index can only be used when the log file is the same file that was indexed
+ * (same path and file key) and has not been truncated. In every other case the
+ * index is dropped and the whole file is read again.
+ *
+ * The lines can also be read in parallel: the part of the file to read is split into
+ * chunks that start at line boundaries, each chunk is read by its own task and
+ * handler, and the index is extended from the chunks in file order afterwards.
+ *
+ * The rotated siblings of the log file (see LogSource) are read before it, oldest
+ * first. A 'since' request only reads the ones whose latest time is after 'since';
+ * the range of times in each is kept in a catalog next to the checkpoint ('.catalog'
+ * appended to the checkpoint file name).
+ */
+@Service
+public class LogTailServiceImpl implements LogTailService, ApplicationListener<ApplicationReadyEvent> {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    private static final String INDEX_SUFFIX = ".index";
+    private static final String CATALOG_SUFFIX = ".catalog";
+
+    @Value("${reporter.index.interval:65536}")
+    private long indexInterval;
+
+    @Value("${reporter.parse.chunk.size:1048576}")
+    private long chunkSize;
+
+    // How much earlier (milliseconds) a line may be than a line written before it;
+    // a read for the lines up to 'until' stops once it is this far past 'until'.
+    @Value("${reporter.index.disorder:600000}")
+    private long disorder;
+
+    @Autowired
+    private ConfigurationExtractor configurationExtractor;
+
+    @Autowired
+    private LogLineService logLineService;
+
+    @Autowired
+    private LinePatternService linePatternService;
+
+    private LogTimeIndex index = null;
+
+    private LogSource logSource = null;
+
+    /**
+     * Build (or bring up to date) the index in the background so the first 'since'
+     * request does not have to.
+     */
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        Thread indexer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    indexLogFile();
+                } catch (IOException | RuntimeException e) {
+                    String error = "/!\\ LogTailServiceImpl.java - indexLogFile() : "+ e.toString() +" /!\\";
+                    log.error(error);
+                }
+            }
+        }, "reporter-log-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Read the lines of the log file, and of the rotated files before it, that may
+     * be after 'since'.
+     *
+     * Every line before the chosen start offset has a time at or before 'since', so
+     * none of them could be returned. Some of the lines passed to the handler may
+     * still be at or before 'since'; it is up to the handler to filter them.
+     *
+     * @param since Only lines after this time are wanted; null means all lines
+     * @param handler Called with each line read
+     * @throws IOException
+     */
+    @Override
+    public void readLines(LocalDateTime since, LogLineHandler handler) throws IOException {
+        readLines(since, null, null, handler);
+    }
+
+    /**
+     * Read the lines of the log file, and of the rotated files before it, that may
+     * be after 'since' and at or before 'until'.
+     *
+     * The read stops at the first line that is more than reporter.index.disorder
+     * milliseconds past 'until', since the lines after it are taken to be after
+     * 'until' too. Some of the lines passed to the handler may still be after
+     * 'until'; it is up to the handler to filter them.
+     *
+     * @param since Only lines after this time are wanted; null means all lines
+     * @param until Only lines at or before this time are wanted; null means all lines
+     * @param handler Called with each line read
+     * @throws IOException
+     */
+    @Override
+    public void readLines(LocalDateTime since, LocalDateTime until, LogLineHandler handler) throws IOException {
+        readLines(since, until, null, handler);
+    }
+
+    /**
+     * Read the lines of the log file, and of the rotated files before it, that may be
+     * after 'since', starting at a cursor if there is one and stopping as soon as the
+     * handler is done.
+     *
+     * The cursor names its file by file key, so it is found even if the log has been
+     * rotated since. If the file is gone the read starts from the time of the last
+     * line read instead.
+     *
+     * @param since Only lines after this time are wanted; null means all lines
+     * @param from Where the previous read ended, or null
+     * @param handler Called with each line read
+     * @return Where this read ended
+     * @throws IOException
+     */
+    @Override
+    public LogCursor readLines(LocalDateTime since, LogCursor from, LogLineHandler handler) throws IOException {
+        return readLines(since, null, from, handler);
+    }
+
+    private LogCursor readLines(LocalDateTime since, LocalDateTime until, LogCursor from, LogLineHandler handler)
+            throws IOException {
+        Path logFile = Paths.get(configurationExtractor.getHyraxLogfilePath());
+        Charset charset = configurationExtractor.getHyraxLogfileCharset();
+        BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+        String fileKey = getFileKey(attributes);
+        long stopMillis = getStopMillis(until);
+        TimeTracker tracker = new TimeTracker(handler, from != null ? from.getLastTime() : LogLineHandler.NO_TIME,
+                stopMillis);
+
+        List<Path> rotated = LogSource.findRotatedFiles(logFile);
+        // The file the cursor is in: an index into 'rotated', rotated.size() for the
+        // log file itself, or 0 (with no offset) when there is no cursor to follow
+        int first = 0;
+        long firstOffset = 0;
+        boolean resume = false;
+        if (from != null) {
+            if (fileKey.equals(from.getFileKey()) && from.getOffset() <= attributes.size()) {
+                first = rotated.size();
+                resume = true;
+            }
+            for (int i = 0; i < rotated.size() && !resume; i++) {
+                if (LogSource.getFileKey(Files.readAttributes(rotated.get(i), BasicFileAttributes.class))
+                        .equals(from.getFileKey())) {
+                    first = i;
+                    resume = true;
+                }
+            }
+            if (resume) {
+                firstOffset = from.getOffset();
+            } else if (from.getLastTime() != LogLineHandler.NO_TIME) {
+                LocalDateTime last = new LocalDateTime(from.getLastTime(), DateTimeZone.UTC);
+                since = since == null || last.isAfter(since) ? last : since;
+                if(logOutput) { log.info("readLines() | cursor file is gone, reading since " + since); }
+            }
+        }
+
+        List<Path> overlapping = getRotatedFiles(rotated, since, stopMillis);
+        for (int i = first; i < rotated.size(); i++) {
+            Path file = rotated.get(i);
+            boolean resuming = resume && i == first;
+            if (!resuming && !overlapping.contains(file)) {
+                continue;
+            }
+            if(logOutput) { log.info("readLines() | reading rotated file " + file); }
+            long end = LogSource.read(file, charset, resuming ? firstOffset : 0, tracker);
+            if (tracker.isDone()) {
+                String key = LogSource.getFileKey(Files.readAttributes(file, BasicFileAttributes.class));
+                return new LogCursor(key, end, tracker.lastTime);
+            }
+        }
+
+        LogTimeIndex.Position start = new LogTimeIndex.Position(0, LogLineHandler.NO_TIME);
+        if (resume && first == rotated.size()) {
+            start = new LogTimeIndex.Position(firstOffset, LogLineHandler.NO_TIME);
+        } else if (since != null) {
+            synchronized (this) {
+                start = getIndex(logFile, attributes).find(toMillis(since));
+            }
+        }
+        if(logOutput) { log.info("readLines() | starting at offset " + start.offset); }
+        long end = scan(logFile, attributes, start, tracker);
+        return new LogCursor(fileKey, end, tracker.lastTime);
+    }
+
+    /**
+     * @return The time past which a read for the lines up to 'until' stops, or
+     * Long.MAX_VALUE if there is no 'until'
+     */
+    private long getStopMillis(LocalDateTime until) {
+        if (until == null) {
+            return Long.MAX_VALUE;
+        }
+        long untilMillis = toMillis(until);
+        return untilMillis > Long.MAX_VALUE - disorder ? Long.MAX_VALUE : untilMillis + disorder;
+    }
+
+    /**
+     * Pass lines on to a handler, keeping the latest time seen, and stop once that
+     * time is past 'stopMillis'.
+     */
+    private static class TimeTracker implements LogLineHandler {
+        private final LogLineHandler handler;
+        private final long stopMillis;
+        private long lastTime;
+
+        TimeTracker(LogLineHandler handler, long lastTime, long stopMillis) {
+            this.handler = handler;
+            this.lastTime = lastTime;
+            this.stopMillis = stopMillis;
+        }
+
+        @Override
+        public long handle(CharSequence line) throws IOException {
+            long time = handler.handle(line);
+            lastTime = Math.max(lastTime, time);
+            return time;
+        }
+
+        @Override
+        public void lineEnd(String fileKey, long offset) {
+            handler.lineEnd(fileKey, offset);
+        }
+
+        @Override
+        public boolean isDone() {
+            return handler.isDone() || (lastTime != LogLineHandler.NO_TIME && lastTime > stopMillis);
+        }
+    }
+
+    /**
+     * @return The rotated files that may have lines after 'since' and before
+     * 'stopMillis', oldest first
+     */
+    private List<Path> getRotatedFiles(Path logFile, LocalDateTime since, long stopMillis) throws IOException {
+        return getRotatedFiles(LogSource.findRotatedFiles(logFile), since, stopMillis);
+    }
+
+    private List<Path> getRotatedFiles(List<Path> rotated, LocalDateTime since, long stopMillis) throws IOException {
+        if ((since == null && stopMillis == Long.MAX_VALUE) || rotated.isEmpty()) {
+            return rotated;
+        }
+        LogSource source = getLogSource();
+        Charset charset = configurationExtractor.getHyraxLogfileCharset();
+        LogLineHandler times = timeHandler(linePatternService.getLinePatternConfig());
+        long sinceMillis = since != null ? toMillis(since) : LogLineHandler.NO_TIME;
+        List<Path> overlapping = new ArrayList<>();
+        for (Path file : rotated) {
+            LogFileSummary summary = source.getSummary(file, charset, times);
+            if ((since == null || summary.getMaxTime() > sinceMillis) && summary.getMinTime() <= stopMillis) {
+                overlapping.add(file);
+            }
+        }
+        saveCatalog(source);
+        return overlapping;
+    }
+
+    /**
+     * Get the catalog of rotated files, loading it the first time and again when the
+     * checkpoint file (that it is saved next to) changes.
+     */
+    private synchronized LogSource getLogSource() {
+        String checkpointPath = configurationExtractor.getCheckpointPath();
+        File catalogFile = isEmpty(checkpointPath) ? null : new File(checkpointPath + CATALOG_SUFFIX);
+        if (logSource == null || (catalogFile == null ? logSource.getCatalogFile() != null
+                : !catalogFile.equals(logSource.getCatalogFile()))) {
+            logSource = new LogSource(catalogFile);
+        }
+        return logSource;
+    }
+
+    private void saveCatalog(LogSource source) {
+        try {
+            source.save();
+        } catch (IOException e) {
+            String error = "/!\\ LogTailServiceImpl.java - saveCatalog() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+
+    /**
+     * @return A handler that returns the time of each line and does nothing else
+     */
+    private LogLineHandler timeHandler(final LinePatternConfig config) {
+        return new LogLineHandler() {
+            @Override
+            public long handle(CharSequence line) {
+                return logLineService.getEpochMillis(line, config);
+            }
+        };
+    }
+
+    /**
+     * Read the lines of the log file that may be after 'since' using the threads of
+     * the pool. The part of the file to read is split into chunks of at least
+     * 'reporter.parse.chunk.size' bytes, each of which starts at the beginning of a
+     * line and is read by a handler of its own.
+     *
+     * Only a few chunks per thread are read ahead of the one 'chunks' is waiting
+     * for, so the results held in memory are bounded by the pool size, not by the
+     * size of the file.
+     *
+     * @param since Only lines after this time are wanted; null means all lines
+     * @param pool Reads the chunks
+     * @param handlers Makes the handler of each chunk
+     * @param chunks Called with the handler of each chunk, in file order
+     * @throws IOException
+     */
+    @Override
+    public <H extends LogLineHandler> void readLines(LocalDateTime since, ForkJoinPool pool,
+            Supplier<H> handlers, LogChunkConsumer<H> chunks) throws IOException {
+        readLines(since, null, pool, handlers, chunks);
+    }
+
+    /**
+     * Read the lines of the log file that may be after 'since' and at or before
+     * 'until' using the threads of the pool.
+     *
+     * Only the part of the file up to the first index entry whose time is more than
+     * reporter.index.disorder milliseconds past 'until' is split into chunks, and
+     * each chunk stops at the first line that far past 'until'.
+     *
+     * @param since Only lines after this time are wanted; null means all lines
+     * @param until Only lines at or before this time are wanted; null means all lines
+     * @param pool Reads the chunks
+     * @param handlers Makes the handler of each chunk
+     * @param chunks Called with the handler of each chunk, in file order
+     * @throws IOException
+     */
+    @Override
+    public <H extends LogLineHandler> void readLines(LocalDateTime since, LocalDateTime until, ForkJoinPool pool,
+            final Supplier<H> handlers, LogChunkConsumer<H> chunks) throws IOException {
+        final Path logFile = Paths.get(configurationExtractor.getHyraxLogfilePath());
+        final Charset charset = configurationExtractor.getHyraxLogfileCharset();
+        final long stopMillis = getStopMillis(until);
+        List<Callable<Chunk<H>>> jobs = new ArrayList<>();
+        // Each rotated file is one chunk (a gzipped one can't be split)
+        for (final Path rotated : getRotatedFiles(logFile, since, stopMillis)) {
+            jobs.add(new Callable<Chunk<H>>() {
+                @Override
+                public Chunk<H> call() throws IOException {
+                    H handler = handlers.get();
+                    LogSource.read(rotated, charset, new TimeTracker(handler, LogLineHandler.NO_TIME, stopMillis));
+                    return new Chunk<>(handler, null, true);
+                }
+            });
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+        final String fileKey = getFileKey(attributes);
+        LogTimeIndex.Position start = new LogTimeIndex.Position(0, LogLineHandler.NO_TIME);
+        long end = Long.MAX_VALUE;
+        synchronized (this) {
+            LogTimeIndex current = getIndex(logFile, attributes);
+            if (since != null) {
+                start = current.find(toMillis(since));
+            }
+            if (stopMillis != Long.MAX_VALUE) {
+                end = current.findEnd(stopMillis);
+            }
+        }
+        List<Long> bounds = split(logFile, start.offset, Math.min(end, attributes.size()), pool.getParallelism());
+        if(logOutput) { log.info("readLines() | starting at offset " + start.offset + " in " + bounds.size() + " chunks"); }
+        for (int i = 0; i < bounds.size(); i++) {
+            final long from = bounds.get(i);
+            final long to = i + 1 < bounds.size() ? bounds.get(i + 1) : end;
+            jobs.add(new Callable<Chunk<H>>() {
+                @Override
+                public Chunk<H> call() throws IOException {
+                    H handler = handlers.get();
+                    TimeTracker tracker = new TimeTracker(handler, LogLineHandler.NO_TIME, stopMillis);
+                    LogTimeIndex.Position chunkStart = new LogTimeIndex.Position(from, LogLineHandler.NO_TIME);
+                    LogTimeIndex.Scan scan = read(logFile, fileKey, chunkStart, to, tracker);
+                    return new Chunk<>(handler, scan, !tracker.isDone());
+                }
+            });
+        }
+
+        int window = 2 * pool.getParallelism();
+        Deque<ForkJoinTask<Chunk<H>>> tasks = new ArrayDeque<>();
+        LogTimeIndex.Scan scan = new LogTimeIndex.Scan(start, indexInterval);
+        // The index is only extended by chunks read to their end, and only up to the
+        // first chunk that stopped early, so that it covers every line it spans
+        boolean complete = true;
+        try {
+            int next = 0;
+            while (next < jobs.size() || !tasks.isEmpty()) {
+                while (next < jobs.size() && tasks.size() < window) {
+                    tasks.add(pool.submit(jobs.get(next)));
+                    next++;
+                }
+                Chunk<H> chunk = join(tasks.remove());
+                chunks.accept(chunk.handler);
+                if (chunk.scan != null && complete) {
+                    scan.append(chunk.scan);
+                    complete = chunk.complete;
+                }
+            }
+        } finally {
+            for (ForkJoinTask<Chunk<H>> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        extendIndex(logFile, attributes, scan);
+    }
+
+    /**
+     * The handler of a chunk, what was read for the index (null for a rotated file),
+     * and whether the chunk was read to its end.
+     */
+    private static class Chunk<H> {
+        private final H handler;
+        private final LogTimeIndex.Scan scan;
+        private final boolean complete;
+
+        Chunk(H handler, LogTimeIndex.Scan scan, boolean complete) {
+            this.handler = handler;
+            this.scan = scan;
+            this.complete = complete;
+        }
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Split the bytes from 'start' to 'end' into chunks that each start at the
+     * beginning of a line.
+     *
+     * @return The start offset of each chunk
+     */
+    private List<Long> split(Path logFile, long start, long end, int parallelism) throws IOException {
+        // A few chunks per thread so that one slow chunk doesn't hold up the rest
+        long size = Math.max(chunkSize, (end - start) / (4L * parallelism));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            long position = start + size;
+            while (position < end) {
+                long lineStart = nextLine(channel, buffer, position);
+                if (lineStart < 0 || lineStart >= end) {
+                    break;
+                }
+                bounds.add(lineStart);
+                position = lineStart + size;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return The offset just past the first newline at or after 'position - 1', or
+     * -1 if there is none.
+     */
+    private static long nextLine(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position - 1;
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, offset);
+            if (n <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * Read the part of the log file past the end of the index, adding it to the index,
+     * and bring the catalog of rotated files up to date.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void indexLogFile() throws IOException {
+        Path logFile = Paths.get(configurationExtractor.getHyraxLogfilePath());
+        BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+        LogTimeIndex.Position start;
+        synchronized (this) {
+            LogTimeIndex current = getIndex(logFile, attributes);
+            start = new LogTimeIndex.Position(current.getEndOffset(), current.getEndTime());
+        }
+
+        LinePatternConfig config = linePatternService.getLinePatternConfig();
+        scan(logFile, attributes, start, timeHandler(config));
+
+        LogSource source = getLogSource();
+        Charset charset = configurationExtractor.getHyraxLogfileCharset();
+        for (Path rotated : LogSource.findRotatedFiles(logFile)) {
+            source.getSummary(rotated, charset, timeHandler(config));
+        }
+        saveCatalog(source);
+        if(logOutput) { log.info("indexLogFile() | index entries : " + index.size()); }
+    }
+
+    /**
+     * @return The offset just past the last line read
+     */
+    private long scan(Path logFile, BasicFileAttributes attributes, LogTimeIndex.Position start, LogLineHandler handler)
+            throws IOException {
+        LogTimeIndex.Scan scan = read(logFile, getFileKey(attributes), start, Long.MAX_VALUE, handler);
+        extendIndex(logFile, attributes, scan);
+        return scan.getEndOffset();
+    }
+
+    /**
+     * Pass the lines that start from 'start' up to 'limit' to the handler.
+     *
+     * @return What was read, for the index
+     */
+    private LogTimeIndex.Scan read(Path logFile, String fileKey, LogTimeIndex.Position start, long limit,
+            LogLineHandler handler) throws IOException {
+        LogTimeIndex.Scan scan = new LogTimeIndex.Scan(start, indexInterval);
+        Charset charset = configurationExtractor.getHyraxLogfileCharset();
+        try (LogLineReader reader = new LogLineReader(logFile, start.offset, limit, charset, false)) {
+            CharSequence line;
+            while ((line = reader.readLine()) != null) {
+                scan.addLine(reader.getOffset(), handler.handle(line));
+                handler.lineEnd(fileKey, reader.getOffset());
+                if (handler.isDone()) {
+                    break;
+                }
+            }
+        }
+        return scan;
+    }
+
+    private void extendIndex(Path logFile, BasicFileAttributes attributes, LogTimeIndex.Scan scan)
+            throws IOException {
+        synchronized (this) {
+            LogTimeIndex current = getIndex(logFile, attributes);
+            long endOffset = current.getEndOffset();
+            current.extend(scan, indexInterval);
+            if (current.getEndOffset() > endOffset) {
+                save(current, attributes);
+            }
+        }
+    }
+
+    /**
+     * Get the index of the log file, loading it from the checkpoint and sidecar files
+     * the first time, and starting a new (empty) index when the log file has changed.
+     */
+    private LogTimeIndex getIndex(Path logFile, BasicFileAttributes attributes) {
+        if (index == null) {
+            index = load();
+        }
+        if (index == null || !isSameFile(index, logFile, attributes)) {
+            if(logOutput) { log.info("getIndex() | starting a new index for " + logFile); }
+            index = new LogTimeIndex(logFile.toString(), getFileKey(attributes));
+        }
+        return index;
+    }
+
+    private boolean isSameFile(LogTimeIndex index, Path logFile, BasicFileAttributes attributes) {
+        return logFile.toString().equals(index.getLogfilePath())
+                && getFileKey(attributes).equals(index.getFileKey())
+                && attributes.size() >= index.getEndOffset();
+    }
+
+    /**
+     * @return The state of the log file, read with one stat and without opening it, or
+     * null if there is no log file
+     */
+    @Override
+    public LogFileState getLogFileState() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(configurationExtractor.getHyraxLogfilePath()),
+                    BasicFileAttributes.class);
+            return new LogFileState(getFileKey(attributes), attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private String getFileKey(BasicFileAttributes attributes) {
+        return LogSource.getFileKey(attributes);
+    }
+
+    private long toMillis(LocalDateTime time) {
+        return time.toDateTime(DateTimeZone.UTC).getMillis();
+    }
+
+    private LogTimeIndex load() {
+        String checkpointPath = configurationExtractor.getCheckpointPath();
+        File file = isEmpty(checkpointPath) ? null : new File(checkpointPath);
+        if (file == null || !file.exists() || !file.canRead()) {
+            return null;
+        }
+        try {
+            LogCheckpoint checkpoint = new ObjectMapper().readValue(file, LogCheckpoint.class);
+            LogTimeIndex loaded = new LogTimeIndex(checkpoint.getLogfilePath(), checkpoint.getFileKey());
+            loaded.setEnd(checkpoint.getOffset(), checkpoint.getLastTime());
+            loaded.load(new File(checkpointPath + INDEX_SUFFIX));
+            return loaded;
+        } catch (IOException e) {
+            String error = "/!\\ LogTailServiceImpl.java - load() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+        return null;
+    }
+
+    /**
+     * Save the index entries and then the checkpoint. The checkpoint is written to a
+     * temporary file and moved into place so a crash never leaves a half-written
+     * checkpoint behind.
+     */
+    private void save(LogTimeIndex index, BasicFileAttributes attributes) {
+        String checkpointPath = configurationExtractor.getCheckpointPath();
+        if (isEmpty(checkpointPath)) {
+            return;
+        }
+        LogCheckpoint checkpoint = LogCheckpoint.builder()
+                .logfilePath(index.getLogfilePath())
+                .fileKey(index.getFileKey())
+                .offset(index.getEndOffset())
+                .size(Math.max(index.getEndOffset(), attributes.size()))
+                .lastTime(index.getEndTime())
+                .build();
+        try {
+            index.save(new File(checkpointPath + INDEX_SUFFIX));
+            Path target = Paths.get(checkpointPath).toAbsolutePath();
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            new ObjectMapper().writeValue(tmp.toFile(), checkpoint);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            String error = "/!\\ LogTailServiceImpl.java - save() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+}
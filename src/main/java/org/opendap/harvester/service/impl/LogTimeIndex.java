@@ -0,0 +1,323 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.service.LogLineHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A sparse index of the log file that maps byte offsets to the latest time found
+ * in the lines before that offset.
+ *
+ * An entry is added every 'interval' bytes as the file is read. Because each entry
+ * holds the latest time seen so far and not the time of the line at the offset, the
+ * times never decrease, even if the lines in the log are not in time order, and any
+ * 'since' lookup can binary-search them: reading can start at the last entry whose
+ * time is at or before 'since' without missing any line after it.
+ *
+ * The end of the index is the offset just past the last complete line read and the
+ * latest time in the whole of the file before it (the values saved in the checkpoint).
+ *
+ * This class is not thread-safe; LogTailServiceImpl synchronizes access to it.
+ */
+class LogTimeIndex {
+    private final String logfilePath;
+    private final String fileKey;
+    private long[] offsets = new long[64];
+    private long[] times = new long[64];
+    private int size = 0;
+    private int saved = 0;
+    private long endOffset = 0;
+    private long endTime = LogLineHandler.NO_TIME;
+
+    LogTimeIndex(String logfilePath, String fileKey) {
+        this.logfilePath = logfilePath;
+        this.fileKey = fileKey;
+        add(0, LogLineHandler.NO_TIME);
+    }
+
+    String getLogfilePath() {
+        return logfilePath;
+    }
+
+    String getFileKey() {
+        return fileKey;
+    }
+
+    long getEndOffset() {
+        return endOffset;
+    }
+
+    long getEndTime() {
+        return endTime;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find where to start reading for lines after the given time.
+     *
+     * @param since Time in milliseconds since the epoch (GMT)
+     * @return The offset to start reading at and the latest time before it
+     */
+    Position find(long since) {
+        if (endTime <= since) {
+            return new Position(endOffset, endTime);
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (times[mid] <= since) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return new Position(offsets[low], times[low]);
+    }
+
+    /**
+     * Find where to stop reading for lines up to the given time: every line past the
+     * returned offset comes after a line that is later than 'time'.
+     *
+     * @param time Time in milliseconds since the epoch (GMT)
+     * @return The offset of the first entry whose time is after 'time', or
+     * Long.MAX_VALUE if the indexed part of the file has no line after it
+     */
+    long findEnd(long time) {
+        if (endTime <= time) {
+            return Long.MAX_VALUE;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < size ? offsets[low] : endOffset;
+    }
+
+    /**
+     * Add the entries found while reading part of the log file.
+     *
+     * Entries that fall inside the part of the file that is already indexed, or
+     * closer than 'interval' bytes to the last entry, are dropped. A read that started
+     * past the end of the index (from a cursor, say) is not used at all, since the
+     * times of the lines it skipped are not known.
+     *
+     * @param scan The entries found by the read and where it ended.
+     * @param interval Minimum number of bytes between entries
+     */
+    void extend(Scan scan, long interval) {
+        if (scan.startOffset > endOffset) {
+            return;
+        }
+        for (int i = 0; i < scan.size; i++) {
+            if (scan.offsets[i] >= offsets[size - 1] + interval && scan.offsets[i] <= scan.endOffset) {
+                // Every line before endOffset is at or before endTime, including the
+                // ones before the start of the scan
+                add(scan.offsets[i], Math.max(endTime, scan.times[i]));
+            }
+        }
+        if (scan.endOffset > endOffset) {
+            endOffset = scan.endOffset;
+            endTime = Math.max(endTime, scan.maxTime);
+        }
+    }
+
+    private void add(long offset, long time) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+        }
+        offsets[size] = offset;
+        times[size] = time;
+        size++;
+    }
+
+    void setEnd(long endOffset, long endTime) {
+        this.endOffset = endOffset;
+        this.endTime = endTime;
+    }
+
+    /**
+     * Append the entries added since the last save to the sidecar file. The file is
+     * rewritten when it does not exist yet or holds the index of another log file.
+     *
+     * @param file The sidecar file
+     * @throws IOException
+     */
+    void save(File file) throws IOException {
+        boolean append = saved > 0 && file.exists();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)))) {
+            if (!append) {
+                out.writeUTF(fileKey);
+                saved = 0;
+            }
+            for (int i = saved; i < size; i++) {
+                out.writeLong(offsets[i]);
+                out.writeLong(times[i]);
+            }
+        }
+        saved = size;
+    }
+
+    /**
+     * Read the entries saved in the sidecar file, if it holds the index of this log
+     * file. A partial entry at the end of the file (from a crash in the middle of a
+     * save) is ignored, as are entries past the end offset.
+     *
+     * @param file The sidecar file
+     * @throws IOException
+     */
+    void load(File file) throws IOException {
+        if (!file.exists() || !file.canRead()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!fileKey.equals(in.readUTF())) {
+                return;
+            }
+            size = 0;
+            while (true) {
+                long offset = in.readLong();
+                long time = in.readLong();
+                if (offset > endOffset || (size > 0 && offset <= offsets[size - 1])) {
+                    break;
+                }
+                add(offset, time);
+            }
+        } catch (EOFException e) {
+            // the end of the entries
+        }
+        if (size == 0) {
+            add(0, LogLineHandler.NO_TIME);
+        }
+        saved = size;
+    }
+
+    /**
+     * A place to start reading the log file.
+     */
+    static final class Position {
+        final long offset;
+        final long maxTime;
+
+        Position(long offset, long maxTime) {
+            this.offset = offset;
+            this.maxTime = maxTime;
+        }
+    }
+
+    /**
+     * The entries found while reading the log file from a Position.
+     */
+    static final class Scan {
+        private final long interval;
+        private long[] offsets = new long[16];
+        private long[] times = new long[16];
+        private int size = 0;
+        private final long startOffset;
+        private long nextOffset;
+        private long endOffset;
+        private long maxTime;
+
+        Scan(Position start, long interval) {
+            this.interval = interval;
+            this.startOffset = start.offset;
+            this.nextOffset = start.offset + interval;
+            this.endOffset = start.offset;
+            this.maxTime = start.maxTime;
+        }
+
+        /**
+         * Record a line that was read.
+         *
+         * @param endOffset The offset just past the line
+         * @param time The time of the line or NO_TIME
+         */
+        void addLine(long endOffset, long time) {
+            if (time > maxTime) {
+                maxTime = time;
+            }
+            this.endOffset = endOffset;
+            if (endOffset >= nextOffset) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    times = Arrays.copyOf(times, size * 2);
+                }
+                offsets[size] = endOffset;
+                times[size] = maxTime;
+                size++;
+                nextOffset = endOffset + interval;
+            }
+        }
+
+        /**
+         * @return The offset just past the last line read
+         */
+        long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * Add a scan of the part of the file that comes right after this one. The
+         * other scan started without knowing the times before it, so its entries
+         * are brought up to the running maximum of this one.
+         */
+        void append(Scan next) {
+            for (int i = 0; i < next.size; i++) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    times = Arrays.copyOf(times, size * 2);
+                }
+                offsets[size] = next.offsets[i];
+                times[size] = Math.max(maxTime, next.times[i]);
+                size++;
+            }
+            endOffset = Math.max(endOffset, next.endOffset);
+            maxTime = Math.max(maxTime, next.maxTime);
+            nextOffset = endOffset + interval;
+        }
+    }
+}
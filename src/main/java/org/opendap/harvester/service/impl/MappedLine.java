@@ -0,0 +1,96 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A line of the log file seen in place, in the mapped bytes of the file, as one char
+ * per byte.
+ *
+ * This is only used for charsets in which the bytes of an ASCII character never
+ * occur inside the encoding of another character (UTF-8, ISO-8859-1, US-ASCII), so
+ * the brackets, spaces and digits of a log line are at the same positions, and have
+ * the same values, as in the decoded line. Other characters show up as one or more
+ * chars from 0x80 to 0xff; toString() decodes the line properly.
+ *
+ * The view is only valid until the next line is read.
+ */
+final class MappedLine implements CharSequence {
+    private final ByteBuffer bytes;
+    private final int start;
+    private final int length;
+    private final Charset charset;
+
+    MappedLine(ByteBuffer bytes, int start, int length, Charset charset) {
+        this.bytes = bytes;
+        this.start = start;
+        this.length = length;
+        this.charset = charset;
+    }
+
+    /**
+     * @return The charset of the bytes; for UTF-8, a char over 0x7f is one byte of a
+     *         multi-byte character, not a character of its own
+     */
+    Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return (char) (bytes.get(start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException(from + ", " + to);
+        }
+        return new MappedLine(bytes, start + from, to - from, charset);
+    }
+
+    /**
+     * @return The line, decoded with the charset of the log file
+     */
+    @Override
+    public String toString() {
+        byte[] copy = new byte[length];
+        for (int i = 0; i < length; i++) {
+            copy[i] = bytes.get(start + i);
+        }
+        return new String(copy, charset);
+    }
+}
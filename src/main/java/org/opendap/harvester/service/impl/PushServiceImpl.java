@@ -0,0 +1,422 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.config.ConfigurationExtractor;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LogExtractionService;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.opendap.harvester.service.LogLineService;
+import org.opendap.harvester.service.PushService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Push new log lines to the collector instead of waiting for it to poll /log.
+ *
+ * Lines are sent in batches, as NDJSON (the same {"values":{...}} lines /log
+ * returns), to collector.push.url. A batch is sent when it has reporter.push.batch.lines
+ * lines or reporter.push.batch.bytes bytes, or when lines have been waiting for
+ * reporter.push.batch.age milliseconds. The batch size adapts to the collector: it
+ * grows a little after each batch the collector takes within
+ * reporter.push.latency.target milliseconds, and is halved when the collector is
+ * slower than that or fails. After a failure nothing is sent until a back-off (which
+ * doubles with each failure in a row, or is what a Retry-After header asks for) has
+ * passed.
+ *
+ * A batch is sized (in lines, and cut short to keep under the byte limit) when it is
+ * read, and sent as one request whose X-Log-Cursor header is where that batch ends.
+ * A batch is only passed over once the collector has taken it, so lines are sent at
+ * least once, and the header lets the collector drop a batch it has already seen. Where the last batch ended is saved next to the
+ * checkpoint (reporter.checkpoint.path), so a restart carries on from there.
+ *
+ * Unless reporter.spool.max.bytes is 0, batches are not sent straight from the log:
+ * each is first appended, gzipped, to a spool on disk next to the checkpoint (see
+ * PushSpool), and the spool is sent in order, one request per record. New lines keep going into the spool
+ * while the collector is backed off, so an outage longer than the log is kept for
+ * loses nothing (up to the size of the spool), and the lines are not parsed again
+ * when it ends.
+ */
+@Service
+public class PushServiceImpl implements PushService {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    private static final String CURSOR_SUFFIX = ".push";
+    private static final String SPOOL_SUFFIX = ".spool";
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    static final String CURSOR_HEADER = "X-Log-Cursor";
+    static final String REPORTER_HEADER = "X-Reporter-Url";
+
+    @Autowired
+    private LogExtractionService logExtractionService;
+
+    @Autowired
+    private LogLineService logLineService;
+
+    @Autowired
+    private ConfigurationExtractor configurationExtractor;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    // Where to push the log lines; empty turns push mode off.
+    @Value("${collector.push.url:}")
+    private String pushUrl;
+
+    @Value("${reporter.push.batch.lines:1000}")
+    private int maxBatchLines;
+
+    @Value("${reporter.push.batch.bytes:1048576}")
+    private int maxBatchBytes;
+
+    @Value("${reporter.push.batch.age:10000}")
+    private long maxBatchAge;
+
+    @Value("${reporter.push.latency.target:1000}")
+    private long latencyTarget;
+
+    @Value("${reporter.push.backoff.initial:1000}")
+    private long initialBackoff;
+
+    @Value("${reporter.push.backoff.max:300000}")
+    private long maxBackoff;
+
+    // The most the spool may hold (older batches are dropped); 0 sends straight from the log.
+    @Value("${reporter.spool.max.bytes:268435456}")
+    private long spoolMaxBytes;
+
+    @Value("${reporter.spool.segment.bytes:16777216}")
+    private long spoolSegmentBytes;
+
+    private PushSpool spool = null;
+    private LogCursor cursor = null;
+    private int batchLines = 0;
+    private int failures = 0;
+    private long nextAttempt = 0;
+    private long waitingSince = 0;
+
+    @Override
+    public boolean isEnabled() {
+        return pushUrl != null && !pushUrl.trim().isEmpty();
+    }
+
+    @Scheduled(fixedDelayString = "${reporter.push.interval:1000}")
+    public void scheduledPush() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            push();
+        } catch (RuntimeException e) {
+            String error = "/!\\ PushServiceImpl.java - scheduledPush() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+
+    /**
+     * Send the batches that are ready, unless the collector is being backed off. With
+     * a spool, the batches that are ready are spooled first in any case.
+     *
+     * @return The number of lines the collector took
+     */
+    @Override
+    public synchronized int push() {
+        long now = System.currentTimeMillis();
+        if (batchLines <= 0) {
+            batchLines = maxBatchLines;
+        }
+        int sent = 0;
+        try {
+            if (cursor == null) {
+                spool = openSpool();
+                cursor = spool != null && spool.getLastCursor() != null ? spool.getLastCursor() : loadCursor();
+            }
+            if (spool != null) {
+                return drain(now);
+            }
+            if (now < nextAttempt) {
+                return 0;
+            }
+            Batch batch;
+            while ((batch = nextBatch(now, batchLines)) != null) {
+                if (!send(batch)) {
+                    return sent;
+                }
+                sent += batch.lines;
+                cursor = batch.end;
+                saveCursor();
+                now = System.currentTimeMillis();
+            }
+            return sent;
+        } catch (IOException e) {
+            String error = "/!\\ PushServiceImpl.java - push() : "+ e.toString() +" /!\\";
+            log.error(error);
+            return sent;
+        }
+    }
+
+    /**
+     * Spool the batches that are ready, then send the spool in order.
+     *
+     * All the batches spooled in one call are forced to disk together, before the
+     * cursor is saved, so a crash can lose neither lines nor their place in the log.
+     */
+    private int drain(long now) throws IOException {
+        Batch batch;
+        int spooled = 0;
+        // Each record is sent as one request, so it is cut to the batch size of the
+        // time; but to the full size while the collector is failing, or an outage
+        // would leave the spool full of one line records.
+        int limit = failures == 0 ? batchLines : maxBatchLines;
+        while ((batch = nextBatch(now, limit)) != null) {
+            spool.append(batch.end, batch.lines, batch.data);
+            cursor = batch.end;
+            spooled += batch.lines;
+        }
+        if (spooled > 0) {
+            spool.sync();
+            saveCursor();
+            if(logOutput) { log.info("drain() | spooled " + spooled + " lines, spool " + spool.getBytes() + " bytes"); }
+        }
+
+        int sent = 0;
+        PushSpool.Record record;
+        while (System.currentTimeMillis() >= nextAttempt && (record = spool.peek()) != null) {
+            Batch spooledBatch = new Batch(record.data, record.lines, record.end);
+            if (!send(spooledBatch)) {
+                break;
+            }
+            spool.ack(record);
+            sent += record.lines;
+        }
+        return sent;
+    }
+
+    /**
+     * @return The next batch, or null if there are no new lines or too few that have
+     * not waited long enough
+     */
+    private Batch nextBatch(long now, int limit) throws IOException {
+        Batch batch = readBatch(limit);
+        // too many bytes: read fewer lines again, so the batch ends (and has its cursor) where it is sent
+        while (batch.lines > 1 && batch.data.length > maxBatchBytes) {
+            limit = (int) Math.min(batch.lines - 1, Math.max(1, (long) batch.lines * maxBatchBytes / batch.data.length));
+            batch = readBatch(limit);
+        }
+        if (batch.lines == 0) {
+            waitingSince = 0;
+            return null;
+        }
+        if (batch.lines < limit && batch.data.length < maxBatchBytes) {
+            if (waitingSince == 0) {
+                waitingSince = now;
+            }
+            if (now - waitingSince < maxBatchAge) {
+                return null;
+            }
+        }
+        waitingSince = 0;
+        return batch;
+    }
+
+    /**
+     * The lines of a batch, as NDJSON, and where the batch ends.
+     */
+    private static class Batch {
+        private final byte[] data;
+        private final int lines;
+        private final LogCursor end;
+
+        private Batch(byte[] data, int lines, LogCursor end) {
+            this.data = data;
+            this.lines = lines;
+            this.end = end;
+        }
+    }
+
+    private Batch readBatch(int limit) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(data);
+        generator.setRootValueSeparator(null);
+        final int[] lines = new int[1];
+        LogCursor end = logExtractionService.extractLogData(null, cursor, limit, null, new LogLineConsumer() {
+            @Override
+            public void accept(LogLine logLine) throws IOException {
+                generator.writeObject(logLineService.buildDto(logLine));
+                generator.flush();
+                data.write('\n');
+                lines[0]++;
+            }
+        });
+        generator.close();
+        return new Batch(data.toByteArray(), lines[0], end);
+    }
+
+    /**
+     * POST a batch, and adapt the batch size and back-off to how it went.
+     *
+     * @return True if the collector took the batch
+     */
+    private boolean send(Batch batch) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(NDJSON);
+        headers.set(CURSOR_HEADER, batch.end.encode());
+        String reporterUrl = configurationExtractor.getReporterUrl();
+        if (reporterUrl != null) {
+            headers.set(REPORTER_HEADER, reporterUrl);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            restTemplate.exchange(pushUrl, HttpMethod.POST, new HttpEntity<>(batch.data, headers), Void.class);
+        } catch (HttpStatusCodeException e) {
+            backOff(e.getStatusCode(), e.getResponseHeaders());
+            return false;
+        } catch (RestClientException e) {
+            String error = "/!\\ PushServiceImpl.java - send() : "+ e.toString() +" /!\\";
+            log.error(error);
+            backOff(null, null);
+            return false;
+        }
+        long latency = System.currentTimeMillis() - start;
+        failures = 0;
+        if (latency > latencyTarget) {
+            batchLines = Math.max(1, batchLines / 2);
+        } else {
+            batchLines = Math.min(maxBatchLines, batchLines + Math.max(1, maxBatchLines / 10));
+        }
+        if(logOutput) { log.info("send() | " + batch.lines + " lines in " + latency + " ms, next batch " + batchLines + " lines"); }
+        return true;
+    }
+
+    /**
+     * Halve the batch size and wait before trying again: as long as the Retry-After
+     * header asks, or a random time up to a limit that doubles with each failure.
+     */
+    private void backOff(HttpStatus status, HttpHeaders headers) {
+        failures++;
+        batchLines = Math.max(1, batchLines / 2);
+        long delay = -1;
+        String retryAfter = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+        if (retryAfter != null) {
+            try {
+                delay = Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                delay = -1;
+            }
+        }
+        if (delay < 0) {
+            long ceiling = initialBackoff << Math.min(failures - 1, 30);
+            ceiling = ceiling <= 0 ? maxBackoff : Math.min(maxBackoff, ceiling);
+            delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        }
+        nextAttempt = System.currentTimeMillis() + Math.min(delay, maxBackoff);
+        String error = "/!\\ PushServiceImpl.java - backOff() : collector returned " + status
+                + ", retrying in " + delay + " ms /!\\";
+        log.error(error);
+    }
+
+    /**
+     * @return Where the last batch ended, as saved; or, the first time, the end of the
+     * log, so only lines written from now on are pushed
+     */
+    private LogCursor loadCursor() throws IOException {
+        Path path = getCursorPath();
+        if (path != null && Files.isReadable(path)) {
+            try {
+                return LogCursor.decode(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim());
+            } catch (IllegalArgumentException e) {
+                String error = "/!\\ PushServiceImpl.java - loadCursor() : "+ e.toString() +" /!\\";
+                log.error(error);
+            }
+        }
+        return logExtractionService.getEndCursor();
+    }
+
+    private void saveCursor() {
+        Path path = getCursorPath();
+        if (path == null) {
+            return;
+        }
+        try {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, cursor.encode().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            String error = "/!\\ PushServiceImpl.java - saveCursor() : "+ e.toString() +" /!\\";
+            log.error(error);
+        }
+    }
+
+    /**
+     * @return The spool, opened, or null if there is to be none
+     */
+    private PushSpool openSpool() throws IOException {
+        String checkpointPath = configurationExtractor.getCheckpointPath();
+        if (spoolMaxBytes <= 0 || checkpointPath == null || checkpointPath.isEmpty()) {
+            return null;
+        }
+        PushSpool opened = new PushSpool(Paths.get(checkpointPath + SPOOL_SUFFIX).toAbsolutePath(),
+                Math.min(spoolSegmentBytes, spoolMaxBytes), spoolMaxBytes);
+        opened.open();
+        return opened;
+    }
+
+    private Path getCursorPath() {
+        String checkpointPath = configurationExtractor.getCheckpointPath();
+        if (checkpointPath == null || checkpointPath.isEmpty()) {
+            return null;
+        }
+        return Paths.get(checkpointPath + CURSOR_SUFFIX).toAbsolutePath();
+    }
+}
@@ -0,0 +1,410 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.opendap.harvester.ReporterApplication;
+import org.opendap.harvester.entity.LogCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Batches waiting to be pushed, kept on disk so they outlive a collector outage (and
+ * the rotation of the log they were read from).
+ *
+ * The spool is a directory of segment files, named by a number that grows with each
+ * new segment. A batch is appended to the last segment as one record: a header (a
+ * magic number, the length and the CRC32 of the body) and a gzipped body that holds
+ * the cursor of the end of the batch, its line count and its NDJSON. A new segment is
+ * started when the last one would grow past segmentBytes, and the oldest segments are
+ * deleted, delivered or not, when the spool would grow past maxBytes.
+ *
+ * Appends are not forced to disk one by one: sync() forces all the appends since the
+ * last one at once, and the caller saves its own position in the log only after that.
+ * A crash can leave a part of a record at the end of the last segment; open() checks
+ * every record and cuts each segment off at the first one that is not whole.
+ *
+ * Where delivery has got to (a segment and an offset) is saved in the 'ack' file after
+ * each delivered record, so after a crash at most one record is delivered again.
+ * Segments are deleted once delivery has passed them.
+ *
+ * Not thread safe: PushServiceImpl uses it from push(), which is synchronized.
+ */
+final class PushSpool {
+	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
+	private boolean logOutput = false;
+
+    private static final int MAGIC = 0x53504f4c;
+    private static final int HEADER = 12;
+    private static final String SUFFIX = ".spool";
+    private static final String ACK_FILE = "ack";
+
+    /**
+     * A record read back from the spool, and where the one after it starts.
+     */
+    static final class Record {
+        final LogCursor end;
+        final int lines;
+        final byte[] data;
+        private final long segment;
+        private final long next;
+
+        private Record(LogCursor end, int lines, byte[] data, long segment, long next) {
+            this.end = end;
+            this.lines = lines;
+            this.data = data;
+            this.segment = segment;
+            this.next = next;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long maxBytes;
+
+    // The size of each segment, by number
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private FileChannel writer = null;
+    private boolean dirty = false;
+    private long readSegment = 0;
+    private long readOffset = 0;
+    private LogCursor lastCursor = null;
+
+    PushSpool(Path dir, long segmentBytes, long maxBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Find the segments, cut off any record a crash left unfinished and read where
+     * delivery had got to.
+     */
+    void open() throws IOException {
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), 0L);
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        long lastSegment = -1;
+        long lastOffset = -1;
+        for (Long segment : new ArrayList<>(segments.keySet())) {
+            long offset = 0;
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                while (true) {
+                    long next = check(channel, offset, size);
+                    if (next < 0) {
+                        break;
+                    }
+                    lastSegment = segment;
+                    lastOffset = offset;
+                    offset = next;
+                }
+                if (offset < size) {
+                    String error = "/!\\ PushSpool.java - open() : " + segmentPath(segment) + " cut off at "
+                            + offset + " of " + size + " bytes /!\\";
+                    log.error(error);
+                    channel.truncate(offset);
+                    channel.force(true);
+                }
+            }
+            segments.put(segment, offset);
+        }
+        if (lastSegment >= 0) {
+            lastCursor = read(lastSegment, lastOffset).end;
+        }
+
+        readSegment = segments.isEmpty() ? 0 : segments.firstKey();
+        readOffset = 0;
+        Path ack = dir.resolve(ACK_FILE);
+        if (Files.isReadable(ack)) {
+            String[] saved = new String(Files.readAllBytes(ack), StandardCharsets.UTF_8).trim().split(" ");
+            try {
+                long segment = Long.parseLong(saved[0]);
+                long offset = Long.parseLong(saved[1]);
+                if (segments.containsKey(segment) && offset <= segments.get(segment)) {
+                    readSegment = segment;
+                    readOffset = offset;
+                } else if (!segments.isEmpty() && segment > segments.lastKey()) {
+                    readSegment = segments.lastKey();
+                    readOffset = segments.get(readSegment);
+                }
+            } catch (RuntimeException e) {
+                String error = "/!\\ PushSpool.java - open() : "+ e.toString() +" /!\\";
+                log.error(error);
+            }
+        }
+        deleteDelivered();
+        if(logOutput) { log.info("open() | " + segments.size() + " segments, " + getBytes() + " bytes"); }
+    }
+
+    /**
+     * @return The cursor of the last record in the spool, or null if it is empty
+     */
+    LogCursor getLastCursor() {
+        return lastCursor;
+    }
+
+    /**
+     * @return The size of the segments, delivered or not
+     */
+    long getBytes() {
+        long bytes = 0;
+        for (long size : segments.values()) {
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    int getSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Add a batch at the end of the spool. It is not on disk for certain until sync().
+     */
+    void append(LogCursor end, int lines, byte[] data) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(body))) {
+            out.writeUTF(end.encode());
+            out.writeInt(lines);
+            out.write(data);
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(HEADER + bytes.length);
+        record.putInt(MAGIC).putInt(bytes.length).putInt((int) crc.getValue()).put(bytes);
+        record.flip();
+
+        if (segments.isEmpty() || (segments.lastEntry().getValue() > 0
+                && segments.lastEntry().getValue() + record.remaining() > segmentBytes)) {
+            roll();
+        } else if (writer == null) {
+            writer = FileChannel.open(segmentPath(segments.lastKey()), StandardOpenOption.WRITE);
+        }
+        long segment = segments.lastKey();
+        writer.position(segments.get(segment));
+        while (record.hasRemaining()) {
+            writer.write(record);
+        }
+        segments.put(segment, writer.position());
+        dirty = true;
+        lastCursor = end;
+        trim();
+    }
+
+    /**
+     * Force the appends since the last call to disk.
+     */
+    void sync() throws IOException {
+        if (dirty && writer != null) {
+            writer.force(false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * @return The first record not delivered yet, or null if there is none
+     */
+    Record peek() throws IOException {
+        while (!segments.isEmpty()) {
+            Long size = segments.get(readSegment);
+            if (size == null) {
+                Long next = segments.ceilingKey(readSegment);
+                if (next == null) {
+                    return null;
+                }
+                readSegment = next;
+                readOffset = 0;
+                continue;
+            }
+            if (readOffset < size) {
+                return read(readSegment, readOffset);
+            }
+            Long next = segments.higherKey(readSegment);
+            if (next == null) {
+                return null;
+            }
+            readSegment = next;
+            readOffset = 0;
+        }
+        return null;
+    }
+
+    /**
+     * Note that a record has been delivered, and delete the segments it finished.
+     */
+    void ack(Record record) throws IOException {
+        readSegment = record.segment;
+        readOffset = record.next;
+        Path ack = dir.resolve(ACK_FILE);
+        Path tmp = dir.resolve(ACK_FILE + ".tmp");
+        Files.write(tmp, (readSegment + " " + readOffset).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, ack, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteDelivered();
+    }
+
+    void close() throws IOException {
+        sync();
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        sync();
+        if (writer != null) {
+            writer.close();
+        }
+        long segment = segments.isEmpty() ? Math.max(readSegment, 0) : segments.lastKey() + 1;
+        writer = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segments.put(segment, writer.size());
+        // make the new file's name durable too
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory; the data is still forced
+        }
+    }
+
+    /**
+     * Delete the oldest segments while the spool is larger than maxBytes. The last
+     * segment is kept, as it is being written.
+     */
+    private void trim() throws IOException {
+        while (segments.size() > 1 && getBytes() > maxBytes) {
+            long segment = segments.firstKey();
+            if (segment > readSegment || (segment == readSegment && readOffset >= segments.get(segment))) {
+                deleteSegment(segment);
+                continue;
+            }
+            String error = "/!\\ PushSpool.java - trim() : spool over " + maxBytes
+                    + " bytes, dropping undelivered " + segmentPath(segment) + " /!\\";
+            log.error(error);
+            deleteSegment(segment);
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        }
+    }
+
+    private void deleteDelivered() throws IOException {
+        for (Long segment : new ArrayList<>(segments.headMap(readSegment).keySet())) {
+            deleteSegment(segment);
+        }
+        // the segment being read can go too once it is finished, unless it is being written
+        if (segments.size() > 1 && segments.containsKey(readSegment)
+                && readOffset >= segments.get(readSegment)) {
+            deleteSegment(readSegment);
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        }
+    }
+
+    private void deleteSegment(long segment) throws IOException {
+        segments.remove(segment);
+        Files.deleteIfExists(segmentPath(segment));
+    }
+
+    /**
+     * @return Where the record after the one at 'offset' starts, or -1 if there is no
+     * whole record at 'offset'
+     */
+    private static long check(FileChannel channel, long offset, long size) throws IOException {
+        if (offset + HEADER > size) {
+            return -1;
+        }
+        ByteBuffer header = readFully(channel, offset, HEADER);
+        int length = header.getInt(4);
+        if (header.getInt(0) != MAGIC || length < 0 || offset + HEADER + length > size) {
+            return -1;
+        }
+        ByteBuffer body = readFully(channel, offset + HEADER, length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == header.getInt(8) ? offset + HEADER + length : -1;
+    }
+
+    private Record read(long segment, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            int length = readFully(channel, offset, HEADER).getInt(4);
+            byte[] body = readFully(channel, offset + HEADER, length).array();
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(body)))) {
+                LogCursor end = LogCursor.decode(in.readUTF());
+                int lines = in.readInt();
+                ByteArrayOutputStream data = new ByteArrayOutputStream(body.length * 4);
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    data.write(buffer, 0, n);
+                }
+                return new Record(end, lines, data.toByteArray(), segment, offset + HEADER + length);
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spool segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private Path segmentPath(long segment) {
+        return dir.resolve(String.format("%020d%s", segment, SUFFIX));
+    }
+}
@@ -31,29 +31,37 @@
  * 2/7/19 - SBL - added init() method
  * 		changed @Service to @Component on class
  * 		added @PostConstruct to init()
+ *
+ * Registration runs on the scheduler, so an unreachable collector does not hold up
+ * startup. A failed call is tried again after a random wait whose limit doubles with
+ * each failure (up to reporter.registration.backoff.max); once registered, the call is
+ * repeated every reporter.registration.interval milliseconds so a collector that lost
+ * the registration (or was replaced) gets it back.
  */
 
 package org.opendap.harvester.service.impl;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opendap.harvester.entity.RegistrationState;
 import org.opendap.harvester.service.Registration;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
-//import org.springframework.boot.context.event.ApplicationStartingEvent;
-//import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ConnectException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -64,10 +72,34 @@ import org.opendap.harvester.config.ConfigurationExtractor;
 public class RegistrationImpl implements Registration {
 	private static final Logger log = LoggerFactory.getLogger(ReporterApplication.class);
 	private boolean logOutput = false;
-	private boolean testing = true; // this should alway be 'false' unless testing - SBL 12.24.20
 	
 	@Autowired
 	private ConfigurationExtractor configurationExtractor;
+
+	@Autowired
+	private RestTemplate restTemplate;
+
+	// false never registers with the collector (e.g. when testing)
+	@Value("${reporter.registration.enabled:true}")
+	private boolean enabled;
+
+	@Value("${reporter.registration.interval:3600000}")
+	private long interval;
+
+	@Value("${reporter.registration.backoff.initial:1000}")
+	private long initialBackoff;
+
+	@Value("${reporter.registration.backoff.max:300000}")
+	private long maxBackoff;
+
+	private File uuidFile = new File("./reporter.uuid");
+	private boolean registered = false;
+	private String serverUUID = null;
+	private int failures = 0;
+	private long lastAttempt = 0;
+	private long lastSuccess = 0;
+	private long nextAttempt = Long.MAX_VALUE;
+	private String lastError = null;
 	
 	/**
 	 * onApplicationEvent method
@@ -82,54 +114,106 @@ public class RegistrationImpl implements Registration {
 		
 	/**
 	 * init method
-	 * 		starts the registration process
+	 * 		starts the registration process: the scheduler makes the call as soon as
+	 * 		it can, the caller does not wait for it.
 	 */
-	public void init() {
+	@Override
+	public synchronized void init() {
 		if(logOutput) {log.info("init.1/2) init entry checkpoint"); }
-		if (!testing) {
-			registerationCall();
+		if (enabled) {
+			failures = 0;
+			nextAttempt = System.currentTimeMillis();
 		}
-		if(logOutput) {log.info("init.2/2) after registeration call, returning <<"); }
+		if(logOutput) {log.info("init.2/2) registration scheduled, returning <<"); }
 	}//end init()
+
+	/**
+	 * scheduledRegistration method
+	 * 		registers when a call is due: at startup, after a failure once its back-off
+	 * 		is over, and every 'interval' milliseconds after that.
+	 */
+	@Scheduled(fixedDelayString = "${reporter.registration.tick:1000}")
+	public void scheduledRegistration() {
+		synchronized (this) {
+			if (!enabled || System.currentTimeMillis() < nextAttempt) {
+				return;
+			}
+		}
+		try {
+			registerationCall();
+		} catch (RuntimeException e) {
+			String error = "/!\\ RegistrationImpl.java - scheduledRegistration() : "+ e.toString() +" /!\\";
+			log.error(error);
+		}
+	}//end scheduledRegistration()
 	
 	/**
 	 * registrationCall method
 	 * 		used on startup of Reporter to register with Collector.
-	 * 		builds registration url from config files and calls collector using url.
+	 * 		builds registration url from config files and calls collector using url,
+	 * 		then sets when the next call is due.
 	 */
+	@Override
 	public void registerationCall() {
 		if(logOutput) {log.info("registerCall.1/3) registration entry checkpoint"); }
-		try {
-			if(configurationExtractor == null) {
-				//log.error("registerCall.1e) config extractor is null"); // <---
-				//log.info("config extractor is null");
-				configurationExtractor = new ConfigurationExtractor();
-				if(configurationExtractor == null) {
-					throw new NullPointerException(); 
-				}
-				else {
-					//log.info("registerCall.1e) config extractor null error recovered");
-				}
-			}
-		}catch(NullPointerException e) {
-			String error = "/!\\ RegistrationImpl.java - registrationCall() : "+ e.toString() +" /!\\";
-			log.error(error);
+		synchronized (this) {
+			lastAttempt = System.currentTimeMillis();
 		}
 		
 		URL registrationUrl = buildUrl();
-		//URL registrationUrl = buildPOSTUrl();
 
 		if(logOutput) { log.info("registerCall.2/3) url : "+ registrationUrl); }
-		if(registrationUrl != null) {
-			if(logOutput) {log.info("registerCall.2.1) url not null"); }
-			callCollector(registrationUrl);
-			//callPostCollector(registrationUrl);
+		if(registrationUrl == null) {
+			failed("registration URL was null");
+			return;
 		}
-		else {
-			String error = "/!\\ RegistrationImpl.java - registrationCall() : registration URL was null /!\\";
-			if(logOutput) { log.error(error); }
+		try {
+			UUID uuid = callCollector(registrationUrl.toURI());
+			saveUUIDtoFile(uuid);
+			succeeded(uuid);
+		} catch (URISyntaxException | RestClientException | JSONException | IllegalArgumentException e) {
+			failed(e.toString());
 		}
+		if(logOutput) {log.info("registerCall.3/3) next attempt at : "+ nextAttempt); }
 	}// end registrationCall()
+
+	@Override
+	public synchronized RegistrationState getState() {
+		return RegistrationState.builder()
+				.enabled(enabled)
+				.registered(registered)
+				.serverUUID(serverUUID)
+				.failures(failures)
+				.lastAttempt(lastAttempt)
+				.lastSuccess(lastSuccess)
+				.nextAttempt(nextAttempt == Long.MAX_VALUE ? 0 : nextAttempt)
+				.lastError(lastError)
+				.build();
+	}
+
+	private synchronized void succeeded(UUID uuid) {
+		registered = true;
+		serverUUID = uuid.toString();
+		failures = 0;
+		lastSuccess = System.currentTimeMillis();
+		lastError = null;
+		nextAttempt = lastSuccess + interval;
+	}
+
+	/**
+	 * Wait a random time up to a limit that doubles with each failure before trying
+	 * again, so that many reporters do not all call a collector that is back at once.
+	 */
+	private synchronized void failed(String reason) {
+		failures++;
+		lastError = reason;
+		long ceiling = initialBackoff << Math.min(failures - 1, 30);
+		ceiling = ceiling <= 0 ? maxBackoff : Math.min(maxBackoff, ceiling);
+		long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+		nextAttempt = System.currentTimeMillis() + delay;
+		String error = "/!\\ RegistrationImpl.java - registrationCall() : "+ reason +", retrying in "+ delay +" ms /!\\";
+		log.error(error);
+	}
 	
 	/**
 	 * buildUrl method 
@@ -161,60 +245,25 @@ public class RegistrationImpl implements Registration {
 	}//end buildUrl()
 	
 	/** callCollector method
-	 * 		takes passed in registrationUrl and uses it to opens a connection 
-	 * 		which registers (or updates) the reporter with the collector.
-	 * @param registrationUrl of the collector application]
+	 * 		takes passed in registrationUrl and calls it, which registers (or updates)
+	 * 		the reporter with the collector.
+	 * @param registrationUrl of the collector application
+	 * @return the id the collector gave the server
 	 */
-	private void callCollector(URL registrationUrl) {
-		if(logOutput) {log.info("call.1/5) callCollector() entry checkpoint"); }
-		HttpURLConnection connection = null;
-		BufferedReader reader = null;
-		StringBuilder stringBuilder;
-		
-		try {			
-			connection = (HttpURLConnection)registrationUrl.openConnection();
-			if(logOutput) {log.info("call.2/5) connection made"); }
-			connection.setRequestMethod("GET");
-			int responseCode = connection.getResponseCode();
-			if(logOutput) {log.info("call.3/5) called collector with: "+registrationUrl); }
-			if(logOutput) {log.info("call.4/5) response code: "+responseCode); }
-			
-			reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			stringBuilder = new StringBuilder();
-			
-			String line = null;
-			UUID uuid = null;
-			int x = 0; //used for debugging - SBL 7.2.19
-			while((line = reader.readLine()) != null) {
-				if(logOutput) {log.info("call.4.1."+x+") line : "+line); }
-				stringBuilder.append(line);
-				x++; //used for debugging - SBL 7.2.19
-			}// end while
-			
-			try {
-				JSONObject json = new JSONObject(stringBuilder.toString());
-				uuid = UUID.fromString(json.getString("serverUUID"));
-			} catch (JSONException e) {
-				// TODO output JSONException to log file. sbl 7.2.19
-				e.printStackTrace();
-			}
-			if(logOutput) {log.info("call.4.2) id : "+uuid.toString()); }
-			
-			saveUUIDtoFile(uuid);
-						
-			if(logOutput) {log.info("call.4.3) done"); }
-		} catch (MalformedURLException e){
-			//TODO output MalformedURLException to log file. sbl 7.2.19
-			e.printStackTrace();
-		} catch (ConnectException e) {
-			
-		} catch (IOException e1) {
-			e1.printStackTrace();
+	private UUID callCollector(URI registrationUrl) {
+		if(logOutput) {log.info("call.1/3) callCollector() entry checkpoint"); }
+		String response = restTemplate.getForObject(registrationUrl, String.class);
+		if(logOutput) {log.info("call.2/3) called collector with: "+registrationUrl+", response : "+response); }
+		if (response == null) {
+			throw new IllegalArgumentException("empty response from the collector");
 		}
+		UUID uuid = UUID.fromString(new JSONObject(response).getString("serverUUID"));
+		if(logOutput) {log.info("call.3/3) id : "+uuid.toString()); }
+		return uuid;
 	}
 	
 	private void saveUUIDtoFile(UUID uuid) {
-		File file = new File("./reporter.uuid");
+		File file = uuidFile;
 		
 		try {
 			file.createNewFile();
@@ -0,0 +1,146 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors:
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Parse the time field of a Hyrax log line, e.g. "2016-03-29T11:43:43.422 -0700",
+ * to milliseconds since the epoch (GMT).
+ *
+ * The layout is fixed width, so the digits are read in place: no formatter, DateTime
+ * or substring is made per line. Anything that does not have exactly that layout
+ * goes through Joda with the pattern the reporter has always used, so the results
+ * (and the errors) are the same as before.
+ */
+final class TimestampParser {
+    static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS Z";
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormat.forPattern(PATTERN);
+
+    private static final int LENGTH = 29;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    private TimestampParser() {
+    }
+
+    static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * @param text Holds the time field
+     * @param start The index of the first character of the field
+     * @param end The index just past the field
+     * @return The time in milliseconds since the epoch
+     * @throws IllegalArgumentException If the field is not a time
+     */
+    static long parse(CharSequence text, int start, int end) {
+        if (end - start == LENGTH) {
+            long millis = parseFixed(text, start);
+            if (millis != Long.MIN_VALUE) {
+                return millis;
+            }
+        }
+        return FORMATTER.parseDateTime(text.subSequence(start, end).toString()).getMillis();
+    }
+
+    /**
+     * @return The time, or Long.MIN_VALUE if the text does not have the layout
+     */
+    private static long parseFixed(CharSequence text, int s) {
+        if (text.charAt(s + 4) != '-' || text.charAt(s + 7) != '-' || text.charAt(s + 10) != 'T'
+                || text.charAt(s + 13) != ':' || text.charAt(s + 16) != ':' || text.charAt(s + 19) != '.'
+                || text.charAt(s + 23) != ' ') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, s, 4);
+        int month = digits(text, s + 5, 2);
+        int day = digits(text, s + 8, 2);
+        int hour = digits(text, s + 11, 2);
+        int minute = digits(text, s + 14, 2);
+        int second = digits(text, s + 17, 2);
+        int millis = digits(text, s + 20, 3);
+        int offsetHours = digits(text, s + 25, 2);
+        int offsetMinutes = digits(text, s + 27, 2);
+        char sign = text.charAt(s + 24);
+        if ((year | month | day | hour | minute | second | millis | offsetHours | offsetMinutes) < 0
+                || (sign != '+' && sign != '-')
+                || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59 || offsetHours > 23 || offsetMinutes > 59) {
+            return Long.MIN_VALUE;
+        }
+
+        long offset = (offsetHours * 60 + offsetMinutes) * MILLIS_PER_MINUTE;
+        long local = epochDay(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L + millis;
+        return sign == '+' ? local - offset : local + offset;
+    }
+
+    /**
+     * @return The value of 'count' decimal digits, or -1 if one of them is not a digit
+     */
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days from 1970-01-01 to a date in the proleptic Gregorian calendar (the one
+     * Joda's ISO chronology uses).
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.junit.Test;
+import org.opendap.harvester.entity.LinePattern;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LogLineHandler;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that the bracket tokenizer splits lines exactly as the regex does.
+ */
+public class BracketTokenizerTest {
+    private static final String NAMES = "host;sessionId;localDateTime;duration;httpStatus;requestId;httpVerb;resourceId;query;size";
+    private static final String ALPHABET = "[] [] a-:.\t\r\n\u0085  ";
+
+    private final LogLineServiceImpl logLineService = new LogLineServiceImpl();
+
+    @Test
+    public void testThatBracketRegexIsDetected() {
+        assertEquals(10, BracketTokenizer.fieldCount(regexp(10)));
+        assertEquals(1, BracketTokenizer.fieldCount(regexp(1)));
+        assertEquals(0, BracketTokenizer.fieldCount("\\[(.*)\\]  \\[(.*)\\]"));
+        assertEquals(0, BracketTokenizer.fieldCount("\\[(.+)\\] \\[(.*)\\]"));
+        assertEquals(0, BracketTokenizer.fieldCount("(.*)"));
+    }
+
+    @Test
+    public void testThatTokenizerMatchesRegexOnRandomLines() {
+        Random random = new Random(17);
+        for (int fields : new int[] {1, 2, 3, 10}) {
+            LinePatternConfig regex = regexConfig(fields);
+            LinePatternConfig tokenizer = tokenizerConfig(fields);
+            for (int i = 0; i < 20000; i++) {
+                String line = random.nextBoolean() ? randomLine(random, 40) : bracketedLine(random, fields);
+                assertEquals(line, values(regex, line), values(tokenizer, line));
+            }
+        }
+    }
+
+    @Test
+    public void testThatTokenizerMatchesRegexOnExampleLog() throws Exception {
+        LinePatternConfig regex = regexConfig(10);
+        LinePatternConfig tokenizer = tokenizerConfig(10);
+        for (String line : exampleLines()) {
+            assertTrue(line, !values(regex, line).isEmpty());
+            assertEquals(line, values(regex, line), values(tokenizer, line));
+        }
+    }
+
+    /**
+     * Lines read from a UTF-8 log are tokenized as views of their bytes; a non-ASCII
+     * field must not be taken for a line terminator (Å is C3 85, х is D1 85, and 0x85
+     * alone would be NEL).
+     */
+    @Test
+    public void testThatTokenizerMatchesRegexOnUtf8Bytes() {
+        Random random = new Random(23);
+        String alphabet = "[] [] a\u00c5\u0445\u00e9\u20ac\r\u0085\u2028\u2029 ";
+        for (int fields : new int[] {1, 3, 10}) {
+            LinePatternConfig regex = regexConfig(fields);
+            LinePatternConfig tokenizer = tokenizerConfig(fields);
+            for (int i = 0; i < 20000; i++) {
+                StringBuilder line = new StringBuilder();
+                for (int field = 0; field < fields; field++) {
+                    line.append(field == 0 ? "[" : "] [");
+                    for (int length = random.nextInt(6); length > 0; length--) {
+                        line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                    }
+                }
+                String text = line.append(']').toString();
+                assertEquals(text, values(regex, text), values(tokenizer, utf8(text)));
+            }
+        }
+
+        LinePatternConfig tokenizer = tokenizerConfig(10);
+        String line = "[\u00c5sa] [-] [2017-10-27T16:08:46.913 -0700] [0] [200] [id] [HTTP-GET] "
+                + "[/opendap/\u0445\u043e\u0441\u0442.nc.dds] [-] [42]";
+        assertTrue(logLineService.parseLogLine(utf8(line), tokenizer).isMatched());
+        assertEquals("/opendap/\u0445\u043e\u0441\u0442.nc.dds",
+                logLineService.parseLogLine(utf8(line), tokenizer).getValue("resourceId"));
+        assertEquals(logLineService.getEpochMillis(line, tokenizer),
+                logLineService.getEpochMillis(utf8(line), tokenizer));
+        assertTrue(logLineService.getEpochMillis(utf8(line), tokenizer) != LogLineHandler.NO_TIME);
+    }
+
+    /**
+     * The lines of ExampleAnonymous.log, with the size field that newer versions of
+     * Hyrax write added to the end.
+     */
+    private List<String> exampleLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/ExampleAnonymous.log"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line.trim() + " [" + line.length() + "]");
+                }
+            }
+        }
+        return lines;
+    }
+
+    private MappedLine utf8(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return new MappedLine(ByteBuffer.wrap(bytes), 0, bytes.length, StandardCharsets.UTF_8);
+    }
+
+    private Map<String, String> values(LinePatternConfig config, CharSequence line) {
+        LogLine logLine = logLineService.parseLogLine(line, config);
+        return logLine.getValues();
+    }
+
+    private LinePatternConfig regexConfig(int fields) {
+        LinePatternConfig config = logLineService.buildConfig(linePattern(fields));
+        return LinePatternConfig.builder()
+                .names(config.getNames())
+                .schema(config.getSchema())
+                .pattern(config.getPattern())
+                .build();
+    }
+
+    private LinePatternConfig tokenizerConfig(int fields) {
+        LinePatternConfig config = logLineService.buildConfig(linePattern(fields));
+        assertEquals(fields, config.getBracketFields());
+        return config;
+    }
+
+    private LinePattern linePattern(int fields) {
+        return LinePattern.builder().names(NAMES).regexp(regexp(fields)).build();
+    }
+
+    private String regexp(int fields) {
+        StringBuilder regexp = new StringBuilder();
+        for (int i = 0; i < fields; i++) {
+            regexp.append(i == 0 ? "" : " ").append("\\[(.*)\\]");
+        }
+        return regexp.toString();
+    }
+
+    private String randomLine(Random random, int maxLength) {
+        StringBuilder line = new StringBuilder();
+        int length = random.nextInt(maxLength);
+        for (int i = 0; i < length; i++) {
+            line.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return line.toString();
+    }
+
+    /**
+     * A line that is close to the expected shape: about the right number of
+     * bracketed fields, whose values may themselves hold brackets and separators.
+     */
+    private String bracketedLine(Random random, int fields) {
+        StringBuilder line = new StringBuilder(random.nextInt(4) == 0 ? " " : "");
+        int count = Math.max(1, fields + random.nextInt(3) - 1);
+        for (int i = 0; i < count; i++) {
+            line.append(i == 0 ? "[" : "] [").append(randomLine(random, 8));
+        }
+        return line.append(random.nextInt(8) == 0 ? "" : "]").append(random.nextInt(4) == 0 ? " " : "").toString();
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.DurationHistogram;
+import org.opendap.harvester.entity.LatencyStats;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyServiceTest {
+    private static final LocalDateTime START = LogFileFixture.START;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LatencyServiceImpl latencyService = new LatencyServiceImpl();
+
+    private LogFileFixture fixture;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+        ReflectionTestUtils.setField(latencyService, "logExtractionService", fixture.extractionService());
+        ReflectionTestUtils.setField(latencyService, "logLineService", fixture.logLineService);
+        ReflectionTestUtils.setField(latencyService, "bucketSeconds", 60);
+        // a day, counted back from the test lines rather than from now
+        long minutes = (System.currentTimeMillis() - START.toDateTime(DateTimeZone.UTC).getMillis()) / 60000;
+        ReflectionTestUtils.setField(latencyService, "retentionMinutes", (int) minutes + 1440);
+        ReflectionTestUtils.setField(latencyService, "maxKeys", 100);
+    }
+
+    @Test
+    public void testPercentilesAreWithinOnePercent() {
+        Random random = new Random(5);
+        long[] values = new long[100000];
+        DurationHistogram histogram = new DurationHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 14);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] {1, 50, 90, 95, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + exact + " vs " + estimate,
+                    estimate >= exact && estimate <= exact + exact / 100);
+        }
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void testHistogramsMergeAfterSerialization() throws Exception {
+        Random random = new Random(9);
+        DurationHistogram a = new DurationHistogram();
+        DurationHistogram b = new DurationHistogram();
+        DurationHistogram both = new DurationHistogram();
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(100000);
+            (i % 3 == 0 ? a : b).record(value);
+            both.record(value);
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        DurationHistogram merged = mapper.readValue(mapper.writeValueAsString(a), DurationHistogram.class);
+        merged.merge(mapper.readValue(mapper.writeValueAsString(b), DurationHistogram.class));
+        assertEquals(both.getCounts(), merged.getCounts());
+        assertEquals(both.getCount(), merged.getCount());
+        assertEquals(both.getValueAtPercentile(99), merged.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testLatencyPerTypeIsKeptUpToDate() throws Exception {
+        fixture.append(0, 100);
+        latencyService.update();
+        LatencyStats stats = latencyService.getLatency(null, null, "type", false);
+        assertEquals(2, stats.getGroups().size());
+        assertEquals(".das", stats.getGroups().get(0).getKey());
+        assertEquals(50, stats.getGroups().get(0).getCount());
+        assertEquals(".dods", stats.getGroups().get(1).getKey());
+        assertEquals(50, stats.getGroups().get(1).getCount());
+        // durations of the .dods lines are 1, 3, ... 99
+        assertEquals(49, stats.getGroups().get(1).getP50());
+        assertEquals(99, stats.getGroups().get(1).getMax());
+
+        fixture.append(100, 200);
+        // Only what the updates have read is counted
+        assertEquals(100, latencyService.getLatency(null, null, "dataset", false).getGroups().get(0).getCount());
+        latencyService.update();
+        stats = latencyService.getLatency(null, null, "dataset", false);
+        assertEquals(1, stats.getGroups().size());
+        assertEquals("/opendap/data/coads.nc", stats.getGroups().get(0).getKey());
+        assertEquals(200, stats.getGroups().get(0).getCount());
+
+        // one line a second, so the window of the first two minutes holds 120 lines
+        stats = latencyService.getLatency(START, START.plusSeconds(60), null, true);
+        assertEquals(120, stats.getGroups().get(0).getCount());
+        assertEquals(120, stats.getGroups().get(0).getHistogram().getCount());
+    }
+
+    @Test
+    public void testThatDatasetsPerBucketAreCapped() throws Exception {
+        ReflectionTestUtils.setField(latencyService, "maxKeys", 3);
+        // In the one bucket, dataset 0 has 40 requests, 1 has 20, 2 has 10 and the
+        // other 30 each have 1
+        try (BufferedWriter writer = fixture.writer()) {
+            for (int i = 0; i < 100; i++) {
+                int dataset = i % 10 < 4 ? 0 : i % 10 < 6 ? 1 : i % 10 < 7 ? 2 : 3 + i;
+                writer.write("[h] [-] [" + START.plusMillis(i) + " +0000] [   " + i + " ms] [200] [       1] "
+                        + "[HTTP-GET] [/opendap/data/" + dataset + ".nc.dods] [] [1]\n");
+            }
+        }
+        latencyService.update();
+        LatencyStats stats = latencyService.getLatency(null, null, "dataset", false);
+        assertEquals(4, stats.getGroups().size());
+        long total = 0;
+        for (LatencyStats.Group group : stats.getGroups()) {
+            total += group.getCount();
+        }
+        assertEquals(100, total);
+        assertEquals("/opendap/data/0.nc", stats.getGroups().get(0).getKey());
+        assertEquals(40, stats.getGroups().get(0).getCount());
+        assertEquals("/opendap/data/1.nc", stats.getGroups().get(1).getKey());
+        assertEquals(20, stats.getGroups().get(1).getCount());
+        assertEquals(LatencyServiceImpl.GROUP_OTHER, stats.getGroups().get(3).getKey());
+    }
+
+    @Test
+    public void testFirstUpdateOnlyReadsTheRetentionPeriod() throws Exception {
+        ReflectionTestUtils.setField(latencyService, "retentionMinutes", 60);
+        fixture.append(0, 100);
+        // 65 minutes ago is within an hour of the last line, but not of now
+        LocalDateTime now = LocalDateTime.now(DateTimeZone.UTC);
+        try (BufferedWriter writer = fixture.writer()) {
+            for (int i = 0; i < 15; i++) {
+                LocalDateTime time = i < 5 ? now.minusMinutes(65) : now.minusMinutes(10);
+                writer.write("[h] [-] [" + time.plusSeconds(i) + " +0000] [   " + i + " ms] [200] [       1] "
+                        + "[HTTP-GET] [/opendap/data/coads.nc.dods] [] [1]\n");
+            }
+        }
+        latencyService.update();
+        assertEquals(10, latencyService.getLatency(null, null, null, false).getGroups().get(0).getCount());
+    }
+}
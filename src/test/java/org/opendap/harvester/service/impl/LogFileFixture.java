@@ -0,0 +1,127 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.LocalDateTime;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.config.ConfigurationExtractor;
+import org.opendap.harvester.entity.LinePattern;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.service.LinePatternService;
+import org.opendap.harvester.service.LogLineService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An AnonymousAccess.log in a temporary folder, the mocked configuration and line
+ * pattern that point at it, and the log services wired the way Spring wires them.
+ */
+class LogFileFixture {
+    static final LocalDateTime START = LocalDateTime.parse("2016-06-23T16:48:00.000");
+    static final String NAMES = "host;sessionId;localDateTime;duration;httpStatus;requestId;httpVerb;resourceId;query;size";
+    static final String REGEXP = "\\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\] \\[(.*)\\]";
+
+    final LogLineService logLineService;
+    final ConfigurationExtractor configurationExtractor;
+    final LinePatternService linePatternService;
+    final LinePatternConfig config;
+    final Path logFile;
+
+    LogFileFixture(TemporaryFolder folder) throws IOException {
+        logLineService = new LogLineServiceImpl();
+        configurationExtractor = mock(ConfigurationExtractor.class);
+        linePatternService = mock(LinePatternService.class);
+        logFile = folder.newFile("AnonymousAccess.log").toPath();
+        when(configurationExtractor.getHyraxLogfilePath()).thenReturn(logFile.toString());
+        when(configurationExtractor.getHyraxLogfileCharset()).thenReturn(StandardCharsets.UTF_8);
+        when(configurationExtractor.getCheckpointPath()).thenReturn("");
+        config = logLineService.buildConfig(LinePattern.builder().names(NAMES).regexp(REGEXP).build());
+        when(linePatternService.getLinePatternConfig()).thenReturn(config);
+    }
+
+    LogTailServiceImpl tailService(long indexInterval, long chunkSize) {
+        LogTailServiceImpl logTailService = new LogTailServiceImpl();
+        ReflectionTestUtils.setField(logTailService, "configurationExtractor", configurationExtractor);
+        ReflectionTestUtils.setField(logTailService, "logLineService", logLineService);
+        ReflectionTestUtils.setField(logTailService, "linePatternService", linePatternService);
+        ReflectionTestUtils.setField(logTailService, "indexInterval", indexInterval);
+        ReflectionTestUtils.setField(logTailService, "chunkSize", chunkSize);
+        return logTailService;
+    }
+
+    LogExtractionServiceImpl extractionService(LogTailServiceImpl logTailService, int parseThreads) {
+        LogExtractionServiceImpl logExtractionService = new LogExtractionServiceImpl();
+        ReflectionTestUtils.setField(logExtractionService, "logLineService", logLineService);
+        ReflectionTestUtils.setField(logExtractionService, "linePatternService", linePatternService);
+        ReflectionTestUtils.setField(logExtractionService, "configurationExtractor", configurationExtractor);
+        ReflectionTestUtils.setField(logExtractionService, "logTailService", logTailService);
+        ReflectionTestUtils.setField(logExtractionService, "parseThreads", parseThreads);
+        return logExtractionService;
+    }
+
+    /**
+     * @return An extraction service on one thread, over a tail service with an index
+     * entry every 4 KB
+     */
+    LogExtractionServiceImpl extractionService() {
+        return extractionService(tailService(4096L, 1048576L), 1);
+    }
+
+    /**
+     * @return A writer that appends to the log file
+     */
+    BufferedWriter writer() throws IOException {
+        return Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Append the lines 'from' to 'to', one second apart from START.
+     */
+    void append(int from, int to) throws IOException {
+        try (BufferedWriter writer = writer()) {
+            for (int i = from; i < to; i++) {
+                writer.write(line(i) + "\n");
+            }
+        }
+    }
+
+    /**
+     * @return Line 'i': host h'i', a duration of 'i' ms, a 404 every fourth line and
+     * requests for the .das and .dods of one dataset in turn
+     */
+    static String line(int i) {
+        return "[h" + i + "] [-] [" + START.plusSeconds(i) + " +0000] [   " + i + " ms] [" + (i % 4 == 0 ? 404 : 200)
+                + "] [       1] [HTTP-GET] [/opendap/data/coads.nc" + (i % 2 == 0 ? ".das" : ".dods") + "] [] [1]";
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LogLineConsumer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that pages answered from the buffer of recent lines are the pages the log
+ * file gives.
+ */
+public class LogLineBufferTest {
+    private static final LocalDateTime START = LogFileFixture.START;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogFileFixture fixture;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+    }
+
+    @Test
+    public void testOverwrittenEntriesAreNotReturned() {
+        LogLineBuffer buffer = new LogLineBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            buffer.append(LogLine.builder().line("" + i).build(), 1000 * i, "key", 10 * (i + 1));
+        }
+        assertNull(buffer.get(5));
+        assertNotNull(buffer.get(6));
+        assertNull(buffer.get(10));
+        // entry 6 has lines up to 5000 ahead of it
+        assertEquals(-1, buffer.find(4999, buffer.getHead()));
+        assertEquals(6, buffer.find(5000, buffer.getHead()));
+        assertEquals(8, buffer.find(7500, buffer.getHead()));
+        assertEquals(8, buffer.find(new LogCursor("key", 90, 0), buffer.getHead()));
+        assertEquals(-1, buffer.find(new LogCursor("key", 50, 0), buffer.getHead()));
+        assertEquals(-1, buffer.find(new LogCursor("other", 90, 0), buffer.getHead()));
+    }
+
+    @Test
+    public void testBufferedPagesMatchTheLogFile() throws Exception {
+        Random random = new Random(13);
+        append(0, 600, random);
+        LogExtractionServiceImpl buffered = service(200);
+        LogExtractionServiceImpl unbuffered = service(0);
+        buffered.tail();
+        // lines written after the last tail are read from the file
+        append(600, 650, random);
+
+        LogFilter filter = LogFilter.builder().excludedStatuses(new HashSet<>(Collections.singletonList("304"))).build();
+        for (int since : new int[] {100, 450, 500, 590, 640, 700}) {
+            for (int limit : new int[] {7, 1000}) {
+                LocalDateTime time = START.plusSeconds(since);
+                assertEquals(since + "/" + limit, pages(unbuffered, time, limit, null), pages(buffered, time, limit, null));
+                assertEquals(since + "/" + limit, pages(unbuffered, time, limit, filter), pages(buffered, time, limit, filter));
+            }
+        }
+    }
+
+    @Test
+    public void testFirstTailStartsAtTheWindow() throws Exception {
+        Random random = new Random(17);
+        append(0, 600, random);
+        LogExtractionServiceImpl buffered = service(1000);
+        LogExtractionServiceImpl unbuffered = service(0);
+        // the window starts 300 seconds into the log
+        long windowStart = START.plusSeconds(300).toDateTime(DateTimeZone.UTC).getMillis();
+        ReflectionTestUtils.setField(buffered, "tailWindow", System.currentTimeMillis() - windowStart);
+        // as at startup, the index is built first
+        ((LogTailServiceImpl) ReflectionTestUtils.getField(buffered, "logTailService")).indexLogFile();
+        buffered.tail();
+        LogLineBuffer buffer = (LogLineBuffer) ReflectionTestUtils.getField(buffered, "buffer");
+        assertTrue(buffer.getHead() < 400);
+        append(600, 650, random);
+        buffered.tail();
+
+        for (int since : new int[] {100, 290, 350, 640}) {
+            for (int limit : new int[] {7, 1000}) {
+                LocalDateTime time = START.plusSeconds(since);
+                assertEquals(since + "/" + limit, pages(unbuffered, time, limit, null), pages(buffered, time, limit, null));
+            }
+        }
+    }
+
+    /**
+     * Read every page after 'since', following the cursors.
+     */
+    private static List<String> pages(LogExtractionServiceImpl service, LocalDateTime since, int limit,
+            LogFilter filter) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        LogCursor cursor = null;
+        int before;
+        do {
+            before = lines.size();
+            cursor = service.extractLogData(since, cursor, limit, filter, new LogLineConsumer() {
+                @Override
+                public void accept(LogLine logLine) {
+                    lines.add(logLine.getLine().toString());
+                }
+            });
+        } while (lines.size() - before == limit);
+        return lines;
+    }
+
+    private LogExtractionServiceImpl service(int bufferSize) {
+        LogExtractionServiceImpl service = fixture.extractionService();
+        ReflectionTestUtils.setField(service, "bufferSize", bufferSize);
+        return service;
+    }
+
+    /**
+     * Append lines one second apart, some of them out of order, malformed or blank.
+     */
+    private void append(int from, int to, Random random) throws Exception {
+        try (BufferedWriter writer = fixture.writer()) {
+            for (int i = from; i < to; i++) {
+                int kind = random.nextInt(20);
+                if (kind == 0) {
+                    writer.write("\n");
+                } else if (kind == 1) {
+                    writer.write("[malformed " + i + "\n");
+                } else {
+                    int second = kind == 2 ? i - random.nextInt(30) : i;
+                    writer.write("[h" + i + "] [-] [" + START.plusSeconds(second) + " +0000] [   5 ms] ["
+                            + (kind % 4 == 0 ? "304" : "200") + "] [       1] [GET] [/opendap/x" + i + "] [] [1]\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LinePatternConfig;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LogLineConsumer;
+
+import java.io.BufferedWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the /log filter conditions, and that dropping lines before they are decoded
+ * keeps exactly the lines that filtering the decoded lines does.
+ */
+public class LogLineFilterTest {
+    private static final LocalDateTime START = LocalDateTime.parse("2016-06-23T16:48:04.000");
+    private static final String[] STATUSES = {"200", "206", "304", "404"};
+    private static final String[] VERBS = {"HTTP-GET", "GET", "POST"};
+    private static final String[] RESOURCES = {"/opendap/hyrax/data/nc/", "/opendap/hyrax/data/café/",
+            "/opendap/docs/images/", "/opendap/hyrax/data/né/"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogFileFixture fixture;
+    private LinePatternConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+        config = fixture.config;
+    }
+
+    @Test
+    public void testGlob() {
+        assertTrue(LogLineFilter.glob("/opendap/*", "/opendap/hyrax/x.nc", 0, 19));
+        assertTrue(LogLineFilter.glob("*.nc", "/opendap/hyrax/x.nc", 0, 19));
+        assertTrue(LogLineFilter.glob("/opendap/*/?.nc", "/opendap/hyrax/x.nc", 0, 19));
+        assertTrue(LogLineFilter.glob("*", "", 0, 0));
+        assertTrue(LogLineFilter.glob("a*b*c", "xaxbxcx", 1, 6));
+        assertFalse(LogLineFilter.glob("/opendap/*.dods", "/opendap/hyrax/x.nc", 0, 19));
+        assertFalse(LogLineFilter.glob("/opendap/?.nc", "/opendap/hyrax/x.nc", 0, 19));
+        assertFalse(LogLineFilter.glob("a*b*c", "xaxbxcx", 1, 5));
+    }
+
+    @Test
+    public void testConditions() {
+        LogLine logLine = fixture.logLineService.parseLogLine("[h] [-] [2016-06-23T17:50:27.468 +0100] [   19 ms] [ 304 ] "
+                + "[      12] [HTTP-GET] [/opendap/hyrax/data/nc/coads.nc.dods] [] [12]", config);
+
+        assertTrue(matches(LogFilter.builder().statuses(set("200", "304")).build(), logLine));
+        assertFalse(matches(LogFilter.builder().statuses(set("200")).build(), logLine));
+        assertFalse(matches(LogFilter.builder().excludedStatuses(set("304")).build(), logLine));
+        assertTrue(matches(LogFilter.builder().verbs(set("get")).build(), logLine));
+        assertTrue(matches(LogFilter.builder().verbs(set("HTTP-GET")).build(), logLine));
+        assertFalse(matches(LogFilter.builder().verbs(set("POST")).build(), logLine));
+        assertTrue(matches(LogFilter.builder().resourceId("/opendap/hyrax").build(), logLine));
+        assertTrue(matches(LogFilter.builder().resourceId("*.dods").build(), logLine));
+        assertFalse(matches(LogFilter.builder().resourceId("/opendap/docs").build(), logLine));
+        assertFalse(matches(LogFilter.builder().resourceId("/opendap/hyrax").statuses(set("200")).build(), logLine));
+        assertEquals(null, LogLineFilter.compile(LogFilter.builder().fields(Arrays.asList("size")).build(),
+                config.getSchema()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() {
+        LogFilter.builder().fields(Arrays.asList("size", "referrer")).build().check(config.getSchema());
+    }
+
+    @Test
+    public void testThatRawFilteringMatchesDecodedFiltering() throws Exception {
+        Random random = new Random(11);
+        write(3000, random);
+        LogExtractionServiceImpl service = fixture.extractionService();
+        List<LogLine> all = service.extractAllLogData().getLines();
+
+        List<LogFilter> filters = Arrays.asList(
+                LogFilter.builder().excludedStatuses(set("304")).resourceId("/opendap/hyrax").build(),
+                LogFilter.builder().statuses(set("200", "206")).verbs(set("GET")).build(),
+                LogFilter.builder().resourceId("*/café/*").build(),
+                LogFilter.builder().resourceId("/opendap/hyrax/data/n?/*").build(),
+                LogFilter.builder().resourceId("*.dods").verbs(set("post")).build());
+        for (LogFilter filter : filters) {
+            LogLineFilter expected = LogLineFilter.compile(filter, config.getSchema());
+            List<String> wanted = new ArrayList<>();
+            for (LogLine logLine : all) {
+                if (expected.matches(logLine)) {
+                    wanted.add(logLine.getValues().toString());
+                }
+            }
+            final List<String> got = new ArrayList<>();
+            service.extractLogData(null, null, Integer.MAX_VALUE, filter, new LogLineConsumer() {
+                @Override
+                public void accept(LogLine logLine) {
+                    got.add(logLine.getValues().toString());
+                }
+            });
+            assertFalse(wanted.isEmpty());
+            assertEquals(wanted, got);
+        }
+    }
+
+    private boolean matches(LogFilter filter, LogLine logLine) {
+        return LogLineFilter.compile(filter, config.getSchema()).matches(logLine);
+    }
+
+    private static HashSet<String> set(String... values) {
+        HashSet<String> set = new HashSet<>();
+        Collections.addAll(set, values);
+        return set;
+    }
+
+    private void write(int count, Random random) throws Exception {
+        try (BufferedWriter writer = fixture.writer()) {
+            for (int i = 0; i < count; i++) {
+                String resource = RESOURCES[random.nextInt(RESOURCES.length)] + "f" + random.nextInt(100)
+                        + (random.nextBoolean() ? ".nc.dods" : ".png");
+                writer.write("[hé" + i + "] [-] [" + START.plusSeconds(i) + " +0000] [   59 ms] ["
+                        + STATUSES[random.nextInt(STATUSES.length)] + "] [       1] ["
+                        + VERBS[random.nextInt(VERBS.length)] + "] [" + resource + "] [] [" + i + "]\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opendap.harvester.service.LogRequestLimiter;
+import org.opendap.harvester.service.ReporterBusyException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogRequestLimiterTest {
+    private LogRequestLimiterImpl limiter;
+
+    @Before
+    public void setUp() {
+        limiter = new LogRequestLimiterImpl();
+        ReflectionTestUtils.setField(limiter, "maxConcurrent", 2);
+        ReflectionTestUtils.setField(limiter, "maxQueued", 1);
+        ReflectionTestUtils.setField(limiter, "queueTimeout", 5000L);
+        ReflectionTestUtils.setField(limiter, "retryAfter", 7L);
+    }
+
+    @Test
+    public void testWaitingRequestGetsTheNextPermit() throws Exception {
+        LogRequestLimiter.Permit first = limiter.acquire();
+        limiter.acquire();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<LogRequestLimiter.Permit> waiting = executor.submit(new Callable<LogRequestLimiter.Permit>() {
+                @Override
+                public LogRequestLimiter.Permit call() {
+                    return limiter.acquire();
+                }
+            });
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            first.release();
+            assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullQueueIsRefusedAtOnce() throws Exception {
+        limiter.acquire();
+        limiter.acquire();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    limiter.acquire();
+                }
+            });
+            Thread.sleep(100);
+            long start = System.currentTimeMillis();
+            try {
+                limiter.acquire();
+                fail("The queue is full");
+            } catch (ReporterBusyException e) {
+                assertTrue(e.isQueueFull());
+                assertEquals(7, e.getRetryAfter());
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaitIsLimited() {
+        ReflectionTestUtils.setField(limiter, "queueTimeout", 100L);
+        limiter.acquire();
+        limiter.acquire();
+        long start = System.currentTimeMillis();
+        try {
+            limiter.acquire();
+            fail("No permit is released");
+        } catch (ReporterBusyException e) {
+            assertFalse(e.isQueueFull());
+        }
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        // the request that timed out is not waiting any more
+        ReflectionTestUtils.setField(limiter, "maxQueued", 0);
+        try {
+            limiter.acquire();
+            fail("The queue is full");
+        } catch (ReporterBusyException e) {
+            assertTrue(e.isQueueFull());
+        }
+    }
+
+    @Test
+    public void testPermitIsReleasedOnce() {
+        ReflectionTestUtils.setField(limiter, "queueTimeout", 0L);
+        LogRequestLimiter.Permit permit = limiter.acquire();
+        permit.release();
+        permit.release();
+        limiter.acquire();
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            fail("Both permits are taken");
+        } catch (ReporterBusyException e) {
+            assertFalse(e.isQueueFull());
+        }
+    }
+
+    @Test
+    public void testReserveDoesNotWait() {
+        long start = System.currentTimeMillis();
+        limiter.reserve();
+        limiter.reserve();
+        LogRequestLimiter.Ticket queued = limiter.reserve();
+        try {
+            limiter.reserve();
+            fail("The queue is full");
+        } catch (ReporterBusyException e) {
+            assertTrue(e.isQueueFull());
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        // a cancelled ticket gives its place back, and can not be used any more
+        queued.cancel();
+        limiter.reserve();
+        try {
+            queued.await();
+            fail("The ticket is cancelled");
+        } catch (ReporterBusyException e) {
+            assertFalse(e.isQueueFull());
+        }
+    }
+
+    /**
+     * As on the async pool: the place is reserved on the request thread and the turn
+     * waited for in the task; a request that times out has its task cancelled (with an
+     * interrupt) and its ticket cancelled, whether its task is reading, waiting for a
+     * permit or still in the pool's queue.
+     */
+    @Test
+    public void testTimedOutRequestsGiveTheirPermitsBack() throws Exception {
+        ReflectionTestUtils.setField(limiter, "maxQueued", 2);
+        final CountDownLatch reading = new CountDownLatch(2);
+        final CountDownLatch finish = new CountDownLatch(1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(3, 3, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        List<LogRequestLimiter.Ticket> tickets = new ArrayList<>();
+        List<Future<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final LogRequestLimiter.Ticket ticket = limiter.reserve();
+            tickets.add(ticket);
+            requests.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        ticket.await();
+                        reading.countDown();
+                        finish.await();
+                    } finally {
+                        ticket.release();
+                    }
+                    return null;
+                }
+            }));
+        }
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        // two reading, one waiting for a permit and one in the pool's queue
+        assertEquals(1, executor.getQueue().size());
+
+        for (int i = 0; i < requests.size(); i++) {
+            requests.get(i).cancel(true);
+            tickets.get(i).cancel();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // Both permits are back and no request is counted as waiting
+        ReflectionTestUtils.setField(limiter, "maxQueued", 0);
+        limiter.acquire();
+        limiter.acquire();
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opendap.harvester.service.LogResponseCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class LogResponseCacheTest {
+    private LogResponseCacheImpl cache;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new LogResponseCacheImpl();
+        ReflectionTestUtils.setField(cache, "ttl", 60000L);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1000L);
+        ReflectionTestUtils.setField(cache, "maxResponseBytes", 100);
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneRead() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<byte[]> first = executor.submit(request("a", response("a"), release));
+            while (reads.get() == 0) {
+                Thread.sleep(1);
+            }
+            Future<byte[]> second = executor.submit(request("a", response("a"), release));
+            Future<byte[]> other = executor.submit(request("b", response("b"), release));
+            Thread.sleep(100);
+            release.countDown();
+            assertArrayEquals(response("a"), first.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(response("a"), second.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(response("b"), other.get(5, TimeUnit.SECONDS));
+            assertEquals(2, reads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResponseIsKeptForItsKey() throws Exception {
+        assertNull(cache.get("a\n1:7:100"));
+        request("a\n1:7:100", response("a"), null).call();
+        assertArrayEquals(response("a"), cache.get("a\n1:7:100"));
+        assertArrayEquals(response("a"), request("a\n1:7:100", response("x"), null).call());
+        assertEquals(1, reads.get());
+
+        // the log has been written to
+        assertNull(cache.get("a\n1:22:200"));
+        assertArrayEquals(response("x"), request("a\n1:22:200", response("x"), null).call());
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testResponseExpires() throws Exception {
+        ReflectionTestUtils.setField(cache, "ttl", 50L);
+        request("a", response("a"), null).call();
+        assertArrayEquals(response("a"), cache.get("a"));
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testLargeResponseIsNotKeptOrShared() throws Exception {
+        final byte[] large = new byte[200];
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(request("a", large, release));
+            while (reads.get() == 0) {
+                Thread.sleep(1);
+            }
+            Future<byte[]> second = executor.submit(request("a", large, release));
+            Thread.sleep(100);
+            release.countDown();
+            assertArrayEquals(large, first.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(large, second.get(5, TimeUnit.SECONDS));
+            assertEquals(2, reads.get());
+            assertNull(cache.get("a"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedGoFirst() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            request("k" + i, new byte[90], null).call();
+        }
+        assertNull(cache.get("k0"));
+        assertArrayEquals(new byte[90], cache.get("k19"));
+        long kept = 0;
+        for (int i = 0; i < 20; i++) {
+            kept += cache.get("k" + i) != null ? 90 : 0;
+        }
+        assertEquals(990, kept);
+    }
+
+    @Test
+    public void testResponseIsKeptWhenTheFirstClientGoesAway() throws Exception {
+        OutputStream gone = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        try {
+            cache.write("a", gone, writer(response("a"), null));
+            fail("The client has gone");
+        } catch (IOException e) {
+            assertEquals("Broken pipe", e.getMessage());
+        }
+        assertArrayEquals(response("a"), cache.get("a"));
+    }
+
+    private Callable<byte[]> request(final String key, final byte[] response, final CountDownLatch release) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                cache.write(key, out, writer(response, release));
+                return out.toByteArray();
+            }
+        };
+    }
+
+    private LogResponseCache.ResponseWriter writer(final byte[] response, final CountDownLatch release) {
+        return new LogResponseCache.ResponseWriter() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                reads.incrementAndGet();
+                try {
+                    if (release != null) {
+                        release.await();
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                outputStream.write(response, 0, response.length / 2);
+                outputStream.write(response, response.length / 2, response.length - response.length / 2);
+                outputStream.close();
+            }
+        };
+    }
+
+    private static byte[] response(String key) {
+        return ("{\"lines\":[\"" + key + "\"]}").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogStats;
+import org.opendap.harvester.entity.LogStatsQuery;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LogStatsServiceTest {
+    private static final LocalDateTime START = LogFileFixture.START;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LogStatsServiceImpl logStatsService = new LogStatsServiceImpl();
+
+    @Before
+    public void setUp() throws Exception {
+        LogFileFixture fixture = new LogFileFixture(folder);
+        // 6 lines a minute apart, over two resources; every third line is a 304
+        try (BufferedWriter writer = fixture.writer()) {
+            for (int i = 0; i < 6; i++) {
+                writer.write("[h] [-] [" + START.plusSeconds(30 * i) + " +0000] [   " + (10 + i) + " ms] ["
+                        + (i % 3 == 2 ? "304" : "200") + "] [       1] [HTTP-GET] [/opendap/data/"
+                        + (i % 2 == 0 ? "a.nc" : "b.nc") + "] [] [" + (i % 3 == 2 ? "-" : "      " + 100 * i) + "]\n");
+            }
+        }
+
+        ReflectionTestUtils.setField(logStatsService, "logExtractionService", fixture.extractionService());
+        ReflectionTestUtils.setField(logStatsService, "logLineService", fixture.logLineService);
+        ReflectionTestUtils.setField(logStatsService, "linePatternService", fixture.linePatternService);
+        ReflectionTestUtils.setField(logStatsService, "maxGroups", 100);
+    }
+
+    @Test
+    public void testGroupByFieldWithMetrics() throws Exception {
+        LogStats stats = logStatsService.getStats(LogStatsQuery.builder()
+                .groupBy(Collections.singletonList("httpStatus"))
+                .metrics(Arrays.asList("size", "duration"))
+                .build());
+
+        assertEquals(6, stats.getLines());
+        assertEquals(2, stats.getGroups().size());
+        LogStats.Group ok = stats.getGroups().get(0);
+        assertEquals("200", ok.getKey().get("httpStatus"));
+        assertEquals(4, ok.getCount());
+        assertEquals(0 + 100 + 300 + 400, ok.getMetrics().get("size").getSum());
+        assertEquals(Long.valueOf(0), ok.getMetrics().get("size").getMin());
+        assertEquals(Long.valueOf(400), ok.getMetrics().get("size").getMax());
+        assertEquals(10 + 11 + 13 + 14, ok.getMetrics().get("duration").getSum());
+        LogStats.Group notModified = stats.getGroups().get(1);
+        assertEquals(2, notModified.getCount());
+        assertEquals(0, notModified.getMetrics().get("size").getCount());
+        assertNull(notModified.getMetrics().get("size").getMin());
+    }
+
+    @Test
+    public void testIntervalAndRange() throws Exception {
+        LogStats stats = logStatsService.getStats(LogStatsQuery.builder()
+                .since(START)
+                .until(START.plusSeconds(120))
+                .groupBy(Collections.singletonList("resourceId"))
+                .interval(60)
+                .filter(LogFilter.builder().excludedStatuses(new HashSet<>(Collections.singletonList("304"))).build())
+                .build());
+
+        // lines 1 to 4 are in range; line 2 is a 304
+        assertEquals(3, stats.getLines());
+        assertEquals(3, stats.getGroups().size());
+        assertEquals("2016-06-23T16:48:00.000", stats.getGroups().get(0).getKey().get("time"));
+        assertEquals("/opendap/data/b.nc", stats.getGroups().get(0).getKey().get("resourceId"));
+        assertEquals("2016-06-23T16:49:00.000", stats.getGroups().get(1).getKey().get("time"));
+        assertEquals("/opendap/data/b.nc", stats.getGroups().get(1).getKey().get("resourceId"));
+        assertEquals("2016-06-23T16:50:00.000", stats.getGroups().get(2).getKey().get("time"));
+        assertEquals("/opendap/data/a.nc", stats.getGroups().get(2).getKey().get("resourceId"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() throws Exception {
+        logStatsService.getStats(LogStatsQuery.builder().groupBy(Collections.singletonList("referrer")).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyGroups() throws Exception {
+        ReflectionTestUtils.setField(logStatsService, "maxGroups", 3);
+        logStatsService.getStats(LogStatsQuery.builder().groupBy(Collections.singletonList("localDateTime")).build());
+    }
+}
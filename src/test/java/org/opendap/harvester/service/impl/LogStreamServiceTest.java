@@ -0,0 +1,184 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LogFilter;
+import org.opendap.harvester.entity.LogLine;
+import org.opendap.harvester.service.LogStreamService;
+import org.opendap.harvester.service.ReporterBusyException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogStreamServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogFileFixture fixture;
+    private LogStreamServiceImpl streamService;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+
+        streamService = new LogStreamServiceImpl();
+        ReflectionTestUtils.setField(streamService, "logExtractionService", fixture.extractionService());
+        ReflectionTestUtils.setField(streamService, "linePatternService", fixture.linePatternService);
+        ReflectionTestUtils.setField(streamService, "queueSize", 100);
+        ReflectionTestUtils.setField(streamService, "maxSubscribers", 10);
+        ReflectionTestUtils.setField(streamService, "heartbeat", 50L);
+    }
+
+    @Test
+    public void testNewLinesGoToEverySubscriberItsFilterKeeps() throws Exception {
+        fixture.append(0, 10);
+        Collector all = new Collector(20);
+        Collector notFound = new Collector(5);
+        streamService.subscribe(null, all);
+        streamService.subscribe(LogFilter.builder().statuses(Collections.singleton("404")).build(), notFound);
+
+        // only the lines written after subscribing
+        fixture.append(10, 30);
+        assertEquals(20, streamService.publish());
+        assertTrue(all.done.await(5, TimeUnit.SECONDS));
+        assertTrue(notFound.done.await(5, TimeUnit.SECONDS));
+        assertEquals(hosts(10, 30, 1), all.hosts);
+        assertEquals(hosts(10, 30, 4), notFound.hosts);
+        assertEquals(0, streamService.publish());
+    }
+
+    @Test
+    public void testSlowSubscriberIsDroppedWithoutHoldingUpTheOthers() throws Exception {
+        ReflectionTestUtils.setField(streamService, "queueSize", 5);
+        Collector fast = new Collector(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        Collector slow = new Collector(100) {
+            @Override
+            public void accept(LogLine logLine) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.accept(logLine);
+            }
+        };
+        streamService.subscribe(null, slow);
+        streamService.subscribe(null, fast);
+        for (int i = 0; i < 20; i++) {
+            fixture.append(i * 5, i * 5 + 5);
+            streamService.publish();
+            // the fast subscriber keeps up, so its queue never fills
+            while (fast.hosts.size() < i * 5 + 5) {
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+        assertEquals(hosts(0, 100, 1), fast.hosts);
+        release.countDown();
+        assertTrue(slow.ended.await(5, TimeUnit.SECONDS));
+        assertTrue(slow.dropped);
+        assertFalse(fast.dropped);
+    }
+
+    @Test
+    public void testClosedSubscriptionEndsAndGetsNoLines() throws Exception {
+        Collector collector = new Collector(1);
+        LogStreamService.Subscription subscription = streamService.subscribe(null, collector);
+        assertTrue(collector.heartbeats.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        assertTrue(collector.ended.await(5, TimeUnit.SECONDS));
+        assertFalse(collector.dropped);
+        fixture.append(0, 5);
+        // with no subscribers left nothing is read
+        assertEquals(0, streamService.publish());
+        assertTrue(collector.hosts.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterOnAnUnknownFieldIsRefused() throws Exception {
+        streamService.subscribe(LogFilter.builder().fields(Collections.singletonList("nope")).build(), new Collector(1));
+    }
+
+    @Test(expected = ReporterBusyException.class)
+    public void testSubscribersAreLimited() throws Exception {
+        ReflectionTestUtils.setField(streamService, "maxSubscribers", 1);
+        streamService.subscribe(null, new Collector(1));
+        streamService.subscribe(null, new Collector(1));
+    }
+
+    private static class Collector implements LogStreamService.Subscriber {
+        final List<String> hosts = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done;
+        final CountDownLatch heartbeats = new CountDownLatch(2);
+        final CountDownLatch ended = new CountDownLatch(1);
+        volatile boolean dropped = false;
+
+        Collector(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void accept(LogLine logLine) throws IOException {
+            hosts.add(logLine.getValues().get("host"));
+            done.countDown();
+        }
+
+        @Override
+        public void heartbeat() {
+            heartbeats.countDown();
+        }
+
+        @Override
+        public void end(boolean dropped) {
+            this.dropped = dropped;
+            ended.countDown();
+        }
+    }
+
+    private static List<String> hosts(int from, int to, int step) {
+        List<String> hosts = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            if (i % step == 0) {
+                hosts.add("h" + i);
+            }
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,436 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LogCursor;
+import org.opendap.harvester.entity.LogFileState;
+import org.opendap.harvester.service.LogChunkConsumer;
+import org.opendap.harvester.service.LogLineHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class LogTailServiceTest {
+    private static final LocalDateTime START = LocalDateTime.parse("2016-06-23T16:48:04.000");
+    private static final int LINES = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogFileFixture fixture;
+    private LogTailServiceImpl logTailService;
+    private File checkpoint;
+    private Path logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+        logFile = fixture.logFile;
+        checkpoint = new File(folder.getRoot(), "reporter.checkpoint");
+        when(fixture.configurationExtractor.getCheckpointPath()).thenReturn(checkpoint.getPath());
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines.append(line(i));
+        }
+        Files.write(logFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+        logTailService = fixture.tailService(512L, 1048576L);
+    }
+
+    @Test
+    public void testThatAllLinesAreReadWithoutSince() throws Exception {
+        assertEquals(LINES, read(logTailService, null).size());
+    }
+
+    @Test
+    public void testThatIndexSkipsLinesBeforeSince() throws Exception {
+        read(logTailService, null);
+
+        LocalDateTime since = START.plusSeconds(LINES / 2);
+        List<Long> times = read(logTailService, since);
+        assertTrue(times.size() < LINES);
+        assertTrue(times.contains(toMillis(START.plusSeconds(LINES / 2 + 1))));
+        assertTrue(times.get(0) <= toMillis(since));
+    }
+
+    @Test
+    public void testThatCheckpointSkipsEverythingAlreadyRead() throws Exception {
+        read(logTailService, null);
+
+        assertEquals(0, read(logTailService, START.plusSeconds(LINES - 1)).size());
+        Files.write(logFile, line(LINES).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(1, read(logTailService, START.plusSeconds(LINES - 1)).size());
+    }
+
+    @Test
+    public void testThatIndexSurvivesRestart() throws Exception {
+        logTailService.indexLogFile();
+
+        LogTailServiceImpl restarted = fixture.tailService(512L, 1048576L);
+        assertEquals(0, read(restarted, START.plusSeconds(LINES - 1)).size());
+        assertTrue(read(restarted, START.plusSeconds(LINES / 2)).size() < LINES);
+    }
+
+    @Test
+    public void testThatTruncatedFileIsReadFromTheStart() throws Exception {
+        read(logTailService, null);
+        Files.write(logFile, line(LINES).getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertEquals(1, read(logTailService, START.plusSeconds(LINES - 1)).size());
+    }
+
+    @Test
+    public void testThatFileStateChangesWhenTheLogIsWritten() throws Exception {
+        LogFileState state = logTailService.getLogFileState();
+        assertEquals(Files.size(logFile), state.getSize());
+        assertEquals(state.getGeneration(), logTailService.getLogFileState().getGeneration());
+
+        Files.write(logFile, line(LINES).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertNotEquals(state.getGeneration(), logTailService.getLogFileState().getGeneration());
+
+        Files.delete(logFile);
+        assertNull(logTailService.getLogFileState());
+    }
+
+    @Test
+    public void testThatReaderStopsAtPartialLine() throws Exception {
+        Files.write(logFile, "[partial".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        long start = Files.size(logFile) - line(LINES - 1).length() - "[partial".length();
+        try (LogLineReader reader = new LogLineReader(logFile, start, StandardCharsets.UTF_8)) {
+            assertEquals(line(LINES - 1).trim(), reader.readLine().toString());
+            assertNull(reader.readLine());
+            assertEquals(Files.size(logFile) - "[partial".length(), reader.getOffset());
+        }
+    }
+
+    @Test
+    public void testThatTheLogFileCanShrinkWhileItIsRead() throws Exception {
+        ReflectionTestUtils.setField(logTailService, "chunkSize", Long.MAX_VALUE);
+        final int[] lines = {0};
+        logTailService.readLines(null, (LogCursor) null, new LogLineHandler() {
+            @Override
+            public long handle(CharSequence line) {
+                assertTrue(line.toString().startsWith("[-]"));
+                if (++lines[0] == 1) {
+                    // as logrotate's copytruncate does; the read must not fault
+                    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                        channel.truncate(0);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return NO_TIME;
+            }
+        });
+        assertEquals(0, Files.size(logFile));
+    }
+
+    @Test
+    public void testThatRotatedFilesAreReadOldestFirst() throws Exception {
+        writeRotatedFiles();
+
+        List<Long> times = read(logTailService, null);
+        assertEquals(LINES + 200, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(toMillis(START.plusSeconds(i - 200)), (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void testThatSinceOnlyReadsRotatedFilesAfterIt() throws Exception {
+        writeRotatedFiles();
+
+        List<Long> times = read(logTailService, START.plusSeconds(-50));
+        assertEquals(100 + LINES, times.size());
+        assertEquals(toMillis(START.plusSeconds(-100)), (long) times.get(0));
+        assertTrue(new File(checkpoint.getPath() + ".catalog").exists());
+
+        // Everything in the rotated files is before 'since' now
+        List<Long> later = read(logTailService, START.plusSeconds(LINES / 2));
+        assertTrue(later.size() < LINES);
+        assertTrue(later.get(0) >= toMillis(START));
+    }
+
+    @Test
+    public void testThatCursorPagesThroughEveryLineOnce() throws Exception {
+        writeRotatedFiles();
+        StringBuilder sameTime = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            sameTime.append(line(LINES));
+        }
+        Files.write(logFile, sameTime.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<Long> times = new ArrayList<>();
+        LogCursor cursor = null;
+        TimeHandler page;
+        do {
+            page = new TimeHandler(7);
+            cursor = logTailService.readLines(null, cursor == null ? null : LogCursor.decode(cursor.encode()), page);
+            times.addAll(page.times);
+        } while (page.times.size() == 7);
+
+        assertEquals(200 + LINES + 5, times.size());
+        for (int i = 0; i < 200 + LINES; i++) {
+            assertEquals(toMillis(START.plusSeconds(i - 200)), (long) times.get(i));
+        }
+        assertEquals(toMillis(START.plusSeconds(LINES)), (long) times.get(times.size() - 1));
+    }
+
+    @Test
+    public void testThatCursorFollowsTheLogWhenItIsRotated() throws Exception {
+        TimeHandler page = new TimeHandler(10);
+        LogCursor cursor = logTailService.readLines(null, (LogCursor) null, page);
+        assertEquals(10, page.times.size());
+
+        Files.move(logFile, logFile.resolveSibling("AnonymousAccess.log.1"));
+        StringBuilder lines = new StringBuilder();
+        for (int i = LINES; i < LINES + 10; i++) {
+            lines.append(line(i));
+        }
+        Files.write(logFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        page = new TimeHandler();
+        logTailService.readLines(null, cursor, page);
+        assertEquals(LINES, page.times.size());
+        assertEquals(toMillis(START.plusSeconds(10)), (long) page.times.get(0));
+        assertEquals(toMillis(START.plusSeconds(LINES + 9)), (long) page.times.get(LINES - 1));
+    }
+
+    @Test
+    public void testThatReaderMapsTheFileInWindows() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("[").append(i).append("] caf\u00e9 ");
+            for (int j = 0; j < i % 37; j++) {
+                text.append("\u00fc\u20ac");
+            }
+            text.append(i % 5 == 0 ? "\r\n" : "\n");
+        }
+        String[] expected = text.toString().split("\r?\n");
+
+        // UTF-8 lines are views of the window's bytes, mapped or read, windows-1252
+        // lines are decoded
+        for (Charset charset : new Charset[] {StandardCharsets.UTF_8, Charset.forName("windows-1252")}) {
+            Files.write(logFile, text.toString().getBytes(charset));
+            for (boolean map : new boolean[] {true, false}) {
+                try (LogLineReader reader = new LogLineReader(logFile, 0, Long.MAX_VALUE, charset, map, 64)) {
+                    for (String line : expected) {
+                        assertEquals(line, reader.readLine().toString());
+                    }
+                    assertNull(reader.readLine());
+                    assertEquals(Files.size(logFile), reader.getOffset());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testThatParallelReadMatchesSequentialRead() throws Exception {
+        ReflectionTestUtils.setField(logTailService, "chunkSize", 256L);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final List<Long> times = new ArrayList<>();
+            final int[] chunks = {0};
+            logTailService.readLines(null, pool, new Supplier<TimeHandler>() {
+                @Override
+                public TimeHandler get() {
+                    return new TimeHandler();
+                }
+            }, new LogChunkConsumer<TimeHandler>() {
+                @Override
+                public void accept(TimeHandler handler) {
+                    times.addAll(handler.times);
+                    chunks[0]++;
+                }
+            });
+            assertTrue(chunks[0] > 1);
+
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < LINES; i++) {
+                expected.add(toMillis(START.plusSeconds(i)));
+            }
+            assertEquals(expected, times);
+            // The index was extended from the chunks just as from a sequential read
+            assertEquals(0, read(logTailService, START.plusSeconds(LINES - 1)).size());
+            assertTrue(read(logTailService, START.plusSeconds(LINES / 2)).size() < LINES / 2 + 10);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatUntilStopsTheRead() throws Exception {
+        // Line 17 is written again after line 25, as Hyrax does for a slow request
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines.append(line(i));
+            if (i == 25) {
+                lines.append(line(17));
+            }
+        }
+        Files.write(logFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+        ReflectionTestUtils.setField(logTailService, "disorder", 10000L);
+        ReflectionTestUtils.setField(logTailService, "chunkSize", 256L);
+        LocalDateTime until = START.plusSeconds(20);
+
+        TimeHandler handler = new TimeHandler();
+        logTailService.readLines(null, until, handler);
+        // The read stops at the first line more than 10 s past 'until'
+        assertEquals(toMillis(START.plusSeconds(31)), (long) handler.times.get(handler.times.size() - 1));
+        List<Long> expected = upTo(handler.times, until);
+        assertEquals(22, expected.size());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Once with no index and once with the index of the whole file
+            for (int pass = 0; pass < 2; pass++) {
+                final List<Long> times = new ArrayList<>();
+                logTailService.readLines(null, until, pool, new Supplier<TimeHandler>() {
+                    @Override
+                    public TimeHandler get() {
+                        return new TimeHandler();
+                    }
+                }, new LogChunkConsumer<TimeHandler>() {
+                    @Override
+                    public void accept(TimeHandler handler) {
+                        times.addAll(handler.times);
+                    }
+                });
+                assertEquals(expected, upTo(times, until));
+                assertTrue(times.size() < LINES);
+                // Stopping early did not leave a gap in the index
+                assertTrue(read(logTailService, START.plusSeconds(50)).contains(toMillis(START.plusSeconds(51))));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<Long> upTo(List<Long> times, LocalDateTime until) {
+        List<Long> kept = new ArrayList<>();
+        for (long time : times) {
+            if (time <= toMillis(until)) {
+                kept.add(time);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Write the lines before the ones in the log file to AnonymousAccess.log.2.gz
+     * (the oldest) and AnonymousAccess.log.1.
+     */
+    private void writeRotatedFiles() throws Exception {
+        Path older = logFile.resolveSibling("AnonymousAccess.log.2.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(older)),
+                StandardCharsets.UTF_8)) {
+            for (int i = -200; i < -100; i++) {
+                writer.write(line(i));
+            }
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = -100; i < 0; i++) {
+            lines.append(line(i));
+        }
+        Path old = logFile.resolveSibling("AnonymousAccess.log.1");
+        Files.write(old, lines.toString().getBytes(StandardCharsets.UTF_8));
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(older, FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(old, FileTime.fromMillis(now - 10000));
+    }
+
+    /**
+     * Read the log file and return the times of the lines passed to the handler.
+     */
+    private List<Long> read(LogTailServiceImpl service, LocalDateTime since) throws Exception {
+        TimeHandler handler = new TimeHandler();
+        service.readLines(since, handler);
+        return handler.times;
+    }
+
+    private static class TimeHandler implements LogLineHandler {
+        private final List<Long> times = new ArrayList<>();
+        private final int limit;
+
+        TimeHandler() {
+            this(Integer.MAX_VALUE);
+        }
+
+        TimeHandler(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean isDone() {
+            return times.size() >= limit;
+        }
+
+        @Override
+        public long handle(CharSequence rawLine) {
+            String line = rawLine.toString();
+            String time = line.substring(line.indexOf("] [2") + 3, line.indexOf(" +0000]"));
+            long millis = toMillis(LocalDateTime.parse(time));
+            times.add(millis);
+            return millis;
+        }
+    }
+
+    private static String line(int i) {
+        return "[-] [-] [" + START.plusSeconds(i) + " +0000] [   59 ms] [200] [       1] [GET] [/opendap/hyrax/] [] [0]\n";
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.toDateTime(DateTimeZone.UTC).getMillis();
+    }
+}
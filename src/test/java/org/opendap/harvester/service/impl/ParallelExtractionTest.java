@@ -0,0 +1,150 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LogLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that parsing the log file in parallel gives exactly what parsing it on one
+ * thread does, and log how the time scales with the number of threads.
+ */
+public class ParallelExtractionTest {
+    private static final Logger log = LoggerFactory.getLogger(ParallelExtractionTest.class);
+
+    private static final LocalDateTime START = LocalDateTime.parse("2016-06-23T16:48:04.000");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<LogExtractionServiceImpl> services = new ArrayList<>();
+
+    private LogFileFixture fixture;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+    }
+
+    @After
+    public void tearDown() {
+        for (LogExtractionServiceImpl service : services) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatParallelParsingMatchesSequentialParsing() throws Exception {
+        write(5000, new Random(3));
+
+        List<LogLine> all = service(1, 4096).extractAllLogData().getLines();
+        List<String> expected = lines(all);
+        LocalDateTime since = START.plusSeconds(2500);
+        List<LogLine> after = new ArrayList<>();
+        for (LogLine logLine : all) {
+            if (fixture.logLineService.getLocalDateTime(logLine).isAfter(since)) {
+                after.add(logLine);
+            }
+        }
+        List<String> expectedSince = lines(after);
+        assertEquals(expectedSince, lines(service(1, 4096).extractLogDataSince(since).getLines()));
+        for (int threads : new int[] {2, 3, 8}) {
+            assertEquals(expected, lines(service(threads, 4096).extractAllLogData().getLines()));
+            assertEquals(expectedSince, lines(service(threads, 4096).extractLogDataSince(since).getLines()));
+        }
+    }
+
+    @Test
+    public void testParallelParsingScaling() throws Exception {
+        write(200000, new Random(7));
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        int expected = -1;
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            LogExtractionServiceImpl service = service(threads, 1048576);
+            service.extractAllLogData();
+            long start = System.nanoTime();
+            int size = service.extractAllLogData().getLines().size();
+            long elapsed = System.nanoTime() - start;
+            if (expected < 0) {
+                expected = size;
+            }
+            assertEquals(expected, size);
+            log.info("Parsing " + size + " lines with " + threads + " threads: " + elapsed / 1000000 + " ms");
+        }
+    }
+
+    private LogExtractionServiceImpl service(int threads, long chunkSize) {
+        LogExtractionServiceImpl service = fixture.extractionService(fixture.tailService(65536L, chunkSize), threads);
+        services.add(service);
+        return service;
+    }
+
+    /**
+     * Write a log with some blank, malformed and CRLF-terminated lines, and lines
+     * that are out of time order.
+     */
+    private void write(int count, Random random) throws Exception {
+        try (BufferedWriter writer = fixture.writer()) {
+            for (int i = 0; i < count; i++) {
+                int kind = random.nextInt(50);
+                if (kind == 0) {
+                    writer.write("\n");
+                } else if (kind == 1) {
+                    writer.write("[malformed " + i + "\n");
+                } else {
+                    int second = kind == 2 ? i - random.nextInt(100) : i;
+                    writer.write("[h" + i + "] [-] [" + START.plusSeconds(second) + " +0000] [   59 ms] [200] [       1] [GET] ["
+                            + "/opendap/hyrax/data/caf\u00e9/fnoc" + random.nextInt(1000) + ".nc.dods] [] [" + i + "]"
+                            + (kind == 3 ? "\r\n" : "\n"));
+                }
+            }
+        }
+    }
+
+    private static List<String> lines(List<LogLine> logLines) {
+        List<String> lines = new ArrayList<>();
+        for (LogLine logLine : logLines) {
+            lines.add(logLine.getValues().toString());
+        }
+        return lines;
+    }
+}
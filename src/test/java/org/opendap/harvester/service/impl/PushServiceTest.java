@@ -0,0 +1,290 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+package org.opendap.harvester.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Push log lines to a stand-in collector on a local port.
+ */
+public class PushServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogFileFixture fixture;
+    private HttpServer collector;
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> cursors = Collections.synchronizedList(new ArrayList<String>());
+    // Requests to fail with a 503 before the collector takes any, and how long it takes
+    private final AtomicInteger failing = new AtomicInteger();
+    private volatile long delay = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new LogFileFixture(folder);
+        when(fixture.configurationExtractor.getCheckpointPath()).thenReturn(folder.getRoot() + "/reporter.checkpoint");
+        when(fixture.configurationExtractor.getReporterUrl()).thenReturn("http://localhost/reporter");
+
+        collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        collector.createContext("/collector/push", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = read(exchange.getRequestBody());
+                if (failing.getAndDecrement() > 0) {
+                    exchange.getResponseHeaders().set("Retry-After", "0");
+                    exchange.sendResponseHeaders(503, -1);
+                } else {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    bodies.add(body);
+                    cursors.add(exchange.getRequestHeaders().getFirst(PushServiceImpl.CURSOR_HEADER));
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                exchange.close();
+            }
+        });
+        collector.start();
+    }
+
+    @After
+    public void tearDown() {
+        collector.stop(0);
+    }
+
+    @Test
+    public void testOnlyNewLinesArePushedInOrder() throws Exception {
+        fixture.append(0, 20);
+        PushServiceImpl pushService = service(100, 1048576, 0);
+        assertEquals(0, pushService.push());
+
+        fixture.append(20, 270);
+        assertEquals(250, pushService.push());
+        assertEquals(expected(20, 270), received());
+        assertEquals(3, bodies.size());
+        assertEquals(0, pushService.push());
+
+        // a new service carries on from the saved cursor
+        fixture.append(270, 280);
+        assertEquals(10, service(100, 1048576, 0).push());
+        assertEquals(expected(20, 280), received());
+    }
+
+    @Test
+    public void testPartialBatchWaitsForItsAge() throws Exception {
+        PushServiceImpl pushService = service(100, 1048576, 200);
+        pushService.push();
+        fixture.append(0, 10);
+        assertEquals(0, pushService.push());
+        Thread.sleep(250);
+        assertEquals(10, pushService.push());
+        assertEquals(expected(0, 10), received());
+    }
+
+    @Test
+    public void testFailuresBackOffAndHalveTheBatch() throws Exception {
+        PushServiceImpl pushService = service(100, 1048576, 0);
+        pushService.push();
+        fixture.append(0, 150);
+
+        failing.set(2);
+        assertEquals(0, pushService.push());
+        assertEquals(50, ReflectionTestUtils.getField(pushService, "batchLines"));
+        assertEquals(0, pushService.push());
+        assertEquals(25, ReflectionTestUtils.getField(pushService, "batchLines"));
+        assertEquals(150, pushService.push());
+        assertEquals(expected(0, 150), received());
+
+        // without a Retry-After the back-off is a random time under the initial one,
+        // then twice that
+        ReflectionTestUtils.setField(pushService, "initialBackoff", 60000L);
+        collector.removeContext("/collector/push");
+        fixture.append(150, 160);
+        assertEquals(0, pushService.push());
+        long wait = (Long) ReflectionTestUtils.getField(pushService, "nextAttempt") - System.currentTimeMillis();
+        assertTrue(wait > 20000 && wait <= 60000);
+        assertEquals(0, pushService.push());
+        assertEquals(expected(0, 150), received());
+    }
+
+    @Test
+    public void testSlowCollectorGetsSmallerBatches() throws Exception {
+        PushServiceImpl pushService = service(64, 1048576, 0);
+        ReflectionTestUtils.setField(pushService, "latencyTarget", 20L);
+        pushService.push();
+        fixture.append(0, 200);
+
+        delay = 50;
+        assertEquals(200, pushService.push());
+        assertEquals(expected(0, 200), received());
+        assertEquals(1, ReflectionTestUtils.getField(pushService, "batchLines"));
+    }
+
+    @Test
+    public void testBatchesAreCutByBytes() throws Exception {
+        PushServiceImpl pushService = service(100, 2000, 0);
+        pushService.push();
+        fixture.append(0, 100);
+        assertEquals(100, pushService.push());
+        assertEquals(expected(0, 100), received());
+        assertBatchesAreCutByBytes(2000);
+    }
+
+    @Test
+    public void testSpooledBatchesAreCutByBytes() throws Exception {
+        PushServiceImpl pushService = spooled(service(100, 2000, 0));
+        pushService.push();
+        fixture.append(0, 100);
+        failing.set(1);
+        assertEquals(0, pushService.push());
+        assertEquals(100, pushService.push());
+        assertEquals(expected(0, 100), received());
+        assertBatchesAreCutByBytes(2000);
+    }
+
+    /**
+     * Every request holds at most 'bytes' bytes and carries the cursor of its own
+     * last line, so a collector that drops the cursors it has seen drops none of them.
+     */
+    private void assertBatchesAreCutByBytes(int bytes) {
+        assertTrue(bodies.size() > 1);
+        for (String body : bodies) {
+            assertTrue(body.getBytes(StandardCharsets.UTF_8).length <= bytes);
+        }
+        assertEquals(cursors.size(), new HashSet<>(cursors).size());
+    }
+
+    @Test
+    public void testOutageIsSpooledAndSentWhenTheCollectorIsBack() throws Exception {
+        PushServiceImpl pushService = spooled(service(100, 1048576, 0));
+        pushService.push();
+        fixture.append(0, 150);
+
+        failing.set(1000);
+        assertEquals(0, pushService.push());
+        fixture.append(150, 200);
+        ReflectionTestUtils.setField(pushService, "nextAttempt", Long.MAX_VALUE);
+        assertEquals(0, pushService.push());
+        assertTrue(bodies.isEmpty());
+
+        // the log is rotated away; the spooled lines are not lost, and a restarted
+        // reporter sends them
+        Files.delete(fixture.logFile);
+        Files.createFile(fixture.logFile);
+        failing.set(0);
+        pushService = spooled(service(100, 1048576, 0));
+        assertEquals(200, pushService.push());
+        assertEquals(expected(0, 200), received());
+        assertEquals(0, pushService.push());
+
+        fixture.append(200, 210);
+        assertEquals(10, pushService.push());
+        assertEquals(expected(0, 210), received());
+    }
+
+    private static PushServiceImpl spooled(PushServiceImpl pushService) {
+        ReflectionTestUtils.setField(pushService, "spoolMaxBytes", 1L << 20);
+        ReflectionTestUtils.setField(pushService, "spoolSegmentBytes", 4096L);
+        return pushService;
+    }
+
+    private PushServiceImpl service(int batchLines, int batchBytes, long batchAge) {
+        PushServiceImpl pushService = new PushServiceImpl();
+        ReflectionTestUtils.setField(pushService, "logExtractionService", fixture.extractionService());
+        ReflectionTestUtils.setField(pushService, "logLineService", fixture.logLineService);
+        ReflectionTestUtils.setField(pushService, "configurationExtractor", fixture.configurationExtractor);
+        ReflectionTestUtils.setField(pushService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(pushService, "pushUrl",
+                "http://127.0.0.1:" + collector.getAddress().getPort() + "/collector/push");
+        ReflectionTestUtils.setField(pushService, "maxBatchLines", batchLines);
+        ReflectionTestUtils.setField(pushService, "maxBatchBytes", batchBytes);
+        ReflectionTestUtils.setField(pushService, "maxBatchAge", batchAge);
+        ReflectionTestUtils.setField(pushService, "latencyTarget", 1000L);
+        ReflectionTestUtils.setField(pushService, "initialBackoff", 0L);
+        ReflectionTestUtils.setField(pushService, "maxBackoff", 300000L);
+        ReflectionTestUtils.setField(pushService, "restTemplate", new RestTemplate());
+        return pushService;
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> hosts = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            hosts.add("h" + i);
+        }
+        return hosts;
+    }
+
+    /**
+     * @return The host of each line the collector took, in order
+     */
+    private List<String> received() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> hosts = new ArrayList<>();
+        for (String body : bodies) {
+            for (String line : body.split("\n")) {
+                hosts.add(mapper.readTree(line).get("values").get("host").asText());
+            }
+        }
+        return hosts;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
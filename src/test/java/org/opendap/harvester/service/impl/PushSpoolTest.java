@@ -0,0 +1,201 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.entity.LogCursor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PushSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreReadInOrderAcrossSegments() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("spool");
+        PushSpool spool = new PushSpool(dir, 200, 1 << 20);
+        spool.open();
+        assertNull(spool.peek());
+        assertNull(spool.getLastCursor());
+        for (int i = 0; i < 20; i++) {
+            spool.append(cursor(i), 1, data(i));
+        }
+        spool.sync();
+        assertTrue(spool.getSegments() > 1);
+        assertEquals(cursor(19).encode(), spool.getLastCursor().encode());
+
+        assertEquals(range(0, 20), drain(spool, 20));
+        assertNull(spool.peek());
+        // only the segment being written is left
+        assertEquals(1, spool.getSegments());
+        assertEquals(1, segmentFiles(dir));
+        spool.close();
+    }
+
+    @Test
+    public void testReopenCarriesOnAfterTheLastAck() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("spool");
+        PushSpool spool = new PushSpool(dir, 200, 1 << 20);
+        spool.open();
+        for (int i = 0; i < 10; i++) {
+            spool.append(cursor(i), 1, data(i));
+        }
+        spool.sync();
+        assertEquals(range(0, 4), drain(spool, 4));
+        spool.close();
+
+        spool = new PushSpool(dir, 200, 1 << 20);
+        spool.open();
+        assertEquals(cursor(9).encode(), spool.getLastCursor().encode());
+        spool.append(cursor(10), 1, data(10));
+        assertEquals(range(4, 11), drain(spool, 20));
+        spool.close();
+    }
+
+    @Test
+    public void testTornRecordIsCutOff() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("spool");
+        PushSpool spool = new PushSpool(dir, 1 << 20, 1 << 20);
+        spool.open();
+        for (int i = 0; i < 3; i++) {
+            spool.append(cursor(i), 1, data(i));
+        }
+        spool.close();
+        Path segment = lastSegment(dir);
+        long whole = Files.size(segment);
+        // half a record, as a crash in the middle of a write leaves it
+        byte[] torn = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOfRange(torn, 0, torn.length / 6), StandardOpenOption.APPEND);
+
+        spool = new PushSpool(dir, 1 << 20, 1 << 20);
+        spool.open();
+        assertEquals(whole, Files.size(segment));
+        assertEquals(cursor(2).encode(), spool.getLastCursor().encode());
+        spool.append(cursor(3), 1, data(3));
+        assertEquals(range(0, 4), drain(spool, 10));
+        spool.close();
+    }
+
+    @Test
+    public void testCorruptRecordIsCutOff() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("spool");
+        PushSpool spool = new PushSpool(dir, 1 << 20, 1 << 20);
+        spool.open();
+        spool.append(cursor(0), 1, data(0));
+        spool.sync();
+        long first = Files.size(lastSegment(dir));
+        spool.append(cursor(1), 1, data(1));
+        spool.close();
+        byte[] bytes = Files.readAllBytes(lastSegment(dir));
+        bytes[bytes.length - 1] ^= 0x55;
+        Files.write(lastSegment(dir), bytes);
+
+        spool = new PushSpool(dir, 1 << 20, 1 << 20);
+        spool.open();
+        assertEquals(first, Files.size(lastSegment(dir)));
+        assertEquals(range(0, 1), drain(spool, 10));
+        spool.close();
+    }
+
+    @Test
+    public void testOldestSegmentsAreDroppedWhenFull() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("spool");
+        PushSpool spool = new PushSpool(dir, 200, 600);
+        spool.open();
+        for (int i = 0; i < 50; i++) {
+            spool.append(cursor(i), 1, data(i));
+        }
+        spool.sync();
+        assertTrue(spool.getBytes() <= 600);
+        List<String> left = drain(spool, 50);
+        assertTrue(left.size() < 50);
+        // what is left is the newest records, in order
+        assertEquals(range(50 - left.size(), 50), left);
+        spool.close();
+    }
+
+    private static LogCursor cursor(int i) {
+        return new LogCursor("1:2", 100L * i, 1466700480000L + i);
+    }
+
+    private static byte[] data(int i) {
+        return ("{\"values\":{\"host\":\"h" + i + "\"}}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> range(int from, int to) {
+        List<String> data = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            data.add(new String(data(i), StandardCharsets.UTF_8));
+        }
+        return data;
+    }
+
+    private static List<String> drain(PushSpool spool, int max) throws IOException {
+        List<String> data = new ArrayList<>();
+        PushSpool.Record record;
+        while (data.size() < max && (record = spool.peek()) != null) {
+            data.add(new String(record.data, StandardCharsets.UTF_8));
+            spool.ack(record);
+        }
+        return data;
+    }
+
+    private static int segmentFiles(Path dir) {
+        File[] files = dir.toFile().listFiles();
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".spool")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Path lastSegment(Path dir) {
+        File last = null;
+        for (File file : dir.toFile().listFiles()) {
+            if (file.getName().endsWith(".spool") && (last == null || file.getName().compareTo(last.getName()) > 0)) {
+                last = file;
+            }
+        }
+        return last.toPath();
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendap.harvester.config.ConfigurationExtractor;
+import org.opendap.harvester.entity.RegistrationState;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Register with a stand-in collector on a local port.
+ */
+public class RegistrationTest {
+    private static final String UUID = "0b6bd0a9-4bd6-4bb4-9e3a-8fa1ccd46a5e";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConfigurationExtractor configurationExtractor = mock(ConfigurationExtractor.class);
+
+    private HttpServer collector;
+    // Requests to fail with a 500 before the collector takes any, and how long it takes
+    private final AtomicInteger failing = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile long delay = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        collector.createContext("/collector/registration", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (failing.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(500, -1);
+                } else {
+                    byte[] body = ("{\"serverUUID\":\"" + UUID + "\"}").getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        collector.start();
+
+        when(configurationExtractor.getCollectorUrl()).thenReturn("http://127.0.0.1:"
+                + collector.getAddress().getPort() + "/collector/registration?");
+        when(configurationExtractor.getServerUrl()).thenReturn("http://localhost/opendap");
+        when(configurationExtractor.getReporterUrl()).thenReturn("http://localhost/reporter");
+        when(configurationExtractor.getDefaultPing()).thenReturn(600L);
+        when(configurationExtractor.getLogNumber()).thenReturn(10000);
+    }
+
+    @After
+    public void tearDown() {
+        collector.stop(0);
+    }
+
+    @Test
+    public void testNothingIsCalledUntilTheApplicationIsReady() {
+        RegistrationImpl registration = registration(1000);
+        registration.scheduledRegistration();
+        assertEquals(0, calls.get());
+        assertFalse(registration.getState().isRegistered());
+        assertEquals(0, registration.getState().getNextAttempt());
+    }
+
+    @Test
+    public void testRegistrationSavesTheIdAndIsRepeated() throws Exception {
+        RegistrationImpl registration = registration(1000);
+        registration.init();
+        registration.scheduledRegistration();
+
+        RegistrationState state = registration.getState();
+        assertTrue(state.isRegistered());
+        assertEquals(UUID, state.getServerUUID());
+        assertEquals(UUID, new String(Files.readAllBytes(uuidFile().toPath()), StandardCharsets.UTF_8));
+        assertEquals(state.getLastSuccess() + 3600000, state.getNextAttempt());
+
+        // not due again yet
+        registration.scheduledRegistration();
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testFailuresAreRetriedAfterAGrowingWait() {
+        failing.set(3);
+        RegistrationImpl registration = registration(1000);
+        ReflectionTestUtils.setField(registration, "initialBackoff", 1000L);
+        ReflectionTestUtils.setField(registration, "maxBackoff", 3000L);
+        registration.init();
+
+        long[] ceilings = {1000, 2000, 3000};
+        for (int i = 0; i < ceilings.length; i++) {
+            registration.scheduledRegistration();
+            RegistrationState state = registration.getState();
+            assertFalse(state.isRegistered());
+            assertEquals(i + 1, state.getFailures());
+            assertNotNull(state.getLastError());
+            long wait = state.getNextAttempt() - state.getLastAttempt();
+            assertTrue("wait " + wait, wait >= ceilings[i] / 2 - 100 && wait <= ceilings[i] + 100);
+
+            // too early: no call
+            registration.scheduledRegistration();
+            assertEquals(i + 1, calls.get());
+            ReflectionTestUtils.setField(registration, "nextAttempt", 0L);
+        }
+
+        registration.scheduledRegistration();
+        assertTrue(registration.getState().isRegistered());
+        assertEquals(0, registration.getState().getFailures());
+    }
+
+    @Test
+    public void testACollectorThatDoesNotAnswerTimesOut() {
+        delay = 2000;
+        RegistrationImpl registration = registration(200);
+        registration.init();
+
+        long start = System.currentTimeMillis();
+        registration.scheduledRegistration();
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(1, registration.getState().getFailures());
+    }
+
+    @Test
+    public void testNothingIsCalledWhenDisabled() {
+        RegistrationImpl registration = registration(1000);
+        ReflectionTestUtils.setField(registration, "enabled", false);
+        registration.init();
+        registration.scheduledRegistration();
+        assertEquals(0, calls.get());
+        assertFalse(registration.getState().isEnabled());
+    }
+
+    private RegistrationImpl registration(int timeout) {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(timeout);
+        factory.setReadTimeout(timeout);
+
+        RegistrationImpl registration = new RegistrationImpl();
+        ReflectionTestUtils.setField(registration, "configurationExtractor", configurationExtractor);
+        ReflectionTestUtils.setField(registration, "restTemplate", new RestTemplate(factory));
+        ReflectionTestUtils.setField(registration, "uuidFile", uuidFile());
+        ReflectionTestUtils.setField(registration, "enabled", true);
+        ReflectionTestUtils.setField(registration, "interval", 3600000L);
+        ReflectionTestUtils.setField(registration, "initialBackoff", 1000L);
+        ReflectionTestUtils.setField(registration, "maxBackoff", 300000L);
+        return registration;
+    }
+
+    private File uuidFile() {
+        return new File(folder.getRoot(), "reporter.uuid");
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ Copyright (c) 2019 OPeNDAP, Inc.
+ Please read the full copyright statement in the file LICENSE.
+
+ Authors: 
+	James Gallagher	 <jgallagher@opendap.org>
+    Samuel Lloyd	 <slloyd@opendap.org>
+
+ This library is free software; you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public
+ License as published by the Free Software Foundation; either
+ version 2.1 of the License, or (at your option) any later version.
+
+ This library is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Lesser General Public License for more details.
+
+ You should have received a copy of the GNU Lesser General Public
+ License along with this library; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+
+ You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+*/
+
+package org.opendap.harvester.service.impl;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Check that the fixed-width timestamp parser gives the same times as Joda.
+ */
+public class TimestampParserTest {
+    private static final Logger log = LoggerFactory.getLogger(TimestampParserTest.class);
+
+    private static final DateTimeFormatter JODA = DateTimeFormat.forPattern(TimestampParser.PATTERN);
+
+    @Test
+    public void testThatParserMatchesJodaOnRandomTimes() {
+        Random random = new Random(23);
+        for (int i = 0; i < 100000; i++) {
+            // Offsets from -23:59 to +23:59, times from year 1 to 9999
+            int offset = (random.nextInt(2 * 1440 - 1) - 1439) * 60 * 1000;
+            long millis = (long) (random.nextDouble() * 315537897599999L) - 62135596800000L;
+            String text = JODA.withZone(DateTimeZone.forOffsetMillis(offset)).print(millis);
+            assertEquals(text, millis, TimestampParser.parse(text));
+        }
+    }
+
+    @Test
+    public void testThatParserReadsTheTimeInsideALine() {
+        String line = "[::1] [-] [2016-03-29T11:43:43.422 -0700] [13 ms]";
+        assertEquals(new DateTime(2016, 3, 29, 18, 43, 43, 422, DateTimeZone.UTC).getMillis(),
+                TimestampParser.parse(line, 11, 40));
+    }
+
+    @Test
+    public void testThatOtherLayoutsFallBackToJoda() {
+        for (String text : new String[] {"2016-03-29T11:43:43.422 -07:00", "2016-3-29T11:43:43.422 -0700",
+                "12016-03-29T11:43:43.422 +0100"}) {
+            assertEquals(text, JODA.parseDateTime(text).getMillis(), TimestampParser.parse(text));
+        }
+    }
+
+    @Test
+    public void testThatBadTimesAreRejected() {
+        for (String text : new String[] {"", "-", "2016-02-30T11:43:43.422 -0700", "2016-03-29T24:43:43.422 -0700",
+                "2016-03-29T11:43:43.422 x0700", "2016-03-29 11:43:43.422 -0700"}) {
+            try {
+                long millis = TimestampParser.parse(text);
+                fail(text + " parsed as " + millis);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParserThroughput() {
+        String[] texts = new String[1000];
+        Random random = new Random(5);
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = JODA.withZone(DateTimeZone.forOffsetHours(random.nextInt(24) - 12))
+                    .print(1459276000000L + random.nextInt(Integer.MAX_VALUE));
+        }
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int repeat = 0; repeat < 200; repeat++) {
+            for (String text : texts) {
+                sum += DateTime.parse(text, DateTimeFormat.forPattern(TimestampParser.PATTERN))
+                        .toDateTime(DateTimeZone.UTC).toLocalDateTime().toDateTime(DateTimeZone.UTC).getMillis();
+            }
+        }
+        long joda = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int repeat = 0; repeat < 200; repeat++) {
+            for (String text : texts) {
+                sum -= TimestampParser.parse(text);
+            }
+        }
+        long parser = System.nanoTime() - start;
+        assertEquals(0, sum);
+        log.info("Timestamps: joda " + joda / 1000000 + " ms, fixed width " + parser / 1000000 + " ms");
+    }
+}